@@ -0,0 +1,95 @@
+package org.Mercury.cuckoo.benchmarks;
+
+import org.Mercury.cuckoo.AdaptiveCuckooFilter;
+import org.Mercury.cuckoo.ConcurrencyMode;
+import org.Mercury.cuckoo.CuckooFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AdaptiveCuckooFilter}和{@link CuckooFilter}的查找耗时。自适应过滤器要先检查桶的选择子，
+ * 没有换过指纹函数的桶再用 SWAR 比较
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AdaptiveBenchmark {
+    @Param({"8", "16"})
+    int fingerprintSize;
+
+    @Param({"0.5", "0.9"})
+    double loadFactor;
+
+    CuckooFilter filter;
+    AdaptiveCuckooFilter adaptive;
+    Integer[] hits;
+    Integer[] misses;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int next() {
+            return next = (next + 1) & (BenchmarkFilters.SAMPLE - 1);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        filter = BenchmarkFilters.builder(fingerprintSize, ConcurrencyMode.SEGMENT_LOCKS).build();
+        int items = BenchmarkFilters.fill(filter, loadFactor);
+        adaptive = AdaptiveCuckooFilter.builder(BenchmarkFilters.SLOTS / 10 * 9)
+                .fingerprintSize(fingerprintSize)
+                .slotsPerBucket(BenchmarkFilters.SLOTS_PER_BUCKET)
+                .build();
+        for (int i = 0; i < items; i++) {
+            if (!adaptive.add(i)) {
+                throw new IllegalStateException("Adaptive filter is full after " + i + " items");
+            }
+        }
+        hits = BenchmarkFilters.sample(0, items, 1);
+        misses = BenchmarkFilters.sample(Integer.MIN_VALUE, Integer.MAX_VALUE, 2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        filter.close();
+        adaptive.close();
+    }
+
+    @Benchmark
+    public boolean plainHit(Cursor cursor) {
+        return filter.contains(hits[cursor.next()]);
+    }
+
+    @Benchmark
+    public boolean plainMiss(Cursor cursor) {
+        return filter.contains(misses[cursor.next()]);
+    }
+
+    @Benchmark
+    public boolean adaptiveHit(Cursor cursor) {
+        return adaptive.contains(hits[cursor.next()]);
+    }
+
+    @Benchmark
+    public boolean adaptiveMiss(Cursor cursor) {
+        return adaptive.contains(misses[cursor.next()]);
+    }
+}
@@ -0,0 +1,84 @@
+package org.Mercury.cuckoo.benchmarks;
+
+import org.Mercury.cuckoo.AsyncCuckooWriter;
+import org.Mercury.cuckoo.ConcurrencyMode;
+import org.Mercury.cuckoo.CuckooFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 从空表添加到90%负载的持续写入耗时(按添加数归一化)：直接 add，和通过{@link AsyncCuckooWriter}的 post、addAsync，
+ * 异步的两种最后 flush，包括写线程处理完所有添加的时间
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AsyncWriterBenchmark {
+    static final int ITEMS = BenchmarkFilters.SLOTS / 10 * 9;
+
+    Integer[] keys;
+    CuckooFilter filter;
+    AsyncCuckooWriter writer;
+
+    @Setup(Level.Trial)
+    public void setupKeys() {
+        keys = BenchmarkFilters.range(0, ITEMS);
+    }
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        filter = BenchmarkFilters.builder(16, ConcurrencyMode.SEGMENT_LOCKS).build();
+        writer = new AsyncCuckooWriter(filter);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        writer.close();
+        filter.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEMS)
+    public CuckooFilter add() {
+        for (int i = 0; i < ITEMS; i++) {
+            filter.add(keys[i]);
+        }
+        return filter;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEMS)
+    public CuckooFilter post() {
+        for (int i = 0; i < ITEMS; i++) {
+            writer.post(keys[i]);
+        }
+        writer.flush();
+        return filter;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEMS)
+    public CuckooFilter addAsync() {
+        for (int i = 0; i < ITEMS; i++) {
+            writer.addAsync(keys[i]);
+        }
+        writer.flush();
+        return filter;
+    }
+}
@@ -0,0 +1,103 @@
+package org.Mercury.cuckoo.benchmarks;
+
+import org.Mercury.cuckoo.ConcurrencyMode;
+import org.Mercury.cuckoo.CuckooFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量查找和逐个查找的比较，结果是每个 key 的耗时。key 有一半在过滤器中
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchBenchmark {
+    static final int KEYS = 1024;
+
+    @Param({"8", "16"})
+    int fingerprintSize;
+
+    @Param({"0.5", "0.9"})
+    double loadFactor;
+
+    @Param({"SEGMENT_LOCKS", "LOCK_FREE"})
+    ConcurrencyMode concurrencyMode;
+
+    CuckooFilter filter;
+    long[] keys;
+    Integer[] objects;
+
+    /**
+     * 每个线程自己的结果数组
+     */
+    @State(Scope.Thread)
+    public static class Results {
+        final boolean[] found = new boolean[KEYS];
+    }
+
+    /**
+     * 批量接口和逐个接口对同一个 key 的 hash 不同，两种 key 各占一半负载，各自一半命中
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        filter = BenchmarkFilters.builder(fingerprintSize, concurrencyMode).build();
+        int items = BenchmarkFilters.fill(filter, loadFactor / 2);
+        Random random = new Random(1);
+        long[] present = new long[items];
+        for (int i = 0; i < items; i++) {
+            present[i] = random.nextLong();
+        }
+        if (filter.addAll(present) != items) {
+            throw new IllegalStateException("Filter is full, cannot reach a load factor of " + loadFactor);
+        }
+
+        keys = new long[KEYS];
+        objects = new Integer[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = i % 2 == 0 ? present[random.nextInt(items)] : random.nextLong();
+            objects[i] = i % 2 == 0 ? random.nextInt(items) : -1 - random.nextInt(Integer.MAX_VALUE);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        filter.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public boolean[] containsAll(Results results) {
+        filter.containsAll(keys, results.found);
+        return results.found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public int containsEach() {
+        int found = 0;
+        for (Integer o : objects) {
+            if (filter.contains(o)) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
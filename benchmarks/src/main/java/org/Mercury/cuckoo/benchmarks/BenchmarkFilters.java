@@ -0,0 +1,68 @@
+package org.Mercury.cuckoo.benchmarks;
+
+import org.Mercury.cuckoo.ConcurrencyMode;
+import org.Mercury.cuckoo.CuckooFilter;
+import org.Mercury.cuckoo.InsertionStrategy;
+
+import java.util.Random;
+
+/**
+ * 基准测试共用的过滤器和key。过滤器固定有 2^20 个槽位(4个槽位一个桶)，负载因子是已添加的项数除以槽位数。
+ * key 预先装箱，测到的分配只来自过滤器本身
+ */
+final class BenchmarkFilters {
+    static final int SLOTS = 1 << 20;
+    static final int SLOTS_PER_BUCKET = 4;
+    // 随机抽样的查找 key 的个数，2的幂
+    static final int SAMPLE = 1 << 16;
+
+    private BenchmarkFilters() {
+    }
+
+    /**
+     * maxItems 取槽位数的90%，按{@link CuckooFilter}的取整规则正好得到 2^20 个槽位
+     */
+    static CuckooFilter.Builder builder(int fingerprintSize, ConcurrencyMode concurrencyMode) {
+        return CuckooFilter.builder(SLOTS / 10 * 9)
+                .fingerprintSize(fingerprintSize)
+                .slotsPerBucket(SLOTS_PER_BUCKET)
+                .concurrencyMode(concurrencyMode)
+                .insertionStrategy(InsertionStrategy.RANDOM_WALK);
+    }
+
+    /**
+     * 添加 0,1,2... 直到负载因子达到 loadFactor，返回添加的项数
+     */
+    static int fill(CuckooFilter filter, double loadFactor) {
+        int items = (int) (SLOTS * loadFactor);
+        for (int i = 0; i < items; i++) {
+            if (!filter.add(i)) {
+                throw new IllegalStateException("Filter is full after " + i + " items, cannot reach a load factor of " + loadFactor);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * 从 [from, from+count) 中随机抽取 SAMPLE 个 key
+     */
+    static Integer[] sample(int from, int count, long seed) {
+        Random random = new Random(seed);
+        Integer[] keys = new Integer[SAMPLE];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = from + random.nextInt(count);
+        }
+        return keys;
+    }
+
+    /**
+     * 连续的 count 个 key
+     */
+    static Integer[] range(int from, int count) {
+        Integer[] keys = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = from + i;
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,82 @@
+package org.Mercury.cuckoo.benchmarks;
+
+import org.Mercury.cuckoo.ConcurrencyMode;
+import org.Mercury.cuckoo.CuckooFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+/**
+ * 从空表构建到 loadFactor 负载的耗时(按 key 数归一化)：逐个 add，和用 parallelism 个线程的
+ * {@link CuckooFilter.Builder#buildFrom(LongStream, ForkJoinPool)}。两者的 key 和hash相同
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BulkLoadBenchmark {
+    static final int MAX_ITEMS = BenchmarkFilters.SLOTS / 100 * 95;
+
+    @Param({"0.5", "0.9"})
+    double loadFactor;
+
+    @Param({"1", "2", "4", "8"})
+    int parallelism;
+
+    ForkJoinPool pool;
+    CuckooFilter filter;
+    int items;
+
+    @Setup(Level.Trial)
+    public void setupPool() {
+        pool = new ForkJoinPool(parallelism);
+        items = (int) (BenchmarkFilters.SLOTS * loadFactor);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownPool() {
+        pool.shutdown();
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        filter.close();
+    }
+
+    /**
+     * 归一化按 MAX_ITEMS 计算，不同负载之间只比较同一负载下的两种方式
+     */
+    @Benchmark
+    @OperationsPerInvocation(MAX_ITEMS)
+    public CuckooFilter add() {
+        filter = BenchmarkFilters.builder(16, ConcurrencyMode.SEGMENT_LOCKS).build();
+        for (long key = 0; key < items; key++) {
+            filter.add(key);
+        }
+        return filter;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MAX_ITEMS)
+    public CuckooFilter buildFrom() {
+        filter = BenchmarkFilters.builder(16, ConcurrencyMode.SEGMENT_LOCKS).buildFrom(LongStream.range(0, items), pool);
+        return filter;
+    }
+}
@@ -0,0 +1,89 @@
+package org.Mercury.cuckoo.benchmarks;
+
+import org.Mercury.cuckoo.ConcurrencyMode;
+import org.Mercury.cuckoo.CuckooFilter;
+import org.Mercury.cuckoo.FrozenCuckooFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 可变过滤器和{@link CuckooFilter#freeze()}得到的只读过滤器的查找吞吐量，结果是所有线程每微秒的查找次数。
+ * 用 -t 指定线程数，所有线程查同一个过滤器
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FrozenBenchmark {
+    @Param({"8", "16"})
+    int fingerprintSize;
+
+    @Param({"0.9"})
+    double loadFactor;
+
+    @Param({"SEGMENT_LOCKS", "LOCK_FREE"})
+    ConcurrencyMode concurrencyMode;
+
+    CuckooFilter filter;
+    FrozenCuckooFilter frozen;
+    Integer[] hits;
+    Integer[] misses;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int next() {
+            return next = (next + 1) & (BenchmarkFilters.SAMPLE - 1);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        filter = BenchmarkFilters.builder(fingerprintSize, concurrencyMode).build();
+        int items = BenchmarkFilters.fill(filter, loadFactor);
+        frozen = filter.freeze();
+        hits = BenchmarkFilters.sample(0, items, 1);
+        misses = BenchmarkFilters.sample(Integer.MIN_VALUE, Integer.MAX_VALUE, 2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        filter.close();
+    }
+
+    @Benchmark
+    public boolean mutableHit(Cursor cursor) {
+        return filter.contains(hits[cursor.next()]);
+    }
+
+    @Benchmark
+    public boolean mutableMiss(Cursor cursor) {
+        return filter.contains(misses[cursor.next()]);
+    }
+
+    @Benchmark
+    public boolean frozenHit(Cursor cursor) {
+        return frozen.contains(hits[cursor.next()]);
+    }
+
+    @Benchmark
+    public boolean frozenMiss(Cursor cursor) {
+        return frozen.contains(misses[cursor.next()]);
+    }
+}
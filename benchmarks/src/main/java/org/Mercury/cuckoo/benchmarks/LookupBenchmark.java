@@ -0,0 +1,78 @@
+package org.Mercury.cuckoo.benchmarks;
+
+import org.Mercury.cuckoo.ConcurrencyMode;
+import org.Mercury.cuckoo.CuckooFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * contains 命中和未命中的耗时。多线程用 -t 指定线程数，所有线程查同一个过滤器
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+    @Param({"8", "12", "16", "32"})
+    int fingerprintSize;
+
+    @Param({"0.5", "0.75", "0.9", "0.95"})
+    double loadFactor;
+
+    @Param({"SEGMENT_LOCKS", "LOCK_FREE"})
+    ConcurrencyMode concurrencyMode;
+
+    CuckooFilter filter;
+    Integer[] hits;
+    Integer[] misses;
+
+    /**
+     * 每个线程自己的查找位置
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int next() {
+            return next = (next + 1) & (BenchmarkFilters.SAMPLE - 1);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        filter = BenchmarkFilters.builder(fingerprintSize, concurrencyMode).build();
+        int items = BenchmarkFilters.fill(filter, loadFactor);
+        hits = BenchmarkFilters.sample(0, items, 1);
+        misses = BenchmarkFilters.sample(Integer.MIN_VALUE, Integer.MAX_VALUE, 2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        filter.close();
+    }
+
+    @Benchmark
+    public boolean containsHit(Cursor cursor) {
+        return filter.contains(hits[cursor.next()]);
+    }
+
+    @Benchmark
+    public boolean containsMiss(Cursor cursor) {
+        return filter.contains(misses[cursor.next()]);
+    }
+}
@@ -0,0 +1,85 @@
+package org.Mercury.cuckoo.benchmarks;
+
+import org.Mercury.cuckoo.ConcurrencyMode;
+import org.Mercury.cuckoo.CuckooFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 半排序压缩的桶和普通布局的比较(加锁模式，单线程)。
+ * fill 从空表添加到 loadFactor，结果按槽位数(2^20)归一化
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SemiSortedBenchmark {
+    @Param({"8", "12", "16"})
+    int fingerprintSize;
+
+    @Param({"0.9", "0.95"})
+    double loadFactor;
+
+    @Param({"false", "true"})
+    boolean semiSorted;
+
+    CuckooFilter filter;
+    Integer[] hits;
+    Integer[] misses;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        filter = newFilter();
+        int items = BenchmarkFilters.fill(filter, loadFactor);
+        hits = BenchmarkFilters.sample(0, items, 1);
+        misses = BenchmarkFilters.sample(Integer.MIN_VALUE, Integer.MAX_VALUE, 2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        filter.close();
+    }
+
+    private CuckooFilter newFilter() {
+        return BenchmarkFilters.builder(fingerprintSize, ConcurrencyMode.SEGMENT_LOCKS).semiSortedBuckets(semiSorted).build();
+    }
+
+    @Benchmark
+    public boolean containsHit() {
+        return filter.contains(hits[next = (next + 1) & (BenchmarkFilters.SAMPLE - 1)]);
+    }
+
+    @Benchmark
+    public boolean containsMiss() {
+        return filter.contains(misses[next = (next + 1) & (BenchmarkFilters.SAMPLE - 1)]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    @OperationsPerInvocation(BenchmarkFilters.SLOTS)
+    public CuckooFilter fill() {
+        CuckooFilter filled = newFilter();
+        BenchmarkFilters.fill(filled, loadFactor);
+        filled.close();
+        return filled;
+    }
+}
@@ -0,0 +1,120 @@
+package org.Mercury.cuckoo.benchmarks;
+
+import org.Mercury.cuckoo.ConcurrencyMode;
+import org.Mercury.cuckoo.CuckooFilter;
+import org.Mercury.cuckoo.CuckooFilterClient;
+import org.Mercury.cuckoo.CuckooFilterServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通过本机回环访问{@link CuckooFilterServer}和在本进程中直接查找的比较，结果是每个 key 的耗时。
+ * 每次调用查找 KEYS 个 key，按 batch 个一批发送：remote 每批等待响应后再发下一批，
+ * remotePipelined 先发出所有批再等待。key 有一半在过滤器中
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServerBenchmark {
+    static final int KEYS = 1024;
+    static final String NAME = "bench";
+
+    @Param({"1", "64", "1024"})
+    int batch;
+
+    CuckooFilter filter;
+    CuckooFilterServer server;
+    long[] keys;
+
+    @State(Scope.Thread)
+    public static class Connection {
+        CuckooFilterClient client;
+        final boolean[] found = new boolean[KEYS];
+        @SuppressWarnings("unchecked")
+        final CompletableFuture<boolean[]>[] futures = (CompletableFuture<boolean[]>[]) new CompletableFuture<?>[KEYS];
+
+        @Setup(Level.Trial)
+        public void connect(ServerBenchmark benchmark) throws IOException {
+            client = CuckooFilterClient.connect(benchmark.server.address());
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            client.close();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        filter = BenchmarkFilters.builder(16, ConcurrencyMode.SEGMENT_LOCKS).build();
+        int items = BenchmarkFilters.SLOTS / 10 * 9;
+        Random random = new Random(1);
+        long[] present = new long[items];
+        for (int i = 0; i < items; i++) {
+            present[i] = random.nextLong();
+        }
+        if (filter.addAll(present) != items) {
+            throw new IllegalStateException("Filter is full after less than " + items + " items");
+        }
+        keys = new long[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = i % 2 == 0 ? present[random.nextInt(items)] : random.nextLong();
+        }
+        server = CuckooFilterServer.startLocal(0);
+        server.register(NAME, filter);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+        filter.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public boolean[] inProcess(Connection connection) {
+        filter.containsAll(keys, connection.found);
+        return connection.found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public void remote(Connection connection, Blackhole blackhole) {
+        for (int i = 0; i < KEYS; i += batch) {
+            blackhole.consume(connection.client.submit(CuckooFilterClient.Op.CONTAINS, NAME, keys, i, batch).join());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public void remotePipelined(Connection connection, Blackhole blackhole) {
+        int n = 0;
+        for (int i = 0; i < KEYS; i += batch) {
+            connection.futures[n++] = connection.client.submit(CuckooFilterClient.Op.CONTAINS, NAME, keys, i, batch);
+        }
+        for (int i = 0; i < n; i++) {
+            blackhole.consume(connection.futures[i].join());
+        }
+    }
+}
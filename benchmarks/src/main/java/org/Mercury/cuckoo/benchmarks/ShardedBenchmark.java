@@ -0,0 +1,88 @@
+package org.Mercury.cuckoo.benchmarks;
+
+import org.Mercury.cuckoo.ShardedCuckooFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分片过滤器的吞吐量，-t 指定线程数，所有线程访问同一个过滤器。shards=1 相当于一个普通的{@link org.Mercury.cuckoo.CuckooFilter}。
+ * 过滤器先填到一半，addDelete 添加一个不在过滤器中的 key 再删除它，负载不变
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardedBenchmark {
+    @Param({"1", "4", "16"})
+    int shards;
+
+    @Param({"false", "true"})
+    boolean singleWriter;
+
+    ShardedCuckooFilter filter;
+    Integer[] hits;
+    final AtomicInteger threads = new AtomicInteger();
+
+    /**
+     * 每个线程自己的查找位置和用来添加的 key，不同线程的 key 不重叠
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+        Integer[] keys;
+
+        @Setup(Level.Trial)
+        public void setup(ShardedBenchmark benchmark) {
+            int thread = benchmark.threads.getAndIncrement();
+            keys = BenchmarkFilters.range(BenchmarkFilters.SLOTS + thread * BenchmarkFilters.SAMPLE, BenchmarkFilters.SAMPLE);
+        }
+
+        int next() {
+            return next = (next + 1) & (BenchmarkFilters.SAMPLE - 1);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        filter = ShardedCuckooFilter.builder(BenchmarkFilters.SLOTS / 10 * 9).shards(shards).singleWriter(singleWriter).build();
+        int items = BenchmarkFilters.SLOTS / 2;
+        for (int i = 0; i < items; i++) {
+            if (!filter.add(i)) {
+                throw new IllegalStateException("Filter is full after " + i + " items");
+            }
+        }
+        hits = BenchmarkFilters.sample(0, items, 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        filter.close();
+    }
+
+    @Benchmark
+    public boolean contains(Cursor cursor) {
+        return filter.contains(hits[cursor.next()]);
+    }
+
+    @Benchmark
+    public boolean addDelete(Cursor cursor) {
+        Integer key = cursor.keys[cursor.next()];
+        return filter.add(key) & filter.delete(key);
+    }
+}
@@ -0,0 +1,143 @@
+package org.Mercury.cuckoo.benchmarks;
+
+import org.Mercury.cuckoo.ByteArrayTable;
+import org.Mercury.cuckoo.ByteUtil;
+import org.Mercury.cuckoo.SemiSortedTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 表和{@link ByteUtil}的位运算原语，不经过过滤器的hash和锁。桶和指纹是预先生成的随机数
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TableBenchmark {
+    static final int BUCKETS = 1 << 18;
+    static final int SAMPLE = 1 << 12;
+
+    @Param({"8", "12", "16", "32"})
+    int fingerprintSize;
+
+    ByteArrayTable table;
+    // 半排序的表只支持16位以内的指纹，32位时是 null
+    SemiSortedTable semiSorted;
+    long[] buckets;
+    int[] tags;
+    long[] words;
+    byte[] bytes;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        table = new ByteArrayTable(BUCKETS, BenchmarkFilters.SLOTS_PER_BUCKET, fingerprintSize);
+        semiSorted = fingerprintSize <= SemiSortedTable.MAX_BITS_PER_TAG ? new SemiSortedTable(BUCKETS, fingerprintSize) : null;
+        Random random = new Random(1);
+        buckets = new long[SAMPLE];
+        tags = new int[SAMPLE];
+        words = new long[SAMPLE];
+        long tagMask = (1L << fingerprintSize) - 1;
+        for (int i = 0; i < SAMPLE; i++) {
+            buckets[i] = random.nextInt(BUCKETS);
+            tags[i] = (int) Math.max(1, random.nextLong() & tagMask);
+            words[i] = random.nextLong();
+        }
+        // 填到一半，查找有命中也有未命中
+        for (int i = 0; i < BUCKETS * BenchmarkFilters.SLOTS_PER_BUCKET / 2; i++) {
+            int tag = (int) Math.max(1, random.nextLong() & tagMask);
+            long bucket = random.nextInt(BUCKETS);
+            table.insertTag(bucket, tag);
+            if (semiSorted != null) {
+                semiSorted.insertTag(bucket, tag);
+            }
+        }
+        bytes = new byte[16];
+        random.nextBytes(bytes);
+    }
+
+    private int next() {
+        return next = (next + 1) & (SAMPLE - 1);
+    }
+
+    @Benchmark
+    public boolean findTag() {
+        int i = next();
+        return table.findTag(buckets[i], tags[i]);
+    }
+
+    @Benchmark
+    public int findEmptySlot() {
+        return table.findEmptySlot(buckets[next()]);
+    }
+
+    @Benchmark
+    public int readTag() {
+        int i = next();
+        return table.readTag(buckets[i], i & (BenchmarkFilters.SLOTS_PER_BUCKET - 1));
+    }
+
+    /**
+     * 插入后马上删除，表的内容不变
+     */
+    @Benchmark
+    public boolean insertDeleteTag() {
+        int i = next();
+        return table.insertTag(buckets[i], tags[i]) && table.deleteTag(buckets[i], tags[i]);
+    }
+
+    @Benchmark
+    public boolean semiSortedFindTag() {
+        int i = next();
+        return semiSorted != null && semiSorted.findTag(buckets[i], tags[i]);
+    }
+
+    @Benchmark
+    public boolean semiSortedInsertDeleteTag() {
+        int i = next();
+        return semiSorted != null && semiSorted.insertTag(buckets[i], tags[i]) && semiSorted.deleteTag(buckets[i], tags[i]);
+    }
+
+    @Benchmark
+    public boolean hasZeroLane() {
+        return ByteUtil.hasZeroLane(words[next()], 0x0101010101010101L, 0x8080808080808080L);
+    }
+
+    @Benchmark
+    public long zeroLanes() {
+        return ByteUtil.zeroLanes(words[next()], 0x7f7f7f7f7f7f7f7fL, 0x8080808080808080L);
+    }
+
+    @Benchmark
+    public long getLongLE() {
+        return ByteUtil.getLongLE(bytes, next() & 7);
+    }
+
+    /**
+     * 字节数组的移位每次都分配新数组，-prof gc 可以看到它们的分配
+     */
+    @Benchmark
+    public byte[] shiftLeftAndFill() {
+        return ByteUtil.shiftLeftAndFill(bytes, next() & 7);
+    }
+
+    @Benchmark
+    public byte[] shiftRightAndFill() {
+        return ByteUtil.shitfRightAndFill(bytes, next() & 7);
+    }
+}
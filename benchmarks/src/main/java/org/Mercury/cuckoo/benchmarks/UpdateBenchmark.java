@@ -0,0 +1,137 @@
+package org.Mercury.cuckoo.benchmarks;
+
+import org.Mercury.cuckoo.ConcurrencyMode;
+import org.Mercury.cuckoo.CuckooFilter;
+import org.Mercury.cuckoo.InsertionStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * add 和 delete 的耗时。每次调用添加(或删除)每个线程自己的 {@value #OPS} 个 key，
+ * 调用之间撤销上一次的修改，所以负载因子始终在 loadFactor 和 loadFactor + {@value #OPS}*线程数/2^20 之间。
+ * 高负载下 add 的耗时主要是踢出，insertionStrategy 比较随机游走和广度优先搜索
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 50)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UpdateBenchmark {
+    static final int OPS = 4096;
+
+    @Param({"8", "12", "16", "32"})
+    int fingerprintSize;
+
+    @Param({"0.5", "0.75", "0.9", "0.95"})
+    double loadFactor;
+
+    @Param({"SEGMENT_LOCKS", "LOCK_FREE"})
+    ConcurrencyMode concurrencyMode;
+
+    @Param({"RANDOM_WALK", "BFS"})
+    InsertionStrategy insertionStrategy;
+
+    CuckooFilter filter;
+    int items;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        filter = BenchmarkFilters.builder(fingerprintSize, concurrencyMode).insertionStrategy(insertionStrategy).build();
+        items = BenchmarkFilters.fill(filter, loadFactor);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        filter.close();
+    }
+
+    /**
+     * 每个线程不重叠的一段 key，都不在过滤器中
+     */
+    @State(Scope.Thread)
+    public static class Keys {
+        Integer[] keys;
+        boolean present;
+
+        @Setup(Level.Trial)
+        public void setup(UpdateBenchmark benchmark, ThreadParams thread) {
+            keys = BenchmarkFilters.range(benchmark.items + thread.getThreadIndex() * OPS, OPS);
+        }
+
+        void addAll(CuckooFilter filter) {
+            for (Integer key : keys) {
+                filter.add(key);
+            }
+            present = true;
+        }
+
+        void deleteAll(CuckooFilter filter) {
+            for (Integer key : keys) {
+                filter.delete(key);
+            }
+            present = false;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class AddKeys extends Keys {
+        @Setup(Level.Invocation)
+        public void undo(UpdateBenchmark benchmark) {
+            if (present) {
+                deleteAll(benchmark.filter);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class DeleteKeys extends Keys {
+        @Setup(Level.Invocation)
+        public void undo(UpdateBenchmark benchmark) {
+            if (!present) {
+                addAll(benchmark.filter);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPS)
+    public int add(AddKeys keys) {
+        int added = 0;
+        for (Integer key : keys.keys) {
+            if (filter.add(key)) {
+                added++;
+            }
+        }
+        keys.present = true;
+        return added;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPS)
+    public int delete(DeleteKeys keys) {
+        int deleted = 0;
+        for (Integer key : keys.keys) {
+            if (filter.delete(key)) {
+                deleted++;
+            }
+        }
+        keys.present = false;
+        return deleted;
+    }
+}
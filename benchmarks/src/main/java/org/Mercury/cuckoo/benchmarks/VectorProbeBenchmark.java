@@ -0,0 +1,81 @@
+package org.Mercury.cuckoo.benchmarks;
+
+import org.Mercury.cuckoo.ConcurrencyMode;
+import org.Mercury.cuckoo.CuckooFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量查找中桶的比较用 Vector API 和标量实现的比较(需要 JDK 17 以上)，结果是每个 key 的耗时，key 有一半在过滤器中。
+ * vector=false 时用系统属性 cuckoo.vector=false 关闭，两者在同一个 JVM 配置下运行。
+ * 默认用 CPU 支持的最宽的向量，加 -jvmArgsAppend -XX:UseAVX=2 可以在支持 AVX-512 的机器上测 AVX2
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Benchmark)
+public class VectorProbeBenchmark {
+    static final int KEYS = 1024;
+
+    @Param({"8", "16"})
+    int fingerprintSize;
+
+    @Param({"false", "true"})
+    boolean vector;
+
+    CuckooFilter filter;
+    long[] keys;
+    boolean[] found;
+
+    /**
+     * 每个参数组合在新的 JVM 中运行，第一次批量查找之前设置的属性才会生效
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        System.setProperty("cuckoo.vector", String.valueOf(vector));
+        filter = BenchmarkFilters.builder(fingerprintSize, ConcurrencyMode.SEGMENT_LOCKS).build();
+        Random random = new Random(1);
+        int items = BenchmarkFilters.SLOTS / 10 * 9;
+        long[] present = new long[items];
+        for (int i = 0; i < items; i++) {
+            present[i] = random.nextLong();
+        }
+        if (filter.addAll(present) != items) {
+            throw new IllegalStateException("Filter is full, cannot reach a load factor of 0.9");
+        }
+        keys = new long[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = i % 2 == 0 ? present[random.nextInt(items)] : random.nextLong();
+        }
+        found = new boolean[KEYS];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        filter.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public boolean[] containsAll() {
+        filter.containsAll(keys, found);
+        return found;
+    }
+}
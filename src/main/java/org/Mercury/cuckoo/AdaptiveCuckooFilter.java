@@ -0,0 +1,551 @@
+package org.Mercury.cuckoo;
+
+import java.io.Closeable;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 自适应的布谷鸟过滤器(adaptive cuckoo filter)：调用方确认某个 key 是误判后调用{@link #reportFalsePositive}，
+ * 与它冲突的槽位换一个指纹函数重新计算指纹，这个 key 之后不再被误判。对反复查询同一些不存在的 key 的偏斜流量，
+ * 实际误判率远低于指纹位数决定的误判率。
+ *
+ * 每个槽位旁边有 selectorBits 位的选择子(一个桶数、槽位数相同的{@link ByteArrayTable})，第j个指纹函数由选择子j决定，
+ * 选择子0的指纹和{@link CuckooFilter}相同。桶的计算不依赖选择子：第二个桶总是由选择子0的指纹算出。
+ *
+ * 重新计算指纹需要存入的元素本身，所以每个槽位还在冷存储中保存元素完整的64位hash(相当于论文中远端的哈希表)，
+ * 查找只访问指纹和选择子，只有添加、删除、踢出和{@link #reportFalsePositive}访问冷存储，它可以放在堆外或映射的文件中。
+ * 有了完整的hash，删除是精确的，不会删掉指纹相同的其他元素
+ */
+public class AdaptiveCuckooFilter implements Closeable {
+    public static final int DEFAULT_SELECTOR_BITS = 2;
+    public static final int MAX_SELECTOR_BITS = 4;
+    // 由hash和选择子得到指纹函数的输入
+    private static final long SELECTOR_INCREMENT = 0x9E3779B97F4A7C15L;
+
+    private final HashStrategy hashStrategy;
+    private final ByteArrayTable fingerprints;
+    private final ByteArrayTable selectors;
+    // 第 bucket*slots+slot 个字是这个槽位中元素的hash
+    private final TableStorage hashes;
+    private final SegmentedBucketLocker locker;
+    private final AdaptiveSlots adaptiveSlots = new AdaptiveSlots();
+    private final int slots;
+    private final int fingerprintMask;
+    private final int selectorMask;
+    private final long indexMask;
+    private final LongAdder items = new LongAdder();
+    private final LongAdder adaptations = new LongAdder();
+
+    private AdaptiveCuckooFilter(Builder builder) {
+        int fingerprintSize = builder.fingerprintSize;
+        int slotsPerBucket = builder.slotsPerBucket;
+        CuckooTables.checkParameters(fingerprintSize, slotsPerBucket, builder.maxItems, builder.hashStrategy);
+        if(builder.selectorBits <= 0 || builder.selectorBits > MAX_SELECTOR_BITS)
+            throw new IllegalArgumentException("Selector bits must be in [1," + MAX_SELECTOR_BITS + "], received " + builder.selectorBits);
+        if(builder.hashStorage == null)
+            throw new IllegalArgumentException("Hash storage cannot be null");
+
+        long tableSize = CuckooTables.tableSize(builder.maxItems, slotsPerBucket);
+
+        this.hashStrategy = builder.hashStrategy;
+        this.slots = slotsPerBucket;
+        this.fingerprintMask = fingerprintSize < Integer.SIZE ? (1 << fingerprintSize) - 1 : 0xffffffff;
+        this.selectorMask = (1 << builder.selectorBits) - 1;
+        this.indexMask = tableSize - 1;
+        this.fingerprints = new ByteArrayTable(tableSize, slotsPerBucket, fingerprintSize);
+        this.selectors = new ByteArrayTable(tableSize, slotsPerBucket, builder.selectorBits);
+        this.hashes = builder.hashStorage.allocate(tableSize * slotsPerBucket);
+        this.locker = CuckooTables.locker(builder.expectedConcurrency, false, fingerprints, selectors);
+    }
+
+    public static Builder builder(long maxItems) {
+        return new Builder(maxItems);
+    }
+
+    /**
+     * 过滤器的构建参数，未设置的参数使用默认值
+     */
+    public static final class Builder {
+        private final long maxItems;
+        private int fingerprintSize = CuckooFilter.DEFAULT_FINGERPRINT_SIZE;
+        private int selectorBits = DEFAULT_SELECTOR_BITS;
+        private int slotsPerBucket = CuckooFilter.DEFAULT_SLOTS_PER_BUCKET;
+        private HashStrategy hashStrategy = CuckooFilter.DEFAULT_HASH_STRATEGY;
+        private int expectedConcurrency = CuckooFilter.DEFAULT_EXPECTED_CONCURRENCY;
+        private TableStorage.Factory hashStorage = TableStorages.heap();
+
+        private Builder(long maxItems) {
+            this.maxItems = maxItems;
+        }
+
+        public Builder fingerprintSize(int fingerprintSize) {
+            this.fingerprintSize = fingerprintSize;
+            return this;
+        }
+
+        /**
+         * 每个槽位选择子的位数，一个槽位最多换 2^selectorBits 个指纹函数，之后回到第一个
+         */
+        public Builder selectorBits(int selectorBits) {
+            this.selectorBits = selectorBits;
+            return this;
+        }
+
+        public Builder slotsPerBucket(int slotsPerBucket) {
+            this.slotsPerBucket = slotsPerBucket;
+            return this;
+        }
+
+        public Builder hashStrategy(HashStrategy hashStrategy) {
+            this.hashStrategy = hashStrategy;
+            return this;
+        }
+
+        public Builder expectedConcurrency(int expectedConcurrency) {
+            this.expectedConcurrency = expectedConcurrency;
+            return this;
+        }
+
+        /**
+         * 存放元素hash的冷存储，每个槽位一个字(64位)，默认在堆上。8位指纹时它是指纹表的8倍大，
+         * 大的过滤器可以用{@link TableStorages#offHeap()}或{@link TableStorages#mapped}放到堆外
+         */
+        public Builder hashStorage(TableStorage.Factory hashStorage) {
+            this.hashStorage = hashStorage;
+            return this;
+        }
+
+        public AdaptiveCuckooFilter build() {
+            return new AdaptiveCuckooFilter(this);
+        }
+    }
+
+    public boolean contains(Object o) {
+        return containsHash(hashObj(o));
+    }
+
+    /**
+     * hash和{@link CuckooFilter#contains(long)}相同
+     */
+    public boolean contains(long key) {
+        return containsHash(hashStrategy.hashLong(key));
+    }
+
+    public boolean add(Object o) {
+        return addHash(hashObj(o));
+    }
+
+    public boolean add(long key) {
+        return addHash(hashStrategy.hashLong(key));
+    }
+
+    /**
+     * 删除一份 hash 完全相同的元素，返回是否找到
+     */
+    public boolean delete(Object o) {
+        return deleteHash(hashObj(o));
+    }
+
+    public boolean delete(long key) {
+        return deleteHash(hashStrategy.hashLong(key));
+    }
+
+    /**
+     * 调用方确认 o 不在集合中、{@link #contains(Object)}却返回了{@code true}时调用。
+     * 指纹与 o 相同的槽位换用下一个指纹函数，返回换了的槽位数；o 确实被添加过时不做任何修改，返回0
+     */
+    public int reportFalsePositive(Object o) {
+        return adapt(hashObj(o));
+    }
+
+    public int reportFalsePositive(long key) {
+        return adapt(hashStrategy.hashLong(key));
+    }
+
+    public long itemCount() {
+        return items.sum();
+    }
+
+    /**
+     * 换过指纹函数的次数
+     */
+    public long adaptations() {
+        return adaptations.sum();
+    }
+
+    public long capacity() {
+        return fingerprints.size() * slots;
+    }
+
+    @Override
+    public void close() {
+        fingerprints.storage().close();
+        selectors.storage().close();
+        hashes.close();
+    }
+
+    private long hashObj(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Cannot use a null object");
+        }
+        return KeyBuffer.hashObject(hashStrategy, o);
+    }
+
+    /**
+     * 第 selector 个指纹函数。选择子0和{@link CuckooFilter}相同，其余的先用 splitmix64 的混合函数打散hash
+     */
+    private int fingerprintOf(long hash, int selector) {
+        if (selector != 0) {
+            long z = hash + selector * SELECTOR_INCREMENT;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            hash = z ^ (z >>> 31);
+        }
+        return CuckooFilter.fingerprintOf(hash, fingerprintMask);
+    }
+
+    private long indexOf(long hash) {
+        return CuckooFilter.indexOf(hash, indexMask);
+    }
+
+    // 第二个桶总是由选择子0的指纹算出，换指纹函数不会移动元素
+    private long altIndexOf(long hash, long index) {
+        return CuckooFilter.altIndex(fingerprintOf(hash, 0), index, indexMask);
+    }
+
+    // 元素在 bucket 以外的另一个桶
+    private long otherBucket(long hash, long bucket) {
+        long index = indexOf(hash);
+        return bucket == index ? altIndexOf(hash, index) : index;
+    }
+
+    private boolean containsHash(long hash) {
+        long index = indexOf(hash);
+        int fingerprint = fingerprintOf(hash, 0);
+        long index2 = CuckooFilter.altIndex(fingerprint, index, indexMask);
+        long stamp1 = locker.tryOptimisticRead(index);
+        long stamp2 = locker.tryOptimisticRead(index2);
+        boolean found = matches(index, hash, fingerprint) || matches(index2, hash, fingerprint);
+        if (locker.validate(index, stamp1) && locker.validate(index2, stamp2)) {
+            return found;
+        }
+        locker.lockBucketsRead(index, index2);
+        try {
+            return matches(index, hash, fingerprint) || matches(index2, hash, fingerprint);
+        } finally {
+            locker.unlockBucketsRead(index, index2);
+        }
+    }
+
+    /**
+     * 桶中是否有槽位的指纹等于 hash 在这个槽位的指纹函数下的指纹。
+     * 大多数桶没有换过指纹函数，所有选择子都是0时和{@link CuckooFilter}一样用 SWAR 一次比较；否则逐个槽位比较
+     */
+    private boolean matches(long bucket, long hash, int fingerprint) {
+        if (selectors.occupancy(bucket) == 0) {
+            return fingerprints.findTag(bucket, fingerprint);
+        }
+        for (int slot = 0; slot < slots; slot++) {
+            int tag = fingerprints.readTag(bucket, slot);
+            if (tag != 0 && tag == fingerprintOf(hash, selectors.readTag(bucket, slot))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean addHash(long hash) {
+        long index = indexOf(hash);
+        long index2 = altIndexOf(hash, index);
+        locker.lockBucketWrite(index, index2);
+        try {
+            if (putEmpty(index, hash) || putEmpty(index2, hash)) {
+                return true;
+            }
+        } finally {
+            locker.unlockBucketsWrite(index, index2);
+        }
+        // 和过滤器一样沿踢出路径逐项移动，每次只锁两个桶
+        return CuckooTables.insertWithPath(adaptiveSlots, locker, index, index2, () -> putEmpty(index, hash) || putEmpty(index2, hash));
+    }
+
+    /**
+     * 放入一个空槽位，新元素使用选择子0
+     */
+    private boolean putEmpty(long bucket, long hash) {
+        return putEmpty(bucket, hash, 0);
+    }
+
+    private boolean putEmpty(long bucket, long hash, int selector) {
+        int slot = fingerprints.findEmptySlot(bucket);
+        if (slot < 0) {
+            return false;
+        }
+        write(bucket, slot, hash, selector);
+        items.increment();
+        return true;
+    }
+
+    private void write(long bucket, int slot, long hash, int selector) {
+        hashes.set(bucket * slots + slot, hash);
+        selectors.writeTag(bucket, slot, selector);
+        fingerprints.writeTag(bucket, slot, fingerprintOf(hash, selector));
+    }
+
+    private void clear(long bucket, int slot) {
+        fingerprints.writeTag(bucket, slot, 0);
+        selectors.writeTag(bucket, slot, 0);
+        hashes.set(bucket * slots + slot, 0);
+    }
+
+    /**
+     * 踢出时一项是同一个槽位的指纹、选择子和冷存储中的hash，另一个桶由hash算出。
+     * 被踢出的元素带着自己的选择子移到另一个桶，指纹不变
+     */
+    private final class AdaptiveSlots implements CuckooTables.Slots {
+        @Override
+        public int slotsPerBucket() {
+            return slots;
+        }
+
+        @Override
+        public long altBucket(long bucket, int slot) {
+            if (fingerprints.readTag(bucket, slot) == 0) {
+                return -1;
+            }
+            return otherBucket(hashes.get(bucket * slots + slot), bucket);
+        }
+
+        @Override
+        public int findEmptySlot(long bucket) {
+            return fingerprints.findEmptySlot(bucket);
+        }
+
+        @Override
+        public boolean move(long from, int fromSlot, long to, int toSlot) {
+            if (fingerprints.readTag(from, fromSlot) == 0 || fingerprints.readTag(to, toSlot) != 0) {
+                return false;
+            }
+            long hash = hashes.get(from * slots + fromSlot);
+            if (otherBucket(hash, from) != to) {
+                return false;
+            }
+            write(to, toSlot, hash, selectors.readTag(from, fromSlot));
+            clear(from, fromSlot);
+            return true;
+        }
+    }
+
+    private boolean deleteHash(long hash) {
+        long index = indexOf(hash);
+        long index2 = altIndexOf(hash, index);
+        locker.lockBucketWrite(index, index2);
+        try {
+            if (deleteFrom(index, hash) || deleteFrom(index2, hash)) {
+                items.decrement();
+                return true;
+            }
+            return false;
+        } finally {
+            locker.unlockBucketsWrite(index, index2);
+        }
+    }
+
+    private boolean deleteFrom(long bucket, long hash) {
+        for (int slot = 0; slot < slots; slot++) {
+            if (fingerprints.readTag(bucket, slot) != 0 && hashes.get(bucket * slots + slot) == hash) {
+                clear(bucket, slot);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int adapt(long hash) {
+        long index = indexOf(hash);
+        long index2 = altIndexOf(hash, index);
+        locker.lockBucketWrite(index, index2);
+        try {
+            if (holds(index, hash) || holds(index2, hash)) {
+                return 0;
+            }
+            int adapted = adaptBucket(index, hash);
+            if (index2 != index) {
+                adapted += adaptBucket(index2, hash);
+            }
+            adaptations.add(adapted);
+            return adapted;
+        } finally {
+            locker.unlockBucketsWrite(index, index2);
+        }
+    }
+
+    private boolean holds(long bucket, long hash) {
+        for (int slot = 0; slot < slots; slot++) {
+            if (fingerprints.readTag(bucket, slot) != 0 && hashes.get(bucket * slots + slot) == hash) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 桶中与 hash 冲突的槽位换用下一个指纹函数，用冷存储中元素的hash重新计算指纹
+     */
+    private int adaptBucket(long bucket, long hash) {
+        int adapted = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            int tag = fingerprints.readTag(bucket, slot);
+            int selector = selectors.readTag(bucket, slot);
+            if (tag != 0 && tag == fingerprintOf(hash, selector)) {
+                write(bucket, slot, hashes.get(bucket * slots + slot), (selector + 1) & selectorMask);
+                adapted++;
+            }
+        }
+        return adapted;
+    }
+
+    /**
+     * 偏斜流量下的误判率：90%负载、8位指纹，查询不存在的 key，key 的热度服从 Zipf 分布(s=1)。
+     * 自适应时每次误判都报告给过滤器(相当于后端确认 key 不存在)
+     */
+    public static void main(String[] args) throws InterruptedException {
+        final int members = 900000;
+        final int negatives = 100000;
+        final int queries = 2000000;
+        System.out.println("SKEWED NEGATIVE LOOKUPS, " + queries + " QUERIES OVER " + negatives + " NON-MEMBERS");
+        AdaptiveCuckooFilter filter = builder(1 << 20).fingerprintSize(8).build();
+        CuckooFilter plain = CuckooFilter.builder(1 << 20).fingerprintSize(8).build();
+        for (long key = 0; key < members; key++) {
+            if (!filter.add(key) || !plain.add(key)) {
+                System.out.println("ERROR, COULD NOT ADD " + key);
+                return;
+            }
+        }
+
+        // Zipf 分布的累积概率，二分查找抽样
+        double[] cumulative = new double[negatives];
+        double sum = 0;
+        for (int i = 0; i < negatives; i++) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        Random random = new Random(42);
+        long plainFalse = 0;
+        long adaptiveFalse = 0;
+        long lateAdaptiveFalse = 0;
+        for (int q = 0; q < queries; q++) {
+            int rank = java.util.Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            long key = -1L - (rank < 0 ? -rank - 1 : rank); // 负数都不在集合中
+            if (plain.contains(key)) {
+                plainFalse++;
+            }
+            if (filter.contains(key)) {
+                adaptiveFalse++;
+                if (q >= queries / 2) {
+                    lateAdaptiveFalse++;
+                }
+                filter.reportFalsePositive(key);
+            }
+        }
+        System.out.printf("PLAIN FILTER:    %.4f%% FALSE POSITIVES%n", 100.0 * plainFalse / queries);
+        System.out.printf("ADAPTIVE FILTER: %.4f%% FALSE POSITIVES (%.4f%% IN THE SECOND HALF), %d ADAPTATIONS%n",
+                100.0 * adaptiveFalse / queries, 200.0 * lateAdaptiveFalse / queries, filter.adaptations());
+        if (adaptiveFalse * 4 > plainFalse) {
+            System.out.println("ERROR, ADAPTATION DID NOT REDUCE FALSE POSITIVES");
+            return;
+        }
+
+        // 换过指纹函数的元素仍然能被找到
+        for (long key = 0; key < members; key++) {
+            if (!filter.contains(key)) {
+                System.out.println("ERROR, FALSE NEGATIVE FOR " + key + " AFTER ADAPTATION");
+                return;
+            }
+        }
+        if (filter.reportFalsePositive(7L) != 0) {
+            System.out.println("ERROR, A MEMBER WAS ADAPTED AWAY");
+            return;
+        }
+
+        // 删除只删掉hash相同的元素，其他元素仍然能被找到
+        Set<Long> deleted = new HashSet<Long>();
+        for (long key = 0; key < members; key += 3) {
+            if (!filter.delete(key)) {
+                System.out.println("ERROR, COULD NOT DELETE " + key);
+                return;
+            }
+            deleted.add(key);
+        }
+        for (long key = 0; key < members; key++) {
+            if (!deleted.contains(key) && !filter.contains(key)) {
+                System.out.println("ERROR, FALSE NEGATIVE FOR " + key + " AFTER DELETIONS");
+                return;
+            }
+        }
+        if (filter.itemCount() != members - deleted.size()) {
+            System.out.println("ERROR, " + filter.itemCount() + " ITEMS AFTER DELETIONS");
+            return;
+        }
+        filter.close();
+        plain.close();
+        if (!testConcurrentUpdates()) {
+            return;
+        }
+        System.out.println("EVERYTHING FINE!");
+    }
+
+    /**
+     * 多个线程同时添加、删除和报告误判。选择子表一个字放8个桶，锁不对时相邻桶的修改会互相覆盖，丢掉元素
+     */
+    private static boolean testConcurrentUpdates() throws InterruptedException {
+        final int threads = 4;
+        final int keysPerThread = 56000;
+        // 删除十分之一后负载约77%，一部分添加要并发地沿路径踢出
+        final AdaptiveCuckooFilter filter = builder(threads * keysPerThread).fingerprintSize(8).build();
+        System.out.println("CONCURRENT ADD, REPORT AND DELETE FROM " + threads + " THREADS");
+        final LongAdder failures = new LongAdder();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long base = (long) t * keysPerThread;
+            workers[t] = new Thread(() -> {
+                for (long key = base; key < base + keysPerThread; key++) {
+                    if (!filter.add(key)) {
+                        failures.increment();
+                    }
+                    // 负数都不在集合中，误判时换指纹函数，会修改其他线程的元素所在的桶
+                    if (filter.contains(-1L - key)) {
+                        filter.reportFalsePositive(-1L - key);
+                    }
+                    if (key % 10 == 0 && !filter.delete(key)) {
+                        failures.increment();
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long expected = 0;
+        long missing = 0;
+        for (long key = 0; key < (long) threads * keysPerThread; key++) {
+            if (key % 10 != 0) {
+                expected++;
+                if (!filter.contains(key)) {
+                    missing++;
+                }
+            }
+        }
+        long items = filter.itemCount();
+        filter.close();
+        if (failures.sum() > 0 || missing > 0 || items != expected) {
+            System.out.println("ERROR, " + failures.sum() + " FAILED UPDATES, " + missing + " KEYS MISSING, "
+                    + items + " ITEMS FOR " + expected + " KEYS AFTER CONCURRENT UPDATES");
+            return false;
+        }
+        return true;
+    }
+}
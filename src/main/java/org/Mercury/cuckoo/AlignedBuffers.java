@@ -0,0 +1,27 @@
+package org.Mercury.cuckoo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 按缓存行对齐的直接内存，字节序是本机字节序。
+ *
+ * Java 8 没有取得缓冲区地址的公开方法，这里直接分配，起始地址由 malloc 决定(通常16字节对齐，不超过16字节的桶不会跨缓存行)；
+ * 在 JDK 17 及以上运行时 multi-release jar 会换成 src/main/java17 中的同名类，用 alignedSlice 对齐到缓存行
+ */
+final class AlignedBuffers {
+    static final int CACHE_LINE = 64;
+    private AlignedBuffers() {
+    }
+
+    /**
+     * 分配的缓冲区是否一定从缓存行的边界开始。不用常量，否则调用方编译时就内联了这个类的值
+     */
+    static boolean aligned() {
+        return false;
+    }
+
+    static ByteBuffer allocate(int bytes) {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+}
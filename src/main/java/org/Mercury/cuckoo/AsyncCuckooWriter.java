@@ -0,0 +1,529 @@
+package org.Mercury.cuckoo;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步添加：调用线程只把 key 的hash放入有界的环形缓冲区，由一个写线程成批取出，用{@link CuckooFilter#addHashes}放入过滤器，
+ * 踢出的开销不在调用线程上。查找照常直接调用过滤器的{@link CuckooFilter#contains}，添加在写线程处理之后才能被查到。
+ * key 的hash和过滤器相同：{@code post(long)}、{@code post(CharSequence)}等和同类型的{@code contains}一致，
+ * {@code post(Object)}和{@link CuckooFilter#add(Object)}一样按运行时类型选择hash。
+ *
+ * 缓冲区是多生产者、单消费者的数组队列：每个位置有一个序号，生产者CAS取得位置、写入后发布序号，写线程按序号判断位置是否可读。
+ * 缓冲区满了时生产者等待(背压)，不会丢弃添加。
+ *
+ * 同一批中hash相同的添加只放入一次，其余的直接得到同样的结果。所以和{@link CuckooFilter#add}不同，
+ * 短时间内重复添加同一个对象不一定存入多份指纹，之后删除一次就可能删掉它
+ */
+public class AsyncCuckooWriter implements Closeable {
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+    // 写线程每批最多取出的添加数
+    private static final int MAX_DRAIN = 1024;
+    // 写线程没有活时先自旋这么多次再睡眠
+    private static final int SPINS_BEFORE_PARK = 128;
+    private static final long PARK_NANOS = 100_000L;
+    // tail 的最高位，关闭后生产者的CAS都会失败
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    private final CuckooFilter filter;
+    private final HashStrategy hashStrategy;
+    private final int mask;
+    private final long[] hashes;
+    private final CompletableFuture<Boolean>[] futures;
+    // 第i个位置的序号：等于 pos 时可写，等于 pos+1 时可读
+    private final AtomicLongArray sequences;
+    // 下一个要写的位置，生产者CAS递增；关闭后最高位是1
+    private final AtomicLong tail = new AtomicLong();
+    // 下一个要读的位置，只有写线程修改
+    private volatile long head = 0;
+    private final Thread writer;
+    private volatile boolean writerParked = false;
+
+    // 写线程的批，不和其他线程共享
+    private final long[] batchHashes = new long[MAX_DRAIN];
+    private final boolean[] batchResults = new boolean[MAX_DRAIN];
+    private final int[] duplicateOf = new int[MAX_DRAIN];
+    private final int[] seenSlots = new int[MAX_DRAIN * 2];
+    private final int[] seenMarks = new int[MAX_DRAIN * 2];
+    private int batches = 0;
+
+    public AsyncCuckooWriter(CuckooFilter filter) {
+        this(filter, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity 缓冲区能放的添加数，必须是2的幂
+     */
+    @SuppressWarnings("unchecked")
+    public AsyncCuckooWriter(CuckooFilter filter, int capacity) {
+        if(filter == null)
+            throw new IllegalArgumentException("Filter cannot be null");
+        if(capacity <= 0 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity must be a positive power of two, received " + capacity);
+        this.filter = filter;
+        this.hashStrategy = filter.hashStrategy();
+        this.mask = capacity - 1;
+        this.hashes = new long[capacity];
+        this.futures = (CompletableFuture<Boolean>[]) new CompletableFuture<?>[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.writer = new Thread(this::drainLoop, "cuckoo-async-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public CuckooFilter filter() {
+        return filter;
+    }
+
+    /**
+     * 异步添加，返回的 future 在写线程处理后完成，结果同{@link CuckooFilter#add}。缓冲区满了时等待
+     */
+    public CompletableFuture<Boolean> addAsync(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Cannot add a null object");
+        }
+        CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+        enqueue(KeyBuffer.hashObject(hashStrategy, o), future);
+        return future;
+    }
+
+    /*
+     * 以下几个方法的hash和{@link CuckooFilter}中同类型的重载相同，不装箱
+     */
+
+    public CompletableFuture<Boolean> addAsync(long key) {
+        CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+        enqueue(hashStrategy.hashLong(key), future);
+        return future;
+    }
+
+    public CompletableFuture<Boolean> addAsync(int key) {
+        CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+        enqueue(hashStrategy.hashInt(key), future);
+        return future;
+    }
+
+    public CompletableFuture<Boolean> addAsync(CharSequence key) {
+        CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+        enqueue(hashChars(key), future);
+        return future;
+    }
+
+    public CompletableFuture<Boolean> addAsync(byte[] key) {
+        CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+        enqueue(hashBytes(key), future);
+        return future;
+    }
+
+    /**
+     * 异步添加，不关心结果，不分配 future。过滤器满了导致的失败只记在{@link CuckooFilterMXBean#getFailedAdds}中
+     */
+    public void post(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Cannot add a null object");
+        }
+        enqueue(KeyBuffer.hashObject(hashStrategy, o), null);
+    }
+
+    public void post(long key) {
+        enqueue(hashStrategy.hashLong(key), null);
+    }
+
+    public void post(int key) {
+        enqueue(hashStrategy.hashInt(key), null);
+    }
+
+    public void post(CharSequence key) {
+        enqueue(hashChars(key), null);
+    }
+
+    public void post(byte[] key) {
+        enqueue(hashBytes(key), null);
+    }
+
+    private long hashChars(CharSequence key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+        return KeyBuffer.hash(hashStrategy, key);
+    }
+
+    private long hashBytes(byte[] key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+        return hashStrategy.hashBytes(key, 0, key.length);
+    }
+
+    /**
+     * 等待调用之前放入的所有添加都被处理
+     */
+    public void flush() {
+        long target = tail.get() & ~CLOSED;
+        for (int spins = 0; head < target; spins++) {
+            if (!writer.isAlive()) {
+                throw new IllegalStateException("Writer thread has stopped");
+            }
+            backoff(spins);
+        }
+    }
+
+    /**
+     * 缓冲区中还没处理的添加数，是近似值
+     */
+    public int pending() {
+        return (int) Math.max(0, (tail.get() & ~CLOSED) - head);
+    }
+
+    /**
+     * 不再接受新的添加，等写线程处理完已经放入的添加后退出。过滤器不会被关闭
+     */
+    @Override
+    public void close() {
+        long t;
+        while ((t = tail.get()) >= 0 && !tail.compareAndSet(t, t | CLOSED)) {
+            // 和生产者的CAS竞争，重试
+        }
+        LockSupport.unpark(writer);
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enqueue(long hash, CompletableFuture<Boolean> future) {
+        for (int spins = 0; ; spins++) {
+            long pos = tail.get();
+            if (pos < 0) {
+                throw new IllegalStateException("Writer is closed");
+            }
+            int i = (int) pos & mask;
+            long available = sequences.get(i) - pos;
+            if (available == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    hashes[i] = hash;
+                    futures[i] = future;
+                    sequences.set(i, pos + 1);
+                    if (writerParked) {
+                        LockSupport.unpark(writer);
+                    }
+                    return;
+                }
+            } else if (available < 0) {
+                // 缓冲区满了，等写线程腾出位置
+                if (writerParked) {
+                    LockSupport.unpark(writer);
+                }
+                backoff(spins);
+            }
+        }
+    }
+
+    private static void backoff(int spins) {
+        if (spins < SPINS_BEFORE_PARK) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(1_000L);
+        }
+    }
+
+    private void drainLoop() {
+        int idle = 0;
+        for (;;) {
+            int n = drain();
+            if (n > 0) {
+                idle = 0;
+                continue;
+            }
+            long t = tail.get();
+            if (t < 0 && head == (t & ~CLOSED)) {
+                return;
+            }
+            if (++idle < SPINS_BEFORE_PARK) {
+                Thread.yield();
+                continue;
+            }
+            // 先声明要睡眠，再检查一次缓冲区，生产者发布后看到这个标志会唤醒写线程
+            writerParked = true;
+            if (sequences.get((int) head & mask) != head + 1 && tail.get() >= 0) {
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+            writerParked = false;
+        }
+    }
+
+    /**
+     * 取出最多 MAX_DRAIN 个已发布的添加，去重后放入过滤器，返回取出的个数
+     */
+    private int drain() {
+        long pos = head;
+        int n = 0;
+        int unique = 0;
+        int mark = ++batches;
+        if (mark == 0) {
+            // 批号用完一轮，清空标记
+            Arrays.fill(seenMarks, 0);
+            mark = batches = 1;
+        }
+        while (n < MAX_DRAIN) {
+            int i = (int) (pos + n) & mask;
+            if (sequences.get(i) != pos + n + 1) {
+                break;
+            }
+            long hash = hashes[i];
+            int first = findOrAdd(hash, unique, mark);
+            if (first == unique) {
+                batchHashes[unique++] = hash;
+            }
+            duplicateOf[n] = first;
+            n++;
+        }
+        if (n == 0) {
+            return 0;
+        }
+        Arrays.fill(batchResults, 0, unique, false);
+        try {
+            filter.addHashes(batchHashes, unique, batchResults);
+        } catch (RuntimeException | Error e) {
+            for (int k = 0; k < n; k++) {
+                int i = (int) (pos + k) & mask;
+                CompletableFuture<Boolean> future = futures[i];
+                if (future != null) {
+                    future.completeExceptionally(e);
+                }
+                release(i, pos + k);
+            }
+            head = pos + n;
+            return n;
+        }
+        for (int k = 0; k < n; k++) {
+            int i = (int) (pos + k) & mask;
+            CompletableFuture<Boolean> future = futures[i];
+            release(i, pos + k);
+            if (future != null) {
+                future.complete(batchResults[duplicateOf[k]]);
+            }
+        }
+        head = pos + n;
+        return n;
+    }
+
+    // 位置 i 处理完，之后可以写入 pos + 缓冲区大小
+    private void release(int i, long pos) {
+        futures[i] = null;
+        sequences.set(i, pos + mask + 1);
+    }
+
+    /**
+     * 在这一批已有的 unique 个hash中查找 hash，找不到时记为第 unique 个。开放寻址，mark 区分不同的批，不需要清空
+     */
+    private int findOrAdd(long hash, int unique, int mark) {
+        int tableMask = seenSlots.length - 1;
+        int slot = (int) ((hash * 0x9E3779B97F4A7C15L) >>> 40) & tableMask;
+        for (;; slot = (slot + 1) & tableMask) {
+            if (seenMarks[slot] != mark) {
+                seenMarks[slot] = mark;
+                seenSlots[slot] = unique;
+                return unique;
+            }
+            int k = seenSlots[slot];
+            if (batchHashes[k] == hash) {
+                return k;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int threads = 4;
+        final int keysPerThread = 50000;
+        CuckooFilter filter = CuckooFilter.builder(threads * keysPerThread).build();
+        final AsyncCuckooWriter writer = new AsyncCuckooWriter(filter, 1 << 10);
+        System.out.println("ASYNC ADDITIONS FROM " + threads + " THREADS");
+        final List<CompletableFuture<Boolean>> futures = new ArrayList<CompletableFuture<Boolean>>();
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int base = t * keysPerThread;
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < keysPerThread; i++) {
+                    if (i % 2 == 0) {
+                        writer.post(base + i);
+                    } else {
+                        CompletableFuture<Boolean> future = writer.addAsync(base + i);
+                        synchronized (futures) {
+                            futures.add(future);
+                        }
+                    }
+                }
+            });
+            producer.start();
+            producers.add(producer);
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        writer.flush();
+        for (CompletableFuture<Boolean> future : futures) {
+            if (!future.isDone() || !future.get()) {
+                System.out.println("ERROR, ASYNC ADDITION NOT COMPLETED AFTER FLUSH");
+                return;
+            }
+        }
+        for (int i = 0; i < threads * keysPerThread; i++) {
+            if (!filter.contains(i)) {
+                System.out.println("ERROR, FILTER DOES NOT CONTAIN " + i);
+                return;
+            }
+        }
+        long items = filter.metrics().getItemCount();
+        if (items > threads * keysPerThread) {
+            System.out.println("ERROR, " + items + " ITEMS FOR " + threads * keysPerThread + " KEYS");
+            return;
+        }
+        if (!testDuplicatesInOneBatch() || !testKeyTypes()) {
+            return;
+        }
+        writer.close();
+        try {
+            writer.post(-2);
+            System.out.println("ERROR, CLOSED WRITER ACCEPTED AN ADDITION");
+            return;
+        } catch (IllegalStateException expected) {
+        }
+        System.out.println("EVERYTHING FINE!");
+    }
+
+    /**
+     * 字符串、long 和二进制 key 异步添加后，过滤器的同类型查找和 Object 查找都能找到
+     */
+    private static boolean testKeyTypes() throws Exception {
+        final int keys = 1000;
+        CuckooFilter filter = CuckooFilter.builder(keys * 8).build();
+        List<CompletableFuture<Boolean>> futures = new ArrayList<CompletableFuture<Boolean>>();
+        try (AsyncCuckooWriter writer = new AsyncCuckooWriter(filter)) {
+            for (int i = 0; i < keys; i++) {
+                writer.post("user:" + i);
+                writer.post(i * 0x9E3779B97F4A7C15L);
+                writer.post((Object) Long.valueOf(-1L - i));
+                futures.add(writer.addAsync("session:" + i));
+                futures.add(writer.addAsync((long) i << 32));
+                futures.add(writer.addAsync(("bytes:" + i).getBytes(java.nio.charset.StandardCharsets.UTF_8)));
+            }
+            writer.flush();
+        }
+        for (CompletableFuture<Boolean> future : futures) {
+            if (!future.get()) {
+                System.out.println("ERROR, TYPED ASYNC ADDITION FAILED");
+                return false;
+            }
+        }
+        int missing = 0;
+        for (int i = 0; i < keys; i++) {
+            Object session = "session:" + i;
+            if (!filter.contains("user:" + i) || !filter.contains(session) || !filter.contains(i * 0x9E3779B97F4A7C15L)
+                    || !filter.contains(-1L - i) || !filter.contains((Object) Long.valueOf((long) i << 32))
+                    || !filter.contains(("bytes:" + i).getBytes(java.nio.charset.StandardCharsets.UTF_8))) {
+                missing++;
+            }
+        }
+        filter.close();
+        if (missing > 0) {
+            System.out.println("ERROR, " + missing + " OF " + keys + " STRING, LONG OR BINARY KEYS MISSING AFTER ASYNC ADDITION");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 同一批中的重复添加只放入一次。写线程卡在前一批上时放入100个相同的 key，它们一定在同一批中
+     */
+    private static boolean testDuplicatesInOneBatch() throws InterruptedException {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        CuckooFilter filter = CuckooFilter.builder(1 << 10).storage(words -> new GatedStorage(words, entered, gate)).build();
+        AsyncCuckooWriter writer = new AsyncCuckooWriter(filter, 1 << 10);
+        writer.post(-2);
+        entered.await();
+        for (int i = 0; i < 100; i++) {
+            writer.post(-1);
+        }
+        gate.countDown();
+        writer.close();
+        long items = filter.metrics().getItemCount();
+        System.out.println("100 DUPLICATES IN ONE BATCH ADDED " + (items - 1) + " FINGERPRINTS");
+        if (items != 2 || !filter.contains(-1) || !filter.contains(-2)) {
+            System.out.println("ERROR, EXPECTED ONE FINGERPRINT FOR 100 DUPLICATES, FILTER HAS " + items + " ITEMS");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 堆上的存储，gate 打开之前第一次读取会等待，让写线程停在一批的中间
+     */
+    private static final class GatedStorage implements TableStorage {
+        private final TableStorage words;
+        private final CountDownLatch entered;
+        private final CountDownLatch gate;
+
+        GatedStorage(long size, CountDownLatch entered, CountDownLatch gate) {
+            this.words = new HeapTableStorage(size);
+            this.entered = entered;
+            this.gate = gate;
+        }
+
+        @Override
+        public long size() {
+            return words.size();
+        }
+
+        @Override
+        public long get(long index) {
+            if (gate.getCount() > 0) {
+                entered.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return words.get(index);
+        }
+
+        @Override
+        public void set(long index, long value) {
+            words.set(index, value);
+        }
+
+        @Override
+        public boolean compareAndSet(long index, long expect, long update) {
+            return words.compareAndSet(index, expect, update);
+        }
+
+        @Override
+        public boolean isAtomic() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            words.close();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.Mercury.cuckoo;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 基于 AtomicLongArray 的存储，每个字的读写都是 volatile 的，compareAndSet 是原子操作，用于无锁模式
+ */
+final class AtomicTableStorage implements TableStorage {
+    private final AtomicLongArray words;
+
+    AtomicTableStorage(long size) {
+        if(size > HeapTableStorage.MAX_WORDS)
+            throw new IllegalArgumentException("An atomic heap table cannot hold " + size + " words");
+        words = new AtomicLongArray((int) size);
+    }
+
+    @Override
+    public long size() {
+        return words.length();
+    }
+
+    @Override
+    public long get(long index) {
+        return words.get((int) index);
+    }
+
+    @Override
+    public void set(long index, long value) {
+        words.set((int) index, value);
+    }
+
+    @Override
+    public boolean compareAndSet(long index, long expect, long update) {
+        return words.compareAndSet((int) index, expect, update);
+    }
+
+    @Override
+    public boolean isAtomic() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
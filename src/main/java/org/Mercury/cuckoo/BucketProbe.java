@@ -0,0 +1,25 @@
+package org.Mercury.cuckoo;
+
+/**
+ * 批量查找中一批桶和指纹的比较：found[i] 表示 words[i] 或 words2[i] 中有等于 patterns[i] 的槽位。
+ * 每个桶是一个字，patterns[i] 是广播到每个槽位的指纹。
+ *
+ * 这里是标量实现；在 JDK 17 及以上运行时 multi-release jar 会换成 src/main/java17 中的同名类，
+ * 加了 --add-modules jdk.incubator.vector 时用 Vector API 一次比较一个向量的桶
+ */
+final class BucketProbe {
+    /**
+     * 是否使用 Vector API
+     */
+    static final boolean VECTORIZED = false;
+
+    private BucketProbe() {
+    }
+
+    static void findAll(long[] words, long[] words2, long[] patterns, int n, long laneLow, long laneHigh, boolean[] found) {
+        for (int i = 0; i < n; i++) {
+            found[i] = ByteUtil.hasZeroLane(words[i] ^ patterns[i], laneLow, laneHigh)
+                    || ByteUtil.hasZeroLane(words2[i] ^ patterns[i], laneLow, laneHigh);
+        }
+    }
+}
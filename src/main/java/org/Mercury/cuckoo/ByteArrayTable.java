@@ -1,151 +1,324 @@
 package org.Mercury.cuckoo;
 
-import java.util.Arrays;
-
 /**
- * 表将数据存储在字节数组中。
- * 在使用中,规定数据项的大小将是一个整数字节数，则可以使用ByteBuffer。
+ * 表将数据存储在long字中，字存放在{@link TableStorage}里(堆内、堆外或者映射的文件)。
+ * 每个桶包含 slotsPerBucket 个槽位，每个槽位存放一个 bitsPerTag 位的指纹(全0表示空槽)。
+ * 一个桶被打包进一个或两个long字中，槽位不会跨字存放，
+ * 这样查找时可以用一次SWAR比较检查一个字中的所有槽位，而不必逐个槽位取出比较。
+ * 一个桶不超过32位时，多个桶共用一个字(每个字放2的幂个桶)，小指纹不会浪费半个字。
+ * 所有修改都通过 compareAndSet 写回，存储是原子的时候(无锁模式)，插入空槽位和删除都是一次CAS。
+ * 桶索引和字索引都是long，表的大小只受存储的限制。
  */
 public class ByteArrayTable {
 
-    // 默认一个桶储存一个fingerprintf
-    private int bitsPerBucket; // 每个桶所占的字节位数
-    private int buckets; // 桶数量
-    protected byte[] table = null;
+    public static final int MAX_BITS_PER_BUCKET = 2 * Long.SIZE;
+
+    private final long buckets; // 桶数量
+    private final int slotsPerBucket; // 每个桶的槽位数
+    private final int bitsPerTag; // 每个槽位(指纹)所占的位数
+    private final int wordsPerBucket; // 每个桶所占的long字数(1或2)
+    private final int slotsPerWord; // 每个桶在一个字中的槽位数
+    private final int bucketBits; // 每个桶在一个字中所占的位数
+    private final int bucketsPerWordShift; // 每个字放 2^bucketsPerWordShift 个桶
+    private final long bucketsPerWordMask;
+
+    final long tagMask; // 单个槽位的掩码
+    final long laneLow; // 每个槽位的最低位
+    final long laneHigh; // 每个槽位的最高位
+    final long laneRest; // 每个槽位除最高位以外的位
+
+    protected final TableStorage table;
 
-    public int size() {
+    public long size() {
         return buckets;
     }
 
+    public int slotsPerBucket() {
+        return slotsPerBucket;
+    }
+
+    public int bitsPerTag() {
+        return bitsPerTag;
+    }
 
-    public ByteArrayTable(int buckets, int bitsPerBucket) {
+    public ByteArrayTable(long buckets, int slotsPerBucket, int bitsPerTag) {
+        this(buckets, slotsPerBucket, bitsPerTag, TableStorages.heap());
+    }
+
+    /**
+     * @param storageFactory 按表需要的字数分配存储
+     */
+    public ByteArrayTable(long buckets, int slotsPerBucket, int bitsPerTag, TableStorage.Factory storageFactory) {
+        this(buckets, slotsPerBucket, bitsPerTag, storageFactory, -1);
+    }
+
+    /**
+     * @param words 子类使用自己的布局时需要的字数，-1表示按本类的布局计算
+     */
+    ByteArrayTable(long buckets, int slotsPerBucket, int bitsPerTag, TableStorage.Factory storageFactory, long words) {
         if(buckets <= 0)
             throw new IllegalArgumentException("Cannot create a table with a non-positive number of buckets");
-        if(bitsPerBucket <= 0)
-            throw new IllegalArgumentException("Cannot create a table with a non-positive number of bits per bucket");
+        if(slotsPerBucket <= 0)
+            throw new IllegalArgumentException("Cannot create a table with a non-positive number of slots per bucket");
+        if(bitsPerTag <= 0 || bitsPerTag > Integer.SIZE)
+            throw new IllegalArgumentException("Bits per tag must be in [1," + Integer.SIZE + "], received " + bitsPerTag);
+        if(slotsPerBucket * bitsPerTag > MAX_BITS_PER_BUCKET)
+            throw new IllegalArgumentException("A bucket of " + slotsPerBucket + " slots of " + bitsPerTag + " bits does not fit in " + MAX_BITS_PER_BUCKET + " bits");
+        if(storageFactory == null)
+            throw new IllegalArgumentException("Storage factory cannot be null");
 
-        this.bitsPerBucket = bitsPerBucket;
         this.buckets = buckets;
-        int tableSize = (int) Math.ceil(bitsPerBucket * buckets / 8.0D);
-        table = new byte[tableSize];
+        this.slotsPerBucket = slotsPerBucket;
+        this.bitsPerTag = bitsPerTag;
+        // 一个字放得下就用一个字，否则把槽位平分到两个字中
+        this.wordsPerBucket = slotsPerBucket * bitsPerTag <= Long.SIZE ? 1 : 2;
+        this.slotsPerWord = (slotsPerBucket + wordsPerBucket - 1) / wordsPerBucket;
+        if(slotsPerWord * bitsPerTag > Long.SIZE)
+            throw new IllegalArgumentException("Cannot split " + slotsPerBucket + " slots of " + bitsPerTag + " bits into " + wordsPerBucket + " words");
+        if(buckets > Long.MAX_VALUE / Long.BYTES / wordsPerBucket)
+            throw new IllegalArgumentException("Cannot create a table of " + buckets + " buckets");
+        this.bucketBits = slotsPerWord * bitsPerTag;
+        this.bucketsPerWordShift = wordsPerBucket == 1 ? 31 - Integer.numberOfLeadingZeros(Long.SIZE / bucketBits) : 0;
+        this.bucketsPerWordMask = (1L << bucketsPerWordShift) - 1;
+
+        this.tagMask = (1L << bitsPerTag) - 1;
+        long low = 0;
+        for (int i = 0; i < slotsPerWord; i++) {
+            low |= 1L << (i * bitsPerTag);
+        }
+        this.laneLow = low;
+        this.laneHigh = low << (bitsPerTag - 1);
+        this.laneRest = (low * tagMask) & ~laneHigh;
+
+        if (words < 0) {
+            words = ((buckets + bucketsPerWordMask) >>> bucketsPerWordShift) * wordsPerBucket;
+        }
+        table = storageFactory.allocate(words);
+        if (table.size() != words)
+            throw new IllegalStateException("Storage has " + table.size() + " words, but the table needs " + words);
     }
 
-    public boolean isItemInPos(byte[] item, int itemPos) {
-        if(item.length != bytesPerBucket())
-            throw new IllegalArgumentException("A data item must be an array of size " + bytesPerBucket() + " in bytes, to store the " + bitsPerBucket + " bits per bucket");
-        if(itemPos >= buckets)
-            throw new IllegalArgumentException("Cannot get item from position " + itemPos + ", valid range is [0," + (buckets-1) + "]");
-        if(itemPos < 0)
-            throw new IllegalArgumentException("Cannot get item from a negative position " + itemPos + ", valid range is [0," + (buckets-1) + "]");
+    /**
+     * 桶中是否存在指纹 tag，一个字只需一次比较
+     */
+    public boolean findTag(long bucket, int tag) {
+        checkBucket(bucket);
+        long w = firstWord(bucket);
+        int shift = bucketShift(bucket);
+        long pattern = broadcast(tag);
+        if (ByteUtil.hasZeroLane((table.get(w) >>> shift) ^ pattern, laneLow, laneHigh)) {
+            return true;
+        }
+        return wordsPerBucket == 2 && ByteUtil.hasZeroLane(table.get(w + 1) ^ pattern, laneLow, laneHigh);
+    }
 
-        byte[] data = get(itemPos);
+    public boolean hasEmptySlot(long bucket) {
+        checkBucket(bucket);
+        long w = firstWord(bucket);
+        int shift = bucketShift(bucket);
+        if (ByteUtil.hasZeroLane(table.get(w) >>> shift, laneLow, laneHigh)) {
+            return true;
+        }
+        return wordsPerBucket == 2 && ByteUtil.hasZeroLane(table.get(w + 1), laneLow, laneHigh);
+    }
 
-        for (int i = 0; i < data.length; i++) {
-            if (data[i] != item[i]) {
-                return false;
+    /**
+     * 返回桶中一个空槽位的位置，没有空槽位时返回-1
+     */
+    public int findEmptySlot(long bucket) {
+        checkBucket(bucket);
+        long w = firstWord(bucket);
+        int shift = bucketShift(bucket);
+        for (int i = 0; i < wordsPerBucket; i++) {
+            long zeros = ByteUtil.zeroLanes(table.get(w + i) >>> shift, laneRest, laneHigh);
+            if (zeros != 0) {
+                return i * slotsPerWord + Long.numberOfTrailingZeros(zeros) / bitsPerTag;
             }
         }
-        return true;
+        return -1;
     }
 
-    public byte[] get(int itemPos) {
-        if(itemPos >= buckets)
-            throw new IllegalArgumentException("Cannot get item from position " + itemPos + ", valid range is [0," + (buckets-1) + "]");
-        if(itemPos < 0)
-            throw new IllegalArgumentException("Cannot get item from a negative position " + itemPos + ", valid range is [0," + (buckets-1) + "]");
-
-
-        // 查找表中受影响的字节
-        int firstByteInd = itemPos * bitsPerBucket / 8;
-        int lastByteInd = ((itemPos + 1) * bitsPerBucket - 1) / 8;
-
-        byte[] item = new byte[lastByteInd-firstByteInd+1];
-        System.arraycopy(table, firstByteInd, item, 0, item.length);
-
-        //向左移动以使项目数组与表中的字节对齐，新的位置也会被0填充。
-        int firstBitInFirstByteInd = itemPos * bitsPerBucket % 8;
-        item = ByteUtil.shitfRightAndFill(item, firstBitInFirstByteInd);
+    /**
+     * 桶中已占用的槽位数
+     */
+    public int occupancy(long bucket) {
+        checkBucket(bucket);
+        long w = firstWord(bucket);
+        int shift = bucketShift(bucket);
+        int empty = 0;
+        for (int i = 0; i < wordsPerBucket; i++) {
+            empty += Long.bitCount(ByteUtil.zeroLanes(table.get(w + i) >>> shift, laneRest, laneHigh));
+        }
+        return slotsPerBucket - empty;
+    }
 
-        // 如果需要，删除前导字节
-        if (item.length == (bytesPerBucket() + 1)) {
-            item = Arrays.copyOfRange(item, 0, item.length - 1);
+    /**
+     * 返回桶中第一个等于 tag 的槽位，没有时返回-1
+     */
+    public int findSlot(long bucket, int tag) {
+        checkBucket(bucket);
+        long w = firstWord(bucket);
+        int shift = bucketShift(bucket);
+        long pattern = broadcast(tag);
+        for (int i = 0; i < wordsPerBucket; i++) {
+            long zeros = ByteUtil.zeroLanes((table.get(w + i) >>> shift) ^ pattern, laneRest, laneHigh);
+            if (zeros != 0) {
+                return i * slotsPerWord + Long.numberOfTrailingZeros(zeros) / bitsPerTag;
+            }
         }
+        return -1;
+    }
 
-        if (item.length != bytesPerBucket()) {
-            throw new InternalError("Created an item with a number of bytes " + item.length + " that differes from the size of buckets " + bytesPerBucket());
+    /**
+     * 将指纹放入桶的一个空槽位中，没有空槽位时返回{@code false}
+     */
+    public boolean insertTag(long bucket, int tag) {
+        checkBucket(bucket);
+        checkTag(tag);
+        long w = firstWord(bucket);
+        int shift = bucketShift(bucket);
+        for (long i = w; i < w + wordsPerBucket; i++) {
+            long word = table.get(i);
+            long zeros;
+            while ((zeros = ByteUtil.zeroLanes(word >>> shift, laneRest, laneHigh)) != 0) {
+                int lane = Long.numberOfTrailingZeros(zeros) / bitsPerTag;
+                if (table.compareAndSet(i, word, word | ((long) tag & tagMask) << (shift + lane * bitsPerTag))) {
+                    return true;
+                }
+                word = table.get(i); // 被并发修改了，重新读取
+            }
         }
+        return false;
+    }
 
-        // 删除表中后面项的前导位
-        if (bitsPerBucket % 8 != 0) {
-            byte mask = (byte) ((0x01 << (bitsPerBucket % 8)) - 1);
-            item[item.length - 1] &= mask;
+    /**
+     * 删除桶中的一个指纹 tag，没有找到时返回{@code false}
+     */
+    public boolean deleteTag(long bucket, int tag) {
+        checkBucket(bucket);
+        checkTag(tag);
+        long w = firstWord(bucket);
+        int shift = bucketShift(bucket);
+        long pattern = broadcast(tag);
+        for (long i = w; i < w + wordsPerBucket; i++) {
+            long word = table.get(i);
+            long zeros;
+            while ((zeros = ByteUtil.zeroLanes((word >>> shift) ^ pattern, laneRest, laneHigh)) != 0) {
+                int lane = Long.numberOfTrailingZeros(zeros) / bitsPerTag;
+                if (table.compareAndSet(i, word, word & ~(tagMask << (shift + lane * bitsPerTag)))) {
+                    return true;
+                }
+                word = table.get(i); // 被并发修改了，重新读取
+            }
         }
+        return false;
+    }
 
-        return item;
+    public int readTag(long bucket, int slot) {
+        checkBucket(bucket);
+        checkSlot(slot);
+        long w = firstWord(bucket) + slot / slotsPerWord;
+        int shift = bucketShift(bucket) + (slot % slotsPerWord) * bitsPerTag;
+        return (int) ((table.get(w) >>> shift) & tagMask);
     }
 
-    public void insert(byte[] item, int itemPos) {
-        if(item.length != bytesPerBucket())
-            throw new IllegalArgumentException("A data item must be an array of size " + bytesPerBucket() + " in bytes, to store the " + bitsPerBucket + " bits per bucket");
-        if(itemPos >= buckets)
-            throw new IllegalArgumentException("Cannot insert item at position " + itemPos + ", valid range is [0," + (buckets-1) + "]");
-        if(itemPos < 0)
-            throw new IllegalArgumentException("Cannot insert item at a negative position " + itemPos + ", valid range is [0," + (buckets-1) + "]");
+    public void writeTag(long bucket, int slot, int tag) {
+        checkBucket(bucket);
+        checkSlot(slot);
+        long w = firstWord(bucket) + slot / slotsPerWord;
+        int shift = bucketShift(bucket) + (slot % slotsPerWord) * bitsPerTag;
+        table.set(w, (table.get(w) & ~(tagMask << shift)) | (((long) tag & tagMask) << shift));
+    }
 
+    /**
+     * 槽位中的指纹等于 expect 时把它替换为 update，否则返回{@code false}
+     */
+    public boolean compareAndSetTag(long bucket, int slot, int expect, int update) {
+        checkBucket(bucket);
+        checkSlot(slot);
+        checkTag(update);
+        long w = firstWord(bucket) + slot / slotsPerWord;
+        int shift = bucketShift(bucket) + (slot % slotsPerWord) * bitsPerTag;
+        for (;;) {
+            long word = table.get(w);
+            if (((word >>> shift) & tagMask) != ((long) expect & tagMask)) {
+                return false;
+            }
+            if (table.compareAndSet(w, word, (word & ~(tagMask << shift)) | (((long) update & tagMask) << shift))) {
+                return true;
+            }
+        }
+    }
 
-        // 定位受影响的字段
-        int firstByteInd = itemPos * bitsPerBucket / 8;
-        int lastByteInd  = ((itemPos + 1) * bitsPerBucket - 1) / 8;
+    /**
+     * 读取桶的第一个字。批量操作先对一批桶调用它，让这些桶的缓存未命中同时进行
+     */
+    public long prefetch(long bucket) {
+        checkBucket(bucket);
+        return table.get(firstWord(bucket));
+    }
 
-        // 我们将创建一个item数组的副本，该副本将与表中相应的字节和操作相结合
-        byte[] itemCp = new byte[lastByteInd - firstByteInd + 1];
-        System.arraycopy(item, 0, itemCp, 0, item.length);
+    /**
+     * 一个字放得下的桶(wordsPerBucket 为1)右移到最低位，第i个槽位在 i*bitsPerTag 位，高位可能是相邻的桶。
+     * 批量查找先取出一批桶，再一起比较
+     */
+    long bucketWord(long bucket) {
+        return table.get(firstWord(bucket)) >>> bucketShift(bucket);
+    }
 
-        // 检查:受影响字节的数量必须等于项目大小或大一个字节(不应该发生，但无论如何)
-        if (item.length != itemCp.length && (item.length != (itemCp.length - 1))) {
-            throw new InternalError("Affected bytes are in positions [" + firstByteInd + ","
-                    + lastByteInd + "], " + (itemCp.length + 1)
-                    + " bytes affected in total, but item is " + item.length + " bytes large");
-        }
+    /**
+     * 返回桶所在的字，仅用于调试输出
+     */
+    public long word(long bucket, int i) {
+        checkBucket(bucket);
+        return table.get(firstWord(bucket) + i);
+    }
 
-        //并不是数据项中的所有位都必须添加到表中，只有对应一个桶的位才能添加到表中。
-        // 其余的部分(最重要的部分，即左边大小的部分)将全部被0所替换(这在后面会很方便)。
-        int lastByteMaskSize = item.length * 8 - bitsPerBucket; // 需要三个0在mask中
-        byte lastByteMask = (byte) ((0xff >> (lastByteMaskSize)));  // 构建 mask 00011111
-        // 在来自原始数据项_的最后一个字节_中应用掩码
-        itemCp[item.length - 1] = (byte) (itemCp[item.length - 1] & lastByteMask);
-        if (itemCp.length > item.length) { // 如果必须创建一个额外的字节，也用0填充它
-            itemCp[itemCp.length - 1] = (byte) 0x00;
-        }
+    public int wordsPerBucket() {
+        return wordsPerBucket;
+    }
 
-        // 现在向左移动以使项目数组与表中的字节对齐，新的位置也会被0填充。
-        int firstBitInFirstByteInd = itemPos * bitsPerBucket % 8;
-        itemCp = ByteUtil.shiftLeftAndFill(itemCp, firstBitInFirstByteInd);
+    public TableStorage storage() {
+        return table;
+    }
 
-        // 将表中所有将要被替换的位(即对应桶的位)设置为0
-        delete(itemPos);
+    /**
+     * 共用字的一组桶有 2^lockGroupShift 个。同一组的桶必须由同一个锁保护，
+     * 否则两个线程在不同的锁下修改同一个字，加锁模式下非原子的写回会丢失其中一个修改
+     */
+    public int lockGroupShift() {
+        return bucketsPerWordShift;
+    }
 
-        // 最后，将表中受影响的字节与项目数组组合起来
-        for (int i = 0; i < itemCp.length; i++) {
-            itemCp[i] = (byte) (itemCp[i] | table[i + firstByteInd]);
-        }
+    // 桶的第一个字
+    private long firstWord(long bucket) {
+        return (bucket >>> bucketsPerWordShift) * wordsPerBucket;
+    }
 
-        System.arraycopy(itemCp, 0, table, firstByteInd, itemCp.length);
+    // 桶在字中的起始位
+    private int bucketShift(long bucket) {
+        return (int) (bucket & bucketsPerWordMask) * bucketBits;
     }
 
-    public void delete(int itemPos) {
+    // 把指纹复制到桶的每个槽位
+    long broadcast(int tag) {
+        return ((long) tag & tagMask) * laneLow;
+    }
 
-        if(itemPos >= buckets)
-            throw new IllegalArgumentException("Cannot delete item in position " + itemPos + ", valid range is [0," + (buckets-1) + "]");
-        if(itemPos < 0)
-            throw new IllegalArgumentException("Cannot delete item in a negative position " + itemPos + ", valid range is [0," + (buckets-1) + "]");
+    void checkBucket(long bucket) {
+        if(bucket >= buckets)
+            throw new IllegalArgumentException("Cannot access bucket " + bucket + ", valid range is [0," + (buckets-1) + "]");
+        if(bucket < 0)
+            throw new IllegalArgumentException("Cannot access a negative bucket " + bucket + ", valid range is [0," + (buckets-1) + "]");
+    }
 
-        for (int i = itemPos * bitsPerBucket; i < (itemPos + 1) * bitsPerBucket; i++) {
-            ByteUtil.insertZeroIn(table, i);
-        }
+    void checkSlot(int slot) {
+        if(slot < 0 || slot >= slotsPerBucket)
+            throw new IllegalArgumentException("Cannot access slot " + slot + ", valid range is [0," + (slotsPerBucket-1) + "]");
     }
 
-    private int bytesPerBucket() {
-        return (int) Math.ceil(bitsPerBucket / 8.0D);
+    void checkTag(int tag) {
+        if((Integer.toUnsignedLong(tag) & ~tagMask) != 0)
+            throw new IllegalArgumentException("A tag must fit in " + bitsPerTag + " bits, received " + tag);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,67 @@
+package org.Mercury.cuckoo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 由多个 ByteBuffer 分块组成的存储。单个 ByteBuffer 最多2GB，分块后可以超过这个限制。
+ * 字按小端序存放，这样文件中的布局和机器无关。
+ */
+abstract class ByteBufferTableStorage implements TableStorage {
+    // 每块 2^27 个字(1GB)
+    static final int CHUNK_SHIFT = 27;
+    static final long CHUNK_WORDS = 1L << CHUNK_SHIFT;
+    private static final long CHUNK_MASK = CHUNK_WORDS - 1;
+
+    private final long size;
+    protected ByteBuffer[] chunks;
+
+    ByteBufferTableStorage(long size) {
+        if(size <= 0)
+            throw new IllegalArgumentException("Cannot create a storage with a non-positive number of words");
+        this.size = size;
+        this.chunks = new ByteBuffer[(int) ((size + CHUNK_WORDS - 1) >>> CHUNK_SHIFT)];
+    }
+
+    /**
+     * 第 chunk 块的字数
+     */
+    final int chunkWords(int chunk) {
+        return (int) Math.min(CHUNK_WORDS, size - ((long) chunk << CHUNK_SHIFT));
+    }
+
+    final void setChunk(int chunk, ByteBuffer buffer) {
+        chunks[chunk] = buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public final long size() {
+        return size;
+    }
+
+    @Override
+    public final long get(long index) {
+        return chunks[(int) (index >>> CHUNK_SHIFT)].getLong((int) (index & CHUNK_MASK) << 3);
+    }
+
+    @Override
+    public final void set(long index, long value) {
+        chunks[(int) (index >>> CHUNK_SHIFT)].putLong((int) (index & CHUNK_MASK) << 3, value);
+    }
+
+    @Override
+    public final boolean compareAndSet(long index, long expect, long update) {
+        ByteBuffer chunk = chunks[(int) (index >>> CHUNK_SHIFT)];
+        int pos = (int) (index & CHUNK_MASK) << 3;
+        if (chunk.getLong(pos) != expect) {
+            return false;
+        }
+        chunk.putLong(pos, update);
+        return true;
+    }
+
+    @Override
+    public boolean isAtomic() {
+        return false;
+    }
+}
@@ -77,6 +77,48 @@ public class ByteUtil {
         array[bytePos] = (byte) (array[bytePos] & mask);
     }
 
+    /**
+     * SWAR: 将long看作若干等宽的槽位，判断是否存在全0的槽位。
+     * laneLow 为每个槽位最低位组成的掩码，laneHigh 为每个槽位最高位组成的掩码。
+     */
+    public final static boolean hasZeroLane(long word, long laneLow, long laneHigh) {
+        return ((word - laneLow) & ~word & laneHigh) != 0;
+    }
+
+    /**
+     * SWAR: 返回全0槽位的掩码，每个全0的槽位在其最高位上置1。
+     * 与{@link #hasZeroLane}不同，借位不会在槽位之间传递，所以结果中每一位都是准确的。
+     * laneRest 为每个槽位除最高位以外的位组成的掩码。
+     */
+    public final static long zeroLanes(long word, long laneRest, long laneHigh) {
+        long y = (word & laneRest) + laneRest;
+        return ~(y | word) & laneHigh;
+    }
+
+    /**
+     * 从 pos 开始按小端序读取8个字节
+     */
+    public final static long getLongLE(byte[] array, int pos) {
+        return (array[pos] & 0xffL)
+                | (array[pos + 1] & 0xffL) << 8
+                | (array[pos + 2] & 0xffL) << 16
+                | (array[pos + 3] & 0xffL) << 24
+                | (array[pos + 4] & 0xffL) << 32
+                | (array[pos + 5] & 0xffL) << 40
+                | (array[pos + 6] & 0xffL) << 48
+                | (array[pos + 7] & 0xffL) << 56;
+    }
+
+    /**
+     * 从 pos 开始按小端序读取4个字节
+     */
+    public final static int getIntLE(byte[] array, int pos) {
+        return (array[pos] & 0xff)
+                | (array[pos + 1] & 0xff) << 8
+                | (array[pos + 2] & 0xff) << 16
+                | (array[pos + 3] & 0xff) << 24;
+    }
+
     public final static String readableByteArray(byte[] array) {
         if(array == null)
             return "[NULL]";
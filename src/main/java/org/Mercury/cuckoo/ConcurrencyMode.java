@@ -0,0 +1,18 @@
+package org.Mercury.cuckoo;
+
+/**
+ * 过滤器的并发控制方式
+ */
+public enum ConcurrencyMode {
+
+    /**
+     * 按段加锁({@link SegmentedBucketLocker})：写操作锁住两个候选桶所在的段，读操作先乐观读，失败后再加读锁
+     */
+    SEGMENT_LOCKS,
+
+    /**
+     * 无锁：桶存放在 AtomicLongArray 中，插入空槽位和删除都是单次CAS；
+     * 踢出时通过段版本号({@link SegmentedBucketVersions})让读操作重试，读操作从不阻塞
+     */
+    LOCK_FREE
+}
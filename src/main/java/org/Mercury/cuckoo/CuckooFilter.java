@@ -1,32 +1,112 @@
 package org.Mercury.cuckoo;
 
 import com.google.common.annotations.VisibleForTesting;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.google.common.hash.Funnel;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.concurrent.locks.StampedLock;
-
-public class CuckooFilter {
-    private static Logger logger = LoggerFactory.getLogger(CuckooFilter.class);
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+public class CuckooFilter implements Closeable {
     private static final int MAX_TRIES_WHEN_ADDING = 500;
+    // 踢出路径被并发修改时，重新查找路径的次数
+    private static final int MAX_PATH_ATTEMPTS = 8;
+    // 广度优先查找踢出路径时最多访问的桶数
+    private static final int MAX_BFS_NODES = 2048;
+    // 无锁模式下查找重试多少次之后让出CPU
+    private static final int MAX_SPINS_BEFORE_YIELD = 64;
+    // 批量操作每批处理的key数
+    private static final int BATCH_SIZE = 64;
+    // 并行合并时每个任务最少处理的桶数
+    private static final long MERGE_CHUNK = 1 << 14;
+    // 并行构建时每个分区最少的桶数。分区的边界落在字(以及半排序表16个桶的组)的边界上，不同分区不会写同一个字
+    private static final long MIN_PARTITION_BUCKETS = 64;
+    // 并行构建时每个任务最少处理的hash数
+    private static final int LOAD_CHUNK = 1 << 14;
+    public static final int DEFAULT_SLOTS_PER_BUCKET = 4;
+    public static final int DEFAULT_FINGERPRINT_SIZE = 16;
+    public static final int DEFAULT_EXPECTED_CONCURRENCY = 16;
+    public static final int DEFAULT_STASH_SIZE = 4;
+    // 暂存区只是为了应付个别找不到踢出路径的指纹，太大会拖慢查找
+    public static final int MAX_STASH_SIZE = 64;
+
+    public static final HashStrategy DEFAULT_HASH_STRATEGY = HashStrategies.XXHASH_64;
+    // 由指纹计算另一个桶索引时使用的乘数
+    private static final long ALT_INDEX_MULTIPLIER = 0xc6a4a7935bd1e995L;
 
-    private MessageDigest sha1 = null;
+    private final HashStrategy hashStrategy;
+    private final InsertionStrategy insertionStrategy;
+    // 广度优先查找的最大深度(路径最多踢出这么多次)，刚好能在 MAX_BFS_NODES 个桶内展开到这一层
+    private int maxBfsDepth = 0;
     @VisibleForTesting
     private int fingerprintSize = 0;
-    private byte fingerprintLastByteMask = (byte) 0xff; // 防止假阴性,对fingerprint的偏移
+    private int fingerprintMask = 0xffffffff; // 防止假阴性,对fingerprint的偏移
     @VisibleForTesting
     private ByteArrayTable table = null;
+    private long indexMask = 0; // 桶数减1，桶数一定是2的幂
+    // 找不到踢出路径的指纹
     @VisibleForTesting
-    private ItemInfo lastVictim = null;
+    private VictimStash stash;
 
-    // 锁
+    // 锁(加锁模式)
     private SegmentedBucketLocker segmentedBucketLocker;
-    // victim 的锁
-    private StampedLock lockVictim;
+    // 段版本号(无锁模式)，两者只有一个不为null
+    private SegmentedBucketVersions bucketVersions;
+    // 每个线程复用自己的踢出路径
+    private final ThreadLocal<EvictionPath> evictionPaths = new ThreadLocal<EvictionPath>() {
+        @Override
+        protected EvictionPath initialValue() {
+            return new EvictionPath(MAX_TRIES_WHEN_ADDING + 1);
+        }
+    };
+    // 广度优先查找时每个线程复用自己的队列
+    private final ThreadLocal<EvictionQueue> evictionQueues = new ThreadLocal<EvictionQueue>() {
+        @Override
+        protected EvictionQueue initialValue() {
+            return new EvictionQueue(MAX_BFS_NODES, maxBfsDepth);
+        }
+    };
+    // 把暂存区的指纹放回表中时，每个线程复用自己的数组
+    private final ThreadLocal<KeyBatch> stashEntries = new ThreadLocal<KeyBatch>() {
+        @Override
+        protected KeyBatch initialValue() {
+            return new KeyBatch(stash.capacity());
+        }
+    };
+    // 每个线程复用自己的批
+    private final ThreadLocal<KeyBatch> keyBatches = new ThreadLocal<KeyBatch>() {
+        @Override
+        protected KeyBatch initialValue() {
+            return new KeyBatch(BATCH_SIZE, segmentedBucketLocker != null ? segmentedBucketLocker.segments() : 0);
+        }
+    };
+    // 批量操作预读到的字写到这里，防止预读被JIT当作无用代码消除
+    private long prefetchSink;
+    private final FilterMetrics metrics;
+    // 注册到JMX时的名字，close 时注销
+    private volatile ObjectName mbeanName;
 
     /**
      *
@@ -37,251 +117,2106 @@ public class CuckooFilter {
      *                  实际上，底层数组的大小会比这个大。(数组的大小一定是2的幂次方)
      */
     public CuckooFilter(int fingerprintSize, int maxItems) {
-        if(fingerprintSize <= 0)
-            throw new IllegalArgumentException("Fingerprint size must be a positive number, received " + fingerprintSize);
-        if(fingerprintSize > 16 * 8)
-            throw new IllegalArgumentException("Fingerprint size cannot be greater than " + 16 * 8  +" , received " + fingerprintSize);
+        this(fingerprintSize, maxItems, DEFAULT_SLOTS_PER_BUCKET);
+    }
+
+    /**
+     *
+     * @param fingerprintSize
+     *                  每个指纹的比特数(代表一项的值)
+     * @param maxItems
+     *                  我们在过滤器中期望的最大条目数量。
+     * @param slotsPerBucket
+     *                  每个桶的槽位数(2、4或8)，一个桶的所有槽位必须能放进两个long中
+     */
+    public CuckooFilter(int fingerprintSize, int maxItems, int slotsPerBucket) {
+        this(fingerprintSize, maxItems, slotsPerBucket, DEFAULT_HASH_STRATEGY);
+    }
+
+    /**
+     *
+     * @param fingerprintSize
+     *                  每个指纹的比特数(代表一项的值)
+     * @param maxItems
+     *                  我们在过滤器中期望的最大条目数量。
+     * @param slotsPerBucket
+     *                  每个桶的槽位数(2、4或8)
+     * @param hashStrategy
+     *                  计算桶索引和指纹的hash策略，必须是线程安全的
+     */
+    public CuckooFilter(int fingerprintSize, int maxItems, int slotsPerBucket, HashStrategy hashStrategy) {
+        this(builder(maxItems).fingerprintSize(fingerprintSize).slotsPerBucket(slotsPerBucket).hashStrategy(hashStrategy));
+    }
+
+    private CuckooFilter(Builder builder) {
+        int fingerprintSize = builder.fingerprintSize;
+        long maxItems = builder.maxItems;
+        int slotsPerBucket = builder.slotsPerBucket;
+        HashStrategy hashStrategy = builder.hashStrategy;
+        CuckooTables.checkParameters(fingerprintSize, slotsPerBucket, maxItems, hashStrategy);
+        if(builder.concurrencyMode == null)
+            throw new IllegalArgumentException("Concurrency mode cannot be null");
+        if(builder.insertionStrategy == null)
+            throw new IllegalArgumentException("Insertion strategy cannot be null");
+        if(builder.stashSize <= 0 || builder.stashSize > MAX_STASH_SIZE)
+            throw new IllegalArgumentException("Stash size must be in [1," + MAX_STASH_SIZE + "], received " + builder.stashSize);
+        if(builder.semiSorted && slotsPerBucket != SemiSortedTable.SLOTS_PER_BUCKET)
+            throw new IllegalArgumentException("Semi-sorted buckets need " + SemiSortedTable.SLOTS_PER_BUCKET + " slots per bucket, received " + slotsPerBucket);
+        if(builder.metricsSampling < 0)
+            throw new IllegalArgumentException("Metrics sampling cannot be negative, received " + builder.metricsSampling);
+        if(builder.buckets < 0 || Long.bitCount(builder.buckets) > 1)
+            throw new IllegalArgumentException("Buckets must be a power of two, received " + builder.buckets);
+        if(builder.semiSorted && builder.concurrencyMode == ConcurrencyMode.LOCK_FREE)
+            throw new IllegalArgumentException("Semi-sorted buckets cannot be updated with a single CAS, use segment locks");
 
         this.fingerprintSize = fingerprintSize;
-        if (fingerprintSize % 8 != 0) { //必须在 mask 的最高有效字节中添加一些前导0
-            int zeros = 8 - (fingerprintSize % 8);
-            fingerprintLastByteMask = (byte) ((0x01 << zeros) - 1);
+        if (fingerprintSize < Integer.SIZE) { //必须在 mask 中添加一些前导0
+            fingerprintMask = (1 << fingerprintSize) - 1;
         }
 
-        try {
-            sha1 = MessageDigest.getInstance("SHA1");
-        } catch (NoSuchAlgorithmException var) {
-            throw new InternalError("All Java implementations should carry an implementation of SHA1, however it cannot be found!");
+        this.hashStrategy = hashStrategy;
+        this.insertionStrategy = builder.insertionStrategy;
+        this.stash = new VictimStash(builder.stashSize);
+        this.metrics = new FilterMetrics(builder.metricsSampling);
+        // 第d层最多有 2*slots^d 个桶：4个槽位时是5层，2个槽位时是10层
+        for (long nodes = 2; nodes < MAX_BFS_NODES; nodes *= slotsPerBucket) {
+            maxBfsDepth++;
+        }
+
+        long tableSize = CuckooTables.tableSize(maxItems, slotsPerBucket);
+        if (builder.buckets > 0) {
+            tableSize = builder.buckets;
+        }
+
+        boolean lockFree = builder.concurrencyMode == ConcurrencyMode.LOCK_FREE;
+        TableStorage.Factory storage = builder.storage;
+        if (storage == null) {
+            storage = lockFree ? TableStorages.atomicHeap() : TableStorages.heap();
+        }
+        table = builder.semiSorted
+                ? new SemiSortedTable(tableSize, fingerprintSize, storage)
+                : new ByteArrayTable(tableSize, slotsPerBucket, fingerprintSize, storage);
+        if (lockFree && !table.storage().isAtomic()) {
+            table.storage().close();
+            throw new IllegalArgumentException("Lock-free mode needs a storage with an atomic compareAndSet, such as TableStorages.atomicHeap()");
+        }
+        indexMask = tableSize - 1;
+
+        if (lockFree) {
+            // 版本号很便宜，用比锁更多的段来减少读操作的重试
+            bucketVersions = new SegmentedBucketVersions(builder.expectedConcurrency * 8);
+        } else {
+            segmentedBucketLocker = CuckooTables.locker(builder.expectedConcurrency, builder.metricsSampling > 0, table);
+        }
+    }
+
+    public static Builder builder(long maxItems) {
+        return new Builder(maxItems);
+    }
+
+    /**
+     * 过滤器的构建参数，未设置的参数使用默认值
+     */
+    public static final class Builder {
+        private final long maxItems;
+        private int fingerprintSize = DEFAULT_FINGERPRINT_SIZE;
+        private int slotsPerBucket = DEFAULT_SLOTS_PER_BUCKET;
+        private HashStrategy hashStrategy = DEFAULT_HASH_STRATEGY;
+        private ConcurrencyMode concurrencyMode = ConcurrencyMode.SEGMENT_LOCKS;
+        private InsertionStrategy insertionStrategy = InsertionStrategy.RANDOM_WALK;
+        private int stashSize = DEFAULT_STASH_SIZE;
+        private int expectedConcurrency = DEFAULT_EXPECTED_CONCURRENCY;
+        private TableStorage.Factory storage = null;
+        private boolean semiSorted = false;
+        private int metricsSampling = 1;
+        private long buckets = 0;
+
+        private Builder(long maxItems) {
+            this.maxItems = maxItems;
+        }
+
+        /**
+         * 每个指纹的比特数
+         */
+        public Builder fingerprintSize(int fingerprintSize) {
+            this.fingerprintSize = fingerprintSize;
+            return this;
+        }
+
+        /**
+         * 每个桶的槽位数(2、4或8)
+         */
+        public Builder slotsPerBucket(int slotsPerBucket) {
+            this.slotsPerBucket = slotsPerBucket;
+            return this;
+        }
+
+        public Builder hashStrategy(HashStrategy hashStrategy) {
+            this.hashStrategy = hashStrategy;
+            return this;
+        }
+
+        public Builder concurrencyMode(ConcurrencyMode concurrencyMode) {
+            this.concurrencyMode = concurrencyMode;
+            return this;
+        }
+
+        public Builder insertionStrategy(InsertionStrategy insertionStrategy) {
+            this.insertionStrategy = insertionStrategy;
+            return this;
+        }
+
+        /**
+         * 暂存区能放多少个找不到踢出路径的指纹，满了以后过滤器才算满
+         */
+        public Builder stashSize(int stashSize) {
+            this.stashSize = stashSize;
+            return this;
+        }
+
+        /**
+         * 预计同时访问过滤器的线程数，必须是2的幂，决定了锁(或版本号)的段数
+         */
+        public Builder expectedConcurrency(int expectedConcurrency) {
+            this.expectedConcurrency = expectedConcurrency;
+            return this;
+        }
+
+        /**
+         * 表的存储，默认是堆上的数组(无锁模式下是 AtomicLongArray)。
+         * 超过2GB的表可以使用{@link TableStorages#offHeap()}或{@link TableStorages#mapped}
+         */
+        public Builder storage(TableStorage.Factory storage) {
+            this.storage = storage;
+            return this;
+        }
+
+        /**
+         * 使用半排序压缩的桶({@link SemiSortedTable})，每项省1位，假阳性率不变。
+         * 需要4个槽位、4到16位的指纹和加锁模式，每次访问桶都要解码，比普通布局慢一些
+         */
+        public Builder semiSortedBuckets(boolean semiSorted) {
+            this.semiSorted = semiSorted;
+            return this;
         }
 
-        // 表大小必须是2的幂，并且大于最大项数
-        int tableSize = 1;
-        while (tableSize < maxItems) {
-            tableSize <<= 1;
+        /**
+         * 每 n 次添加统计一次踢出次数(随机采样)，默认每次都统计；0 表示不统计踢出次数和锁等待，只统计项数
+         */
+        public Builder metricsSampling(int n) {
+            this.metricsSampling = n;
+            return this;
         }
 
-        // 如果没有足够的“剩余空间”，则增加表的大小
-        if (maxItems * 1.0D / tableSize > 0.96) {
-            tableSize <<= 1;
+        /**
+         * 直接指定桶数(2的幂)，忽略 maxItems。只有桶数、指纹位数和hash方法都相同的过滤器才能{@link CuckooFilter#merge 合并}，
+         * 可以用它建一个和各个分区的过滤器一样大的空过滤器来合并它们
+         */
+        public Builder buckets(long buckets) {
+            this.buckets = buckets;
+            return this;
         }
 
-        table = new ByteArrayTable(tableSize, fingerprintSize);
+        public CuckooFilter build() {
+            return new CuckooFilter(this);
+        }
+
+        /**
+         * 构建过滤器并用公共的 ForkJoinPool 并行放入 keys，见{@link #buildFrom(LongStream, ForkJoinPool)}
+         */
+        public CuckooFilter buildFrom(LongStream keys) {
+            return buildFrom(keys, ForkJoinPool.commonPool());
+        }
+
+        /**
+         * 构建过滤器并在 pool 中并行放入 keys，key 的hash和{@link CuckooFilter#add(long)}相同。
+         * 放不下所有 key 时关闭过滤器并抛出{@link FilterFullException}。
+         * 构建期间所有 key 的hash在两个 long 数组中(每个 key 约16字节的临时内存)，一次最多放入 2^31-1 个 key，
+         * 更多的 key 用{@link #build()}之后逐个或用{@link CuckooFilter#addAll(long[])}分批添加
+         */
+        public CuckooFilter buildFrom(LongStream keys, ForkJoinPool pool) {
+            if (keys == null || pool == null) {
+                throw new IllegalArgumentException("Keys and pool cannot be null");
+            }
+            CuckooFilter filter = build();
+            HashStrategy strategy = filter.hashStrategy;
+            return filter.bulkLoad(() -> keys.parallel().map(strategy::hashLong).toArray(), pool);
+        }
+
+        public CuckooFilter buildFrom(Spliterator.OfLong keys) {
+            return buildFrom(keys, ForkJoinPool.commonPool());
+        }
+
+        public CuckooFilter buildFrom(Spliterator.OfLong keys, ForkJoinPool pool) {
+            if (keys == null) {
+                throw new IllegalArgumentException("Keys cannot be null");
+            }
+            return buildFrom(StreamSupport.longStream(keys, true), pool);
+        }
+
+        public CuckooFilter buildFrom(Stream<?> keys) {
+            return buildFrom(keys, ForkJoinPool.commonPool());
+        }
+
+        /**
+         * 对象的hash和{@link CuckooFilter#add(Object)}相同，String 等和对应的类型化重载相同
+         */
+        public CuckooFilter buildFrom(Stream<?> keys, ForkJoinPool pool) {
+            if (keys == null || pool == null) {
+                throw new IllegalArgumentException("Keys and pool cannot be null");
+            }
+            CuckooFilter filter = build();
+            return filter.bulkLoad(() -> keys.parallel().mapToLong(o -> {
+                if (o == null) {
+                    throw new IllegalArgumentException("Cannot add a null object");
+                }
+                return filter.hashObj(o);
+            }).toArray(), pool);
+        }
+
+        public <T> CuckooFilter buildFrom(Stream<? extends T> keys, Funnel<? super T> funnel) {
+            return buildFrom(keys, funnel, ForkJoinPool.commonPool());
+        }
 
-        segmentedBucketLocker = new SegmentedBucketLocker(16);
+        /**
+         * key 的hash是 funnel 写出的字节的hash，和{@link CuckooFilter#add(Object, Funnel)}相同
+         */
+        public <T> CuckooFilter buildFrom(Stream<? extends T> keys, Funnel<? super T> funnel, ForkJoinPool pool) {
+            if (keys == null || funnel == null || pool == null) {
+                throw new IllegalArgumentException("Keys, funnel and pool cannot be null");
+            }
+            CuckooFilter filter = build();
+            return filter.bulkLoad(() -> keys.parallel().mapToLong(key -> filter.hashFunnel(key, funnel)).toArray(), pool);
+        }
     }
 
     /**
      * 如果在过滤器中找到给定对象的签名，则返回{@code true}。但请记住，错误肯定是可能的
+     * 先以乐观读的方式查找，不加任何锁；只有在查找期间桶所在的段被写过时，才加读锁重新查找
      */
     public boolean contains(Object o) {
-        logger.info("test contain:" + o);
-        ItemInfo info = itemInfoObj(o);
+        if (o == null) {
+            throw new IllegalArgumentException("Cannot look up a null object");
+        }
+        return containsHash(hashObj(o));
+    }
 
-        if (lastVictim != null) {
-            if (Arrays.equals(info.fingerprint, lastVictim.fingerprint)) {
-                return true;
-            }
+    /**
+     * 以下几个方法接受已经算好的hash，{@link ScalableCuckooFilter}对所有层只需要算一次hash
+     */
+    boolean containsHash(long hash) {
+        long index = indexOf(hash);
+        int fingerprint = fingerprintOf(hash);
+        long index2 = altIndex(fingerprint, index);
+
+        // 先查暂存区：指纹从暂存区移回表中时先放入表，再从暂存区删除
+        if (stash.contains(fingerprint, index, index2)) {
+            return true;
+        }
+
+        if (bucketVersions != null) {
+            return containsLockFree(fingerprint, index, index2);
         }
 
-        segmentedBucketLocker.lockBucketsRead(info.index, info.index2);
+        long stamp1 = segmentedBucketLocker.tryOptimisticRead(index);
+        long stamp2 = segmentedBucketLocker.tryOptimisticRead(index2);
+        boolean found = table.findTag(index, fingerprint) || table.findTag(index2, fingerprint);
+        if (segmentedBucketLocker.validate(index, stamp1) && segmentedBucketLocker.validate(index2, stamp2)) {
+            return found;
+        }
+        return containsLocked(fingerprint, index, index2);
+    }
+
+    /**
+     * 加读锁查找，乐观读失败时使用
+     */
+    private boolean containsLocked(int fingerprint, long index, long index2) {
+        segmentedBucketLocker.lockBucketsRead(index, index2);
         try {
-            if (Arrays.equals(info.fingerprint, table.get(info.index))) {
+            if (table.findTag(index, fingerprint)) {
                 return true;
             }
 
-            if (Arrays.equals(info.fingerprint, table.get(info.index2))) {
+            if (table.findTag(index2, fingerprint)) {
                 return true;
             }
         }finally {
-            segmentedBucketLocker.unlockBucketsRead(info.index, info.index2);
+            segmentedBucketLocker.unlockBucketsRead(index, index2);
         }
 
         return false;
     }
 
+    /**
+     * 无锁模式的查找：找到就直接返回(每个字的读取都是原子的)；没找到时，
+     * 如果查找期间有指纹在这两个桶所在的段中移动，就重新查找
+     */
+    private boolean containsLockFree(int fingerprint, long index, long index2) {
+        for (int retries = 0; ; retries++) {
+            long stamp1 = bucketVersions.tryOptimisticRead(index);
+            long stamp2 = bucketVersions.tryOptimisticRead(index2);
+            if (table.findTag(index, fingerprint) || table.findTag(index2, fingerprint)) {
+                return true;
+            }
+            if (bucketVersions.validate(index, stamp1) && bucketVersions.validate(index2, stamp2)) {
+                return false;
+            }
+            if (retries >= MAX_SPINS_BEFORE_YIELD) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * 暂存区满了，之后找不到踢出路径的添加都会失败
+     */
     public boolean isFull() {
-        return lastVictim != null;
+        return stash.isFull();
     }
 
     /**
-     * 如果给定的对象{@code o}已经被包含，它将返回{@code true}
+     * 添加成功(或者对象{@code o}已经被放进了暂存区)时返回{@code true}
      * 如果过滤器太满，这个方法返回{@code false}。
+     * 每次添加都会存入一份指纹，所以同一个对象添加两次后需要删除两次。
      */
     public boolean add(Object o) {
         if (o == null) {
             throw new IllegalArgumentException("Cannot add a null object");
         }
-        return addItem(itemInfoObj(o));
+        return addHash(hashObj(o));
     }
 
-    private boolean addItem(ItemInfo info) {
+    boolean addHash(long hash) {
+        long index = indexOf(hash);
+        int fingerprint = fingerprintOf(hash);
+        return addItem(fingerprint, index, altIndex(fingerprint, index));
+    }
 
-        // 先判断是否存在
-        if (Arrays.equals(info.fingerprint, table.get(info.index))) {
-            return true;
-        }
-        if (Arrays.equals(info.fingerprint, table.get(info.index2))) {
+    private boolean addItem(int fingerprint, long index, long index2) {
+        if (insertDirect(fingerprint, index, index2)) {
+            metrics.items.increment();
+            metrics.recordKicks(0);
             return true;
         }
 
         //判断是否已满
-        if (lastVictim != null) {
+        if (stash.isFull()) {
+            metrics.failedAdds.increment();
             return false;
         }
 
-        if (ByteUtil.isZero(table.get(info.index))) {
-            table.insert(info.fingerprint, info.index);
+        int kicks = insertWithPath(fingerprint, index, index2);
+        if (kicks >= 0) {
+            metrics.items.increment();
+            metrics.recordKicks(kicks);
             return true;
         }
+        if (stash.add(fingerprint, index)) {
+            metrics.items.increment();
+            metrics.stashedAdds.increment();
+            return true;
+        }
+        metrics.failedAdds.increment();
+        return false;
+    }
+
+    /**
+     * 两个桶都满了，先找出一条踢出路径，再沿路径往回移动指纹，腾出一个槽位。
+     * 返回踢出的次数，找不到路径时返回-1
+     */
+    private int insertWithPath(int fingerprint, long index, long index2) {
+        EvictionPath path = evictionPaths.get();
+        for (int attempt = 0; attempt < MAX_PATH_ATTEMPTS; attempt++) {
+            if (!findPath(path, index, index2)) {
+                break;
+            }
+            if (applyPath(path, fingerprint, index, index2)) {
+                return path.length - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 放入两个候选桶中的空槽位，无锁模式下是一次CAS
+     */
+    private boolean insertDirect(int fingerprint, long index, long index2) {
+        if (bucketVersions != null) {
+            return table.insertTag(index, fingerprint) || table.insertTag(index2, fingerprint);
+        }
+        segmentedBucketLocker.lockBucketWrite(index, index2);
+        try {
+            return table.insertTag(index, fingerprint) || table.insertTag(index2, fingerprint);
+        } finally {
+            segmentedBucketLocker.unlockBucketsWrite(index, index2);
+        }
+    }
+
+    /**
+     * 找出一条踢出路径。查找时不加锁，读到的内容可能已经过时，由{@link #applyPath}在移动时再次检查
+     */
+    private boolean findPath(EvictionPath path, long index, long index2) {
+        if (insertionStrategy == InsertionStrategy.BFS) {
+            return findPathBfs(path, index, index2);
+        }
+        return findPathRandomWalk(path, index, index2);
+    }
 
-        int destination = info.index2;
-        byte[] fingerprint = info.fingerprint;
-        int tries = 0;
-        while (++tries <= MAX_TRIES_WHEN_ADDING) {
-            byte[] oldFingerpring = table.get(destination);
-            table.insert(fingerprint, destination);
-            if (ByteUtil.isZero(oldFingerpring)) {
+    /**
+     * 随机游走：每一步随机选一个槽位，看它的指纹在另一个桶中是否有空位
+     */
+    private boolean findPathRandomWalk(EvictionPath path, long index, long index2) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        path.clear();
+        long bucket = random.nextBoolean() ? index : index2;
+        while (path.length < MAX_TRIES_WHEN_ADDING) {
+            int slot = random.nextInt(table.slotsPerBucket());
+            int fingerprint = table.readTag(bucket, slot);
+            path.add(bucket, slot, fingerprint);
+            if (fingerprint == 0) { // 槽位已经被并发的删除腾空了
+                return true;
+            }
+            bucket = altIndex(fingerprint, bucket);
+            int empty = table.findEmptySlot(bucket);
+            if (empty >= 0) {
+                path.add(bucket, empty, 0);
                 return true;
             }
-            fingerprint = oldFingerpring;
-            destination = altIndex(fingerprint, destination);
         }
+        return false;
+    }
 
-        lastVictim = new ItemInfo();
-        lastVictim.fingerprint = fingerprint;
-        lastVictim.index = destination;
-        lastVictim.index2 = altIndex(fingerprint, destination);
+    /**
+     * 广度优先：从两个候选桶出发逐层展开，每个槽位的指纹在另一个桶中有空位时就找到了最短路径。
+     * 深度不超过 maxBfsDepth，访问的桶不超过{@link #MAX_BFS_NODES}个
+     */
+    private boolean findPathBfs(EvictionPath path, long index, long index2) {
+        EvictionQueue queue = evictionQueues.get();
+        queue.clear();
+        queue.add(index, -1, -1, 0);
+        queue.add(index2, -1, -1, 0);
+        int slots = table.slotsPerBucket();
+        for (int head = 0; head < queue.size; head++) {
+            long bucket = queue.buckets[head];
+            for (int slot = 0; slot < slots; slot++) {
+                int fingerprint = table.readTag(bucket, slot);
+                if (fingerprint == 0) { // 槽位已经被并发的删除腾空了
+                    queue.toPath(head, path);
+                    path.add(bucket, slot, 0);
+                    return true;
+                }
+                long alt = altIndex(fingerprint, bucket);
+                int empty = table.findEmptySlot(alt);
+                if (empty >= 0) {
+                    queue.toPath(head, path);
+                    path.add(bucket, slot, fingerprint);
+                    path.add(alt, empty, 0);
+                    return true;
+                }
+                if (queue.depths[head] < maxBfsDepth && !queue.isFull()) {
+                    queue.add(alt, head, slot, fingerprint);
+                }
+            }
+        }
+        return false;
+    }
 
-        return true;
+    /**
+     * 从路径末端往回，每次把一个指纹移动到它的另一个桶中，最后把新指纹放入腾出的槽位。
+     * 路径已经被并发修改时返回{@code false}，已经完成的移动仍然是有效的
+     */
+    private boolean applyPath(EvictionPath path, int fingerprint, long index, long index2) {
+        for (int k = path.length - 2; k >= 0; k--) {
+            if (!moveTag(path.tags[k], path.buckets[k], path.slots[k], path.buckets[k + 1], path.slots[k + 1])) {
+                return false;
+            }
+        }
+        return insertDirect(fingerprint, index, index2);
+    }
+
+    /**
+     * 把指纹从一个槽位移动到另一个桶的空槽位：先复制到新位置，再清除旧位置。
+     * 加锁模式下在两个桶的写锁(按段的固定顺序加锁)内完成；
+     * 无锁模式下两次CAS，期间段版本号表示有移动正在进行，查找会重试，所以并发的查找不会看不到被移动的指纹
+     */
+    private boolean moveTag(int fingerprint, long from, int fromSlot, long to, int toSlot) {
+        if (bucketVersions == null) {
+            segmentedBucketLocker.lockBucketWrite(from, to);
+        } else {
+            bucketVersions.beginMove(from, to);
+        }
+        try {
+            if (!table.compareAndSetTag(to, toSlot, 0, fingerprint)) {
+                return false;
+            }
+            if (!table.compareAndSetTag(from, fromSlot, fingerprint, 0)) {
+                // 只在无锁模式下发生：旧位置的指纹被并发删除了，撤销复制
+                if (!table.deleteTag(to, fingerprint)) {
+                    table.deleteTag(from, fingerprint);
+                }
+                return false;
+            }
+            return true;
+        } finally {
+            if (bucketVersions == null) {
+                segmentedBucketLocker.unlockBucketsWrite(from, to);
+            } else {
+                bucketVersions.endMove(from, to);
+            }
+        }
     }
 
     /**
      * 如果找到元素签名，它将返回{@code true}，否则返回{@code false}。
      * 在任何情况下，如果发现签名将被删除。
+     * 从表中删除后，试着把暂存区中的指纹放回表中
      */
     public boolean delete(Object o) {
         if (o == null) {
             throw new IllegalArgumentException("Cannot remove a null object");
         }
+        return deleteHash(hashObj(o));
+    }
 
-        ItemInfo itemInfo = itemInfoObj(o);
+    boolean deleteHash(long hash) {
+        long index = indexOf(hash);
+        int fingerprint = fingerprintOf(hash);
+        long index2 = altIndex(fingerprint, index);
 
-        if (ByteUtil.isZero(table.get(itemInfo.index)) && ByteUtil.isZero(table.get(itemInfo.index2))) {
-            return false;
+        boolean deleted = bucketVersions != null
+                ? deleteLockFree(fingerprint, index, index2)
+                : deleteLocked(fingerprint, index, index2);
+        if (!deleted) {
+            deleted = !stash.isEmpty() && stash.remove(fingerprint, index, index2);
+            if (deleted) {
+                metrics.items.decrement();
+            }
+            return deleted;
         }
 
-        boolean deleted = false;
-        if (Arrays.equals(itemInfo.fingerprint, table.get(itemInfo.index))) {
-            table.delete(itemInfo.index);
-            return true;
-        } else if (Arrays.equals(itemInfo.fingerprint, table.get(itemInfo.index2))) {
-            table.delete(itemInfo.index2);
-            return true;
+        metrics.items.decrement();
+        if (!stash.isEmpty()) {  // 这里还有空间容纳暂存区中的指纹，让我们试着插入它们
+            reinsertStash(1);
         }
+        return true;
+    }
+
+    /**
+     * 把暂存区中的指纹放回表中，返回放回的个数。每个指纹都会查找踢出路径，
+     * 比删除之后自动进行的尝试更彻底，可以在后台线程中定期调用
+     */
+    public int reinsertStash() {
+        return reinsertStash(Integer.MAX_VALUE);
+    }
 
-        if (deleted) {  // 这里还有空间容纳受害者(如果有的话)，让我们试着插入它
-            if (lastVictim != null) {
-                ItemInfo infoVic = new ItemInfo();
-                infoVic.fingerprint = Arrays.copyOf(lastVictim.fingerprint, lastVictim.fingerprint.length);
-                infoVic.index = lastVictim.index;
-                infoVic.index2 = lastVictim.index2;
-                lastVictim = null;
-                addItem(infoVic);
+    /**
+     * 每个指纹先试着直接放入候选桶，最多对 maxSearches 个指纹查找踢出路径。
+     * 先放入表再从暂存区删除；如果这个指纹已经被别的线程放回或者删除了，就从表中撤销这一次放入
+     */
+    private int reinsertStash(int maxSearches) {
+        KeyBatch entries = stashEntries.get();
+        entries.size = stash.copyTo(entries.index, entries.fingerprint);
+        int reinserted = 0;
+        int searches = 0;
+        for (int i = 0; i < entries.size; i++) {
+            int fingerprint = entries.fingerprint[i];
+            long index = entries.index[i];
+            long index2 = altIndex(fingerprint, index);
+            boolean inserted = insertDirect(fingerprint, index, index2)
+                    || (searches++ < maxSearches && insertWithPath(fingerprint, index, index2) >= 0);
+            if (!inserted) {
+                continue;
+            }
+            if (stash.removeExact(fingerprint, index)) {
+                reinserted++;
+            } else if (bucketVersions != null) {
+                deleteLockFree(fingerprint, index, index2);
+            } else {
+                deleteLocked(fingerprint, index, index2);
             }
         }
-        return deleted;
+        return reinserted;
     }
 
-
-    @VisibleForTesting
-    private class ItemInfo {
-        @VisibleForTesting
-        int index = -1;
-        @VisibleForTesting
-        int index2 = -1;
-        @VisibleForTesting
-        byte[] fingerprint = null;
-        @Override
-        public String toString() {
-            return "i1: " + index + ", i2: " + index2 + ", fingerprint: " + ByteUtil.readableByteArray(fingerprint);
+    /**
+     * 清空过滤器，包括暂存区和项数。表的存储原地清零，不重新分配。
+     * 加锁模式下持有所有段的写锁；无锁模式没有办法阻止并发的写操作，和清空同时进行的添加可能被清掉
+     */
+    public void clear() {
+        if (segmentedBucketLocker != null) {
+            segmentedBucketLocker.lockAllBucketsWrite();
+        }
+        try {
+            table.storage().clear();
+            stash.clear();
+            metrics.items.reset();
+        } finally {
+            if (segmentedBucketLocker != null) {
+                segmentedBucketLocker.unlockAllBucketsWrite();
+            }
         }
     }
 
     /**
-     * 使用hashcode来作为唯一性
+     * 查找在暂存区中命中的次数
      */
-    protected ItemInfo itemInfoObj(Object o) {
-        int h = o.hashCode();
-        byte[] b = new byte[4];
-        for (int i = 0; i < b.length; i++) {
-            b[i] = (byte) (h & 0xff);  // & 0xff 将int(4个字节)分割成4个byte
-            h >>= 8;
-        }
-        return itemInfo(b);
+    public long stashHits() {
+        return stash.hits();
     }
 
-    public ItemInfo itemInfo(byte[] item) {
-        ItemInfo itemInfo = new ItemInfo();
-        byte[] hash = sha1.digest(item);   // SHA1 作为hash函数
+    /**
+     * 暂存区中当前的指纹数
+     */
+    public int stashOccupancy() {
+        return stash.size();
+    }
 
-        // First index
-        long val = 0;
-        for (int i = 0; i < 4; i++) { // 将4个byte转换成int
-            val |= (hash[i] & 0xff);
-            if (i < 3) {
-                val <<= 8;
-            }
-        }
+    public int stashCapacity() {
+        return stash.capacity();
+    }
 
-        val &= 0x00000000ffffffffL;
-        // 由于table的size是2的幂次,val % table.size求解很快
-        itemInfo.index = (int) (val % (long) table.size());
 
-        // Fingerprint
-        itemInfo.fingerprint = new byte[fingerprintSizeInBytes()];
-        for (int i = 0; i < itemInfo.fingerprint.length; i++) {
-            itemInfo.fingerprint[i] = hash[i + 4];
+    private boolean deleteLocked(int fingerprint, long index, long index2) {
+        segmentedBucketLocker.lockBucketWrite(index, index2);
+        try {
+            return table.deleteTag(index, fingerprint) || table.deleteTag(index2, fingerprint);
+        } finally {
+            segmentedBucketLocker.unlockBucketsWrite(index, index2);
         }
-        itemInfo.fingerprint[itemInfo.fingerprint.length - 1] &= fingerprintLastByteMask;
-        if(ByteUtil.isZero(itemInfo.fingerprint)) // 避免所有的指纹是0(它们会与表中的“无指纹”相混淆)
-            itemInfo.fingerprint[0] = 1;
+    }
 
-        // second index
-        itemInfo.index2 = altIndex(itemInfo.fingerprint, itemInfo.index);
+    /**
+     * 无锁模式的删除，和查找一样，指纹正在两个桶之间移动时重试
+     */
+    private boolean deleteLockFree(int fingerprint, long index, long index2) {
+        for (int retries = 0; ; retries++) {
+            long stamp1 = bucketVersions.tryOptimisticRead(index);
+            long stamp2 = bucketVersions.tryOptimisticRead(index2);
+            if (table.deleteTag(index, fingerprint) || table.deleteTag(index2, fingerprint)) {
+                return true;
+            }
+            if (bucketVersions.validate(index, stamp1) && bucketVersions.validate(index2, stamp2)) {
+                return false;
+            }
+            if (retries >= MAX_SPINS_BEFORE_YIELD) {
+                Thread.yield();
+            }
+        }
+    }
 
-        if (altIndex(itemInfo.fingerprint, itemInfo.index2) != itemInfo.index) {
-            logger.info("second index fingerprint:" + itemInfo.fingerprint);
-            throw new InternalError("Generated wrong indexes!");
+    /**
+     * 批量查找，返回每个key是否可能在过滤器中
+     * @see #containsAll(long[], boolean[])
+     */
+    public boolean[] containsAll(long[] keys) {
+        if (keys == null) {
+            throw new IllegalArgumentException("Keys cannot be null");
         }
+        boolean[] results = new boolean[keys.length];
+        containsAll(keys, results);
+        return results;
+    }
 
-        return itemInfo;
+    /**
+     * 批量查找，results[i] 表示 keys[i] 是否可能在过滤器中。key 的hash由{@link HashStrategy#hashLong}计算。
+     * 每批先算出所有key的两个桶并各读一次，让这些缓存未命中同时进行，再逐个比较；整个过程不加锁，
+     * 只有乐观读失败的key才单独加锁(无锁模式下是重试)重新查找。
+     * 每个桶是一个字时，读出的字和指纹一起交给{@link BucketProbe}比较，JDK 17 以上加了
+     * --add-modules jdk.incubator.vector 时用 SIMD 指令一次比较多个桶
+     */
+    public void containsAll(long[] keys, boolean[] results) {
+        if (keys == null || results == null) {
+            throw new IllegalArgumentException("Keys and results cannot be null");
+        }
+        if (results.length < keys.length) {
+            throw new IllegalArgumentException("Results has " + results.length + " entries, but there are " + keys.length + " keys");
+        }
+        KeyBatch batch = keyBatches.get();
+        for (int from = 0; from < keys.length; from += BATCH_SIZE) {
+            hashBatch(keys, from, Math.min(keys.length, from + BATCH_SIZE), batch);
+            for (int i = 0; i < batch.size; i++) {
+                batch.stamp[i] = optimisticRead(batch.index[i]);
+                batch.stamp2[i] = optimisticRead(batch.index2[i]);
+            }
+            boolean probed = probeBatch(batch);
+            if (!probed) {
+                prefetchBatch(batch);
+            }
+
+            for (int i = 0; i < batch.size; i++) {
+                long index = batch.index[i];
+                long index2 = batch.index2[i];
+                int fingerprint = batch.fingerprint[i];
+                boolean found;
+                if (stash.contains(fingerprint, index, index2)) {
+                    found = true;
+                } else {
+                    found = probed ? batch.found[i] : table.findTag(index, fingerprint) || table.findTag(index2, fingerprint);
+                    // 无锁模式下找到的结果总是有效的，加锁模式下找到和没找到都需要检查
+                    if ((!found || bucketVersions == null) && !validate(index, batch.stamp[i], index2, batch.stamp2[i])) {
+                        found = bucketVersions != null
+                                ? containsLockFree(fingerprint, index, index2)
+                                : containsLocked(fingerprint, index, index2);
+                    }
+                }
+                results[from + i] = found;
+            }
+        }
     }
 
     /**
-     * i2=i1&hash(fingerprint) 获取i2
+     * 批量添加，返回添加成功的key数。
+     * 每批先把能直接放入空槽位的key一起放入，加锁模式下这一批的桶所在的每个段只加一次锁，其他段照常读写；
+     * 两个桶都满了的key在释放锁后再逐个踢出
      */
-    private int altIndex(byte[] fingerprint, int index) {
-        byte[] hash = sha1.digest(fingerprint);
-        long val = 0;
-        for (int i = 0; i < 4; i++) {
-            long mask = 0xffL;
-            mask <<= (i * 8);
-            byte b = (byte) ((mask & (long) index) >> (i * 8));
-            val |= (((hash[i] ^ b) & 0xff) << (i * 8));
+    public int addAll(long[] keys) {
+        if (keys == null) {
+            throw new IllegalArgumentException("Keys cannot be null");
+        }
+        KeyBatch batch = keyBatches.get();
+        int added = 0;
+        for (int from = 0; from < keys.length; from += BATCH_SIZE) {
+            hashBatch(keys, from, Math.min(keys.length, from + BATCH_SIZE), batch);
+            added += addBatch(batch, null, 0);
         }
-        val &= 0x00000000ffffffffL;
-        return (int) (val % (long) table.size());
+        return added;
     }
 
-    private int fingerprintSizeInBytes() {
-        return (int)Math.ceil(fingerprintSize/8.0D);
+    /**
+     * 批量添加已经算好的 hash(由{@link HashStrategy#hashInt}等计算，和{@link #add}一致)的前 n 个，
+     * results[i] 表示第i个是否添加成功。异步写线程({@link AsyncCuckooWriter})使用
+     */
+    void addHashes(long[] hashes, int n, boolean[] results) {
+        KeyBatch batch = keyBatches.get();
+        for (int from = 0; from < n; from += BATCH_SIZE) {
+            batch.clear();
+            for (int i = from; i < Math.min(n, from + BATCH_SIZE); i++) {
+                addToBatch(batch, hashes[i]);
+            }
+            addBatch(batch, results, from);
+        }
     }
 
+    /**
+     * 添加一批key：先把能直接放入空槽位的一起放入，再逐个踢出。results 不为 null 时，
+     * results[offset + i] 表示这一批中第i个key是否添加成功。返回添加成功的个数
+     */
+    private int addBatch(KeyBatch batch, boolean[] results, int offset) {
+        prefetchBatch(batch);
 
-    public static void main(String[] args) {
-        for (int i = 0; i < 10000; i++)
-            if (!testFilter())
-                break;
+        int pending = 0;
+        int direct = 0;
+        boolean locked = lockBatchSegments(batch);
+        try {
+            for (int i = 0; i < batch.size; i++) {
+                long index = batch.index[i];
+                long index2 = batch.index2[i];
+                int fingerprint = batch.fingerprint[i];
+                boolean inserted = locked
+                        ? table.insertTag(index, fingerprint) || table.insertTag(index2, fingerprint)
+                        : insertDirect(fingerprint, index, index2);
+                if (inserted) {
+                    direct++;
+                    if (results != null) {
+                        results[offset + batch.position[i]] = true;
+                    }
+                } else {
+                    batch.copy(i, pending++);
+                }
+            }
+        } finally {
+            if (locked) {
+                segmentedBucketLocker.unlockSegmentsWrite(batch.segments);
+            }
+        }
+        metrics.items.add(direct);
+        metrics.recordDirect(direct);
+
+        int added = direct;
+        for (int i = 0; i < pending; i++) {
+            boolean inserted = addItem(batch.fingerprint[i], batch.index[i], batch.index2[i]);
+            if (inserted) {
+                added++;
+            }
+            if (results != null) {
+                results[offset + batch.position[i]] = inserted;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * 批量删除，返回删除成功的key数。加锁模式下和{@link #addAll}一样每个段只加一次锁，
+     * 全部删除后再试着把暂存区中的指纹放回表中
+     */
+    public int deleteAll(long[] keys) {
+        if (keys == null) {
+            throw new IllegalArgumentException("Keys cannot be null");
+        }
+        KeyBatch batch = keyBatches.get();
+        int deleted = 0;
+        for (int from = 0; from < keys.length; from += BATCH_SIZE) {
+            hashBatch(keys, from, Math.min(keys.length, from + BATCH_SIZE), batch);
+            prefetchBatch(batch);
+
+            boolean locked = lockBatchSegments(batch);
+            try {
+                for (int i = 0; i < batch.size; i++) {
+                    long index = batch.index[i];
+                    long index2 = batch.index2[i];
+                    int fingerprint = batch.fingerprint[i];
+                    boolean removed;
+                    if (locked) {
+                        removed = table.deleteTag(index, fingerprint) || table.deleteTag(index2, fingerprint);
+                    } else if (bucketVersions != null) {
+                        removed = deleteLockFree(fingerprint, index, index2);
+                    } else {
+                        removed = deleteLocked(fingerprint, index, index2);
+                    }
+                    if (removed || (!stash.isEmpty() && stash.remove(fingerprint, index, index2))) {
+                        deleted++;
+                    }
+                }
+            } finally {
+                if (locked) {
+                    segmentedBucketLocker.unlockSegmentsWrite(batch.segments);
+                }
+            }
+        }
+        metrics.items.add(-deleted);
+        if (deleted > 0 && !stash.isEmpty()) {
+            reinsertStash(1);
+        }
+        return deleted;
+    }
+
+    /**
+     * 把 other 中的所有指纹(包括暂存区中的)合并到这个过滤器中，返回合并的指纹数，之后这个过滤器包含两者的并集。
+     * 两个过滤器的桶数、指纹位数和hash方法必须相同：指纹所在的桶和指纹一起就能算出另一个候选桶，所以逐个桶放回即可，
+     * 不需要原来的key；槽位数、半排序和并发模式可以不同。
+     * other 在合并期间不应该被修改，正在被踢出的指纹可能被漏掉或者合并两次。
+     * 放不下的指纹不会中断合并，全部处理完后抛出{@link FilterFullException}，其中有合并和丢弃的指纹数
+     */
+    public long merge(CuckooFilter other) {
+        checkMergeable(other);
+        LongAdder failed = new LongAdder();
+        long merged = mergeBuckets(other, 0, other.table.size(), failed) + mergeStash(other, failed);
+        if (failed.sum() > 0) {
+            throw new FilterFullException(merged, failed.sum());
+        }
+        return merged;
+    }
+
+    /**
+     * 在公共的 ForkJoinPool 中并行合并多个过滤器
+     * @see #mergeAll(Collection, ForkJoinPool)
+     */
+    public long mergeAll(Collection<CuckooFilter> others) {
+        return mergeAll(others, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 并行合并多个过滤器(例如各个分区的过滤器)，返回合并的指纹数。每个过滤器的桶被分成若干段，
+     * 在 pool 中同时放入这个过滤器，添加按段加锁，所以这个过滤器应该使用足够多的段({@link Builder#expectedConcurrency})。
+     * 要求和放不下时的处理同{@link #merge}
+     */
+    public long mergeAll(Collection<CuckooFilter> others, ForkJoinPool pool) {
+        if (others == null || pool == null) {
+            throw new IllegalArgumentException("Filters and pool cannot be null");
+        }
+        for (CuckooFilter other : others) {
+            checkMergeable(other);
+        }
+        LongAdder failed = new LongAdder();
+        List<MergeTask> tasks = new ArrayList<MergeTask>(others.size());
+        for (CuckooFilter other : others) {
+            MergeTask task = new MergeTask(other, 0, other.table.size(), failed);
+            tasks.add(task);
+            pool.execute(task);
+        }
+        long merged = 0;
+        for (MergeTask task : tasks) {
+            merged += task.join();
+        }
+        for (CuckooFilter other : others) {
+            merged += mergeStash(other, failed);
+        }
+        if (failed.sum() > 0) {
+            throw new FilterFullException(merged, failed.sum());
+        }
+        return merged;
+    }
+
+    private void checkMergeable(CuckooFilter other) {
+        if (other == null)
+            throw new IllegalArgumentException("Cannot merge a null filter");
+        if (other == this)
+            throw new IllegalArgumentException("Cannot merge a filter into itself");
+        if (other.table.size() != table.size())
+            throw new IllegalArgumentException("Cannot merge a filter of " + other.table.size() + " buckets into one of " + table.size());
+        if (other.fingerprintSize != fingerprintSize)
+            throw new IllegalArgumentException("Cannot merge " + other.fingerprintSize + " bit fingerprints into a filter of " + fingerprintSize + " bit fingerprints");
+        if (!other.hashStrategy.equals(hashStrategy))
+            throw new IllegalArgumentException("Cannot merge a filter hashed with " + other.hashStrategy + " into one hashed with " + hashStrategy);
+    }
+
+    /**
+     * 合并 other 的 [from,to) 号桶。每个桶在 other 的读锁下读出，释放后再放入这个过滤器，
+     * 不会同时持有两个过滤器的锁
+     */
+    private long mergeBuckets(CuckooFilter other, long from, long to, LongAdder failed) {
+        int[] tags = new int[other.table.slotsPerBucket()];
+        long merged = 0;
+        for (long bucket = from; bucket < to; bucket++) {
+            int n = other.readBucket(bucket, tags);
+            for (int i = 0; i < n; i++) {
+                if (addItem(tags[i], bucket, altIndex(tags[i], bucket))) {
+                    merged++;
+                } else {
+                    failed.increment();
+                }
+            }
+        }
+        return merged;
+    }
+
+    private long mergeStash(CuckooFilter other, LongAdder failed) {
+        long[] indexes = new long[other.stash.capacity()];
+        int[] fingerprints = new int[other.stash.capacity()];
+        int n = other.stash.copyTo(indexes, fingerprints);
+        long merged = 0;
+        for (int i = 0; i < n; i++) {
+            if (addItem(fingerprints[i], indexes[i], altIndex(fingerprints[i], indexes[i]))) {
+                merged++;
+            } else {
+                failed.increment();
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * 把桶中不为0的指纹复制到 tags 中，返回个数
+     */
+    private int readBucket(long bucket, int[] tags) {
+        if (segmentedBucketLocker != null) {
+            segmentedBucketLocker.lockBucketsRead(bucket, bucket);
+        }
+        try {
+            int n = 0;
+            for (int slot = 0; slot < table.slotsPerBucket(); slot++) {
+                int tag = table.readTag(bucket, slot);
+                if (tag != 0) {
+                    tags[n++] = tag;
+                }
+            }
+            return n;
+        } finally {
+            if (segmentedBucketLocker != null) {
+                segmentedBucketLocker.unlockBucketsRead(bucket, bucket);
+            }
+        }
+    }
+
+    /**
+     * 合并一段桶，超过 MERGE_CHUNK 个桶时分成两半
+     */
+    private final class MergeTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+        private final CuckooFilter other;
+        private final long from;
+        private final long to;
+        private final LongAdder failed;
+
+        MergeTask(CuckooFilter other, long from, long to, LongAdder failed) {
+            this.other = other;
+            this.from = from;
+            this.to = to;
+            this.failed = failed;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from <= MERGE_CHUNK) {
+                return mergeBuckets(other, from, to, failed);
+            }
+            long middle = (from + to) >>> 1;
+            MergeTask right = new MergeTask(other, middle, to, failed);
+            right.fork();
+            long merged = new MergeTask(other, from, middle, failed).compute();
+            return merged + right.join();
+        }
+    }
+
+    /**
+     * 并行放入刚构建的空过滤器，返回这个过滤器。hashing 在 pool 中运行，并行地算出所有 key 的hash。
+     * 1. 按第一个桶所在的桶范围分区(计数排序)，每个分区由一个任务放入自己的桶中，分区之间不写同一个字，不需要加锁；
+     * 2. 放不下的按第二个桶重新分区，同样放入，再按第一个桶放一轮；
+     * 3. 剩下的两个桶都满了(90%负载时约6%)，用普通的添加(加锁、踢出、暂存区)并行放入。
+     * 分区需要和hash数组一样大的第二个数组，所以临时内存约是每个 key 16字节，key 数受数组长度限制
+     */
+    private CuckooFilter bulkLoad(Callable<long[]> hashing, ForkJoinPool pool) {
+        try {
+            long[] hashes = pool.submit(hashing).join();
+            int n = hashes.length;
+            long buckets = table.size();
+            int partitions = Integer.highestOneBit((int) Math.max(1, Math.min(buckets / MIN_PARTITION_BUCKETS, pool.getParallelism() * 4L)));
+            int shift = Long.numberOfTrailingZeros(buckets) - Integer.numberOfTrailingZeros(partitions);
+            int[] starts = new int[partitions + 1];
+            int[] kept = new int[partitions];
+            LongAdder placed = new LongAdder();
+
+            int slots = table.slotsPerBucket();
+            long[] src = hashes;
+            long[] dst = new long[n];
+            int left = n;
+            // 第一轮每个桶留一个空位给第二轮，第二轮放入第二个桶，第三轮再把第一个桶放满
+            for (int round = 0; round < 3 && left > 0; round++) {
+                boolean alternate = round == 1;
+                int limit = round == 0 ? slots - 1 : slots;
+                long[] sorted = dst;
+                partition(src, left, sorted, alternate, shift, starts, pool);
+                forEach(pool, partitions, p -> kept[p] = placePartition(sorted, starts[p], starts[p + 1], alternate, limit, placed));
+                left = compactKept(sorted, starts, kept);
+                dst = src;
+                src = sorted;
+            }
+            final long[] remaining = src;
+            metrics.items.add(placed.sum());
+            metrics.recordDirect((int) placed.sum());
+
+            // 两个桶都满了，需要踢出
+            final int rest = left;
+            LongAdder failed = new LongAdder();
+            forEach(pool, (rest + LOAD_CHUNK - 1) / LOAD_CHUNK, c -> {
+                for (int k = c * LOAD_CHUNK, end = Math.min(rest, k + LOAD_CHUNK); k < end; k++) {
+                    if (!addHash(remaining[k])) {
+                        failed.increment();
+                    }
+                }
+            });
+            if (failed.sum() > 0) {
+                throw new FilterFullException(n - failed.sum(), failed.sum());
+            }
+            return this;
+        } catch (RuntimeException | Error e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * 把 src 的前 n 个hash按桶范围分到 dst 中：第p个分区是 dst[starts[p], starts[p+1])，桶号右移 shift 位就是分区号。
+     * 每个任务统计一段hash在各个分区中的个数，算出各段在各分区中的起始位置后，再并行地写入
+     */
+    private void partition(long[] src, int n, long[] dst, boolean alternate, int shift, int[] starts, ForkJoinPool pool) {
+        int partitions = starts.length - 1;
+        int chunks = Math.max(1, (n + LOAD_CHUNK - 1) / LOAD_CHUNK);
+        int[][] offsets = new int[chunks][partitions];
+        forEach(pool, chunks, c -> {
+            int[] counts = offsets[c];
+            for (int k = c * LOAD_CHUNK, end = Math.min(n, k + LOAD_CHUNK); k < end; k++) {
+                counts[(int) (bucketOf(src[k], alternate) >>> shift)]++;
+            }
+        });
+        int position = 0;
+        for (int p = 0; p < partitions; p++) {
+            starts[p] = position;
+            for (int c = 0; c < chunks; c++) {
+                int count = offsets[c][p];
+                offsets[c][p] = position;
+                position += count;
+            }
+        }
+        starts[partitions] = position;
+        forEach(pool, chunks, c -> {
+            int[] next = offsets[c];
+            for (int k = c * LOAD_CHUNK, end = Math.min(n, k + LOAD_CHUNK); k < end; k++) {
+                dst[next[(int) (bucketOf(src[k], alternate) >>> shift)]++] = src[k];
+            }
+        });
+    }
+
+    /**
+     * 把 hashes[from, to) 放入各自的第一个(alternate 时第二个)桶，只写这个分区的桶，只放入已占用的槽位少于 limit 的桶。
+     * 放不下的依次移到 from 开始的位置，返回它们的个数
+     */
+    private int placePartition(long[] hashes, int from, int to, boolean alternate, int limit, LongAdder placed) {
+        int kept = 0;
+        for (int k = from; k < to; k++) {
+            long hash = hashes[k];
+            long bucket = bucketOf(hash, alternate);
+            if ((limit < table.slotsPerBucket() && table.occupancy(bucket) >= limit) || !table.insertTag(bucket, fingerprintOf(hash))) {
+                hashes[from + kept++] = hash;
+            }
+        }
+        placed.add(to - from - kept);
+        return kept;
+    }
+
+    private long bucketOf(long hash, boolean alternate) {
+        long index = indexOf(hash);
+        return alternate ? altIndex(fingerprintOf(hash), index) : index;
+    }
+
+    /**
+     * 把各个分区留下的hash移到数组的最前面，返回总数
+     */
+    private static int compactKept(long[] hashes, int[] starts, int[] kept) {
+        int n = 0;
+        for (int p = 0; p < kept.length; p++) {
+            System.arraycopy(hashes, starts[p], hashes, n, kept[p]);
+            n += kept[p];
+        }
+        return n;
+    }
+
+    /**
+     * 在 pool 中并行执行 body(0) ... body(n-1)，全部完成后返回
+     */
+    private static void forEach(ForkJoinPool pool, int n, IntConsumer body) {
+        if (n > 0) {
+            pool.invoke(new RangeAction(0, n, body));
+        }
+    }
+
+    private static final class RangeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+        private final IntConsumer body;
+
+        RangeAction(int from, int to, IntConsumer body) {
+            this.from = from;
+            this.to = to;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                body.accept(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            RangeAction right = new RangeAction(middle, to, body);
+            right.fork();
+            new RangeAction(from, middle, body).compute();
+            right.join();
+        }
+    }
+
+    private void hashBatch(long[] keys, int from, int to, KeyBatch batch) {
+        batch.clear();
+        for (int i = from; i < to; i++) {
+            addToBatch(batch, hashStrategy.hashLong(keys[i]));
+        }
+    }
+
+    private void addToBatch(KeyBatch batch, long hash) {
+        long index = indexOf(hash);
+        int fingerprint = fingerprintOf(hash);
+        batch.add(index, altIndex(fingerprint, index), fingerprint);
+    }
+
+    /**
+     * 读取一批key的所有桶，各次读取互不依赖，CPU可以同时等待多个缓存未命中
+     */
+    private void prefetchBatch(KeyBatch batch) {
+        long sink = 0;
+        for (int i = 0; i < batch.size; i++) {
+            sink += table.prefetch(batch.index[i]) + table.prefetch(batch.index2[i]);
+        }
+        prefetchSink = sink;
+    }
+
+    /**
+     * 每个桶是一个字时读出一批key的两个桶(代替{@link #prefetchBatch})，一起比较，结果在 batch.found 中。
+     * 桶更宽时返回 false，由调用方逐个查找
+     */
+    private boolean probeBatch(KeyBatch batch) {
+        if (table.wordsPerBucket() != 1) {
+            return false;
+        }
+        for (int i = 0; i < batch.size; i++) {
+            batch.word[i] = table.bucketWord(batch.index[i]);
+            batch.word2[i] = table.bucketWord(batch.index2[i]);
+            batch.pattern[i] = table.broadcast(batch.fingerprint[i]);
+        }
+        BucketProbe.findAll(batch.word, batch.word2, batch.pattern, batch.size, table.laneLow, table.laneHigh, batch.found);
+        return true;
+    }
+
+    /**
+     * 加锁模式下对这一批key的两个桶所在的段加写锁，每个段只锁一次，比每个key各自加锁便宜；
+     * 没有被这一批用到的段不加锁，其他线程照常读写。无锁模式返回{@code false}
+     */
+    private boolean lockBatchSegments(KeyBatch batch) {
+        if (segmentedBucketLocker == null) {
+            return false;
+        }
+        Arrays.fill(batch.segments, 0);
+        for (int i = 0; i < batch.size; i++) {
+            segmentedBucketLocker.markSegment(batch.index[i], batch.segments);
+            segmentedBucketLocker.markSegment(batch.index2[i], batch.segments);
+        }
+        segmentedBucketLocker.lockSegmentsWrite(batch.segments);
+        return true;
+    }
+
+    private long optimisticRead(long index) {
+        return bucketVersions != null ? bucketVersions.tryOptimisticRead(index) : segmentedBucketLocker.tryOptimisticRead(index);
+    }
+
+    private boolean validate(long index, long stamp1, long index2, long stamp2) {
+        if (bucketVersions != null) {
+            return bucketVersions.validate(index, stamp1) && bucketVersions.validate(index2, stamp2);
+        }
+        return segmentedBucketLocker.validate(index, stamp1) && segmentedBucketLocker.validate(index2, stamp2);
+    }
+
+    @VisibleForTesting
+    private class ItemInfo {
+        @VisibleForTesting
+        long index = -1;
+        @VisibleForTesting
+        long index2 = -1;
+        @VisibleForTesting
+        int fingerprint = 0;
+        @Override
+        public String toString() {
+            return "i1: " + index + ", i2: " + index2 + ", fingerprint: " + Integer.toBinaryString(fingerprint);
+        }
+    }
+
+    /*
+     * 基本类型和二进制 key：不装箱，直接对 key 的全部字节做hash(和{@link #itemInfo(byte[])}相同)。
+     * {@link #add(Object)}对 Long、Integer、CharSequence、byte[] 和 ByteBuffer 按运行时类型使用同样的hash，
+     * 同一个 key 不论以什么静态类型传入结果都相同。add(long) 和{@link #addAll(long[])}、{@link #containsAll(long[])}一致
+     */
+
+    public boolean contains(long key) {
+        return containsHash(hashStrategy.hashLong(key));
+    }
+
+    public boolean contains(int key) {
+        return containsHash(hashStrategy.hashInt(key));
+    }
+
+    public boolean contains(byte[] key) {
+        return containsHash(hashBytes(key));
+    }
+
+    public boolean contains(byte[] key, int offset, int length) {
+        return containsHash(hashStrategy.hashBytes(key, offset, length));
+    }
+
+    /**
+     * 对 position 到 limit 之间的字节hash，不改变 position
+     */
+    public boolean contains(ByteBuffer key) {
+        return containsHash(hashBuffer(key));
+    }
+
+    /**
+     * 对 UTF-8 编码后的字节hash，和 contains(s.getBytes(UTF_8)) 相同
+     */
+    public boolean contains(CharSequence key) {
+        return containsHash(hashChars(key));
+    }
+
+    /**
+     * 对 funnel 写出的字节hash。funnel 中不能再调用过滤器的这几个方法
+     */
+    public <T> boolean contains(T key, Funnel<? super T> funnel) {
+        return containsHash(hashFunnel(key, funnel));
+    }
+
+    public boolean add(long key) {
+        return addHash(hashStrategy.hashLong(key));
+    }
+
+    public boolean add(int key) {
+        return addHash(hashStrategy.hashInt(key));
+    }
+
+    public boolean add(byte[] key) {
+        return addHash(hashBytes(key));
+    }
+
+    public boolean add(byte[] key, int offset, int length) {
+        return addHash(hashStrategy.hashBytes(key, offset, length));
+    }
+
+    public boolean add(ByteBuffer key) {
+        return addHash(hashBuffer(key));
+    }
+
+    public boolean add(CharSequence key) {
+        return addHash(hashChars(key));
+    }
+
+    public <T> boolean add(T key, Funnel<? super T> funnel) {
+        return addHash(hashFunnel(key, funnel));
+    }
+
+    public boolean delete(long key) {
+        return deleteHash(hashStrategy.hashLong(key));
+    }
+
+    public boolean delete(int key) {
+        return deleteHash(hashStrategy.hashInt(key));
+    }
+
+    public boolean delete(byte[] key) {
+        return deleteHash(hashBytes(key));
+    }
+
+    public boolean delete(byte[] key, int offset, int length) {
+        return deleteHash(hashStrategy.hashBytes(key, offset, length));
+    }
+
+    public boolean delete(ByteBuffer key) {
+        return deleteHash(hashBuffer(key));
+    }
+
+    public boolean delete(CharSequence key) {
+        return deleteHash(hashChars(key));
+    }
+
+    public <T> boolean delete(T key, Funnel<? super T> funnel) {
+        return deleteHash(hashFunnel(key, funnel));
+    }
+
+    private long hashBytes(byte[] key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+        return hashStrategy.hashBytes(key, 0, key.length);
+    }
+
+    private long hashBuffer(ByteBuffer key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+        return KeyBuffer.hash(hashStrategy, key);
+    }
+
+    private long hashChars(CharSequence key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+        return KeyBuffer.hash(hashStrategy, key);
+    }
+
+    private <T> long hashFunnel(T key, Funnel<? super T> funnel) {
+        if (key == null || funnel == null) {
+            throw new IllegalArgumentException("Key and funnel cannot be null");
+        }
+        KeyBuffer buffer = KeyBuffer.get();
+        funnel.funnel(key, buffer);
+        return buffer.hash(hashStrategy);
+    }
+
+    /**
+     * 使用hashcode来作为唯一性
+     */
+    protected ItemInfo itemInfoObj(Object o) {
+        return itemInfo(hashObj(o));
+    }
+
+    public ItemInfo itemInfo(byte[] item) {
+        return itemInfo(hashStrategy.hashBytes(item, 0, item.length));
+    }
+
+    private ItemInfo itemInfo(long hash) {
+        ItemInfo itemInfo = new ItemInfo();
+        itemInfo.index = indexOf(hash);
+        itemInfo.fingerprint = fingerprintOf(hash);
+        itemInfo.index2 = altIndex(itemInfo.fingerprint, itemInfo.index);
+
+        if (altIndex(itemInfo.fingerprint, itemInfo.index2) != itemInfo.index) {
+            throw new InternalError("Generated wrong indexes for fingerprint " + itemInfo.fingerprint);
+        }
+
+        return itemInfo;
+    }
+
+    private long hashObj(Object o) {
+        return KeyBuffer.hashObject(hashStrategy, o);
+    }
+
+    private long indexOf(long hash) {
+        return indexOf(hash, indexMask);
+    }
+
+    private int fingerprintOf(long hash) {
+        return fingerprintOf(hash, fingerprintMask);
+    }
+
+    private long altIndex(int fingerprint, long index) {
+        return altIndex(fingerprint, index, indexMask);
+    }
+
+    /**
+     * 高32位用于计算桶索引，超过2^32个桶时，再用上低32位。{@link CuckooMap}也使用这几个方法
+     */
+    static long indexOf(long hash, long indexMask) {
+        return Long.rotateLeft(hash, 32) & indexMask;
+    }
+
+    /**
+     * 低位用于指纹
+     */
+    static int fingerprintOf(long hash, int fingerprintMask) {
+        int fingerprint = (int) hash & fingerprintMask;
+        if(fingerprint == 0) // 避免所有的指纹是0(它们会与表中的“无指纹”相混淆)
+            fingerprint = 1;
+        return fingerprint;
+    }
+
+    /**
+     * i2 = i1 ^ mix(fingerprint)，只需要对指纹做一次乘法混合，不需要再次hash。
+     * 对 i2 再计算一次就得到 i1
+     */
+    static long altIndex(int fingerprint, long index, long indexMask) {
+        long mix = (fingerprint & 0xffffffffL) * ALT_INDEX_MULTIPLIER;
+        return (index ^ Long.rotateLeft(mix, 32)) & indexMask;
+    }
+
+    /**
+     * 把过滤器写成快照(格式见{@link CuckooFilterSnapshot})，可以用{@link #readFrom}读回或者用{@link #map}直接映射。
+     * 加锁模式下写快照期间持有所有段的读锁，查找照常进行，添加和删除会等待；
+     * 无锁模式没有办法阻止并发的写操作，只有在没有写操作时快照才是一致的。
+     * 映射到文件的表通过 FileChannel.transferTo 写出，不经过堆
+     */
+    public void writeTo(WritableByteChannel out) throws IOException {
+        if (!(hashStrategy instanceof HashStrategies))
+            throw new IllegalStateException("Only the built-in hash strategies can be written to a snapshot, found " + hashStrategy);
+        if (segmentedBucketLocker != null) {
+            segmentedBucketLocker.lockAllBucketsRead();
+        }
+        try {
+            long[] stashIndexes = new long[stash.capacity()];
+            int[] stashFingerprints = new int[stash.capacity()];
+            int stashSize = stash.copyTo(stashIndexes, stashFingerprints);
+            CuckooFilterSnapshot snapshot = new CuckooFilterSnapshot(fingerprintSize, table.slotsPerBucket(), table.size(),
+                    ((HashStrategies) hashStrategy).id(), table instanceof SemiSortedTable, metrics.items.sum(), stash.capacity(), stashSize, stashIndexes, stashFingerprints);
+            snapshot.writeHeader(out);
+            CuckooFilterSnapshot.writePayload(table.storage(), out);
+        } finally {
+            if (segmentedBucketLocker != null) {
+                segmentedBucketLocker.unlockAllBucketsRead();
+            }
+        }
+    }
+
+    /**
+     * 把过滤器的当前内容复制成一个不可变的{@link FrozenCuckooFilter}，它的查找不加锁，可以交给任意多个线程。
+     * 之后对这个过滤器的修改不影响冻结的副本。和{@link #writeTo}一样，加锁模式下复制期间持有所有段的读锁；
+     * 无锁模式只有在没有并发的写操作时副本才是一致的
+     */
+    public FrozenCuckooFilter freeze() {
+        if (segmentedBucketLocker != null) {
+            segmentedBucketLocker.lockAllBucketsRead();
+        }
+        try {
+            long[] stashIndexes = new long[stash.capacity()];
+            int[] stashFingerprints = new int[stash.capacity()];
+            int stashSize = stash.copyTo(stashIndexes, stashFingerprints);
+            return new FrozenCuckooFilter(table, fingerprintSize, hashStrategy, metrics.items.sum(),
+                    Arrays.copyOf(stashIndexes, stashSize), Arrays.copyOf(stashFingerprints, stashSize));
+        } finally {
+            if (segmentedBucketLocker != null) {
+                segmentedBucketLocker.unlockAllBucketsRead();
+            }
+        }
+    }
+
+    /**
+     * 从快照读回过滤器，表放在堆上，使用加锁模式
+     */
+    public static CuckooFilter readFrom(ReadableByteChannel in) throws IOException {
+        return readFrom(in, ConcurrencyMode.SEGMENT_LOCKS, null);
+    }
+
+    /**
+     * 从快照读回过滤器
+     * @param storage 表的存储，{@code null}时使用堆上的默认存储
+     */
+    public static CuckooFilter readFrom(ReadableByteChannel in, ConcurrencyMode concurrencyMode, TableStorage.Factory storage) throws IOException {
+        CuckooFilterSnapshot snapshot = CuckooFilterSnapshot.readHeader(in);
+        CuckooFilter filter = fromSnapshot(snapshot, concurrencyMode, storage);
+        try {
+            CuckooFilterSnapshot.readPayload(filter.table.storage(), in);
+            filter.restoreItemCount(snapshot);
+        } catch (IOException | RuntimeException e) {
+            filter.close();
+            throw e;
+        }
+        return filter;
+    }
+
+    /**
+     * 只读映射一个快照文件，不需要反序列化，映射后马上可以查找，页面在第一次访问时才从磁盘读入。
+     * 只检查头部的校验和；添加和删除会抛出 ReadOnlyBufferException
+     */
+    public static CuckooFilter map(Path file) throws IOException {
+        return map(file, false);
+    }
+
+    /**
+     * @param verifyPayload 是否检查表内容的校验和，需要把整个文件读一遍
+     */
+    public static CuckooFilter map(Path file, boolean verifyPayload) throws IOException {
+        CuckooFilterSnapshot snapshot;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            snapshot = CuckooFilterSnapshot.readHeader(channel);
+        }
+        CuckooFilter filter = fromSnapshot(snapshot, ConcurrencyMode.SEGMENT_LOCKS,
+                TableStorages.mapped(file, snapshot.payloadOffset, true));
+        try {
+            snapshot.checkMapped(file, (MappedTableStorage) filter.table.storage(), verifyPayload);
+            filter.restoreItemCount(snapshot);
+        } catch (IOException | RuntimeException e) {
+            filter.close();
+            throw e;
+        }
+        return filter;
+    }
+
+    private static CuckooFilter fromSnapshot(CuckooFilterSnapshot snapshot, ConcurrencyMode concurrencyMode,
+                                             TableStorage.Factory storage) throws IOException {
+        CuckooFilter filter = builder(snapshot.buckets * snapshot.slotsPerBucket)
+                .buckets(snapshot.buckets)
+                .fingerprintSize(snapshot.fingerprintSize)
+                .slotsPerBucket(snapshot.slotsPerBucket)
+                .hashStrategy(snapshot.hashStrategy())
+                .concurrencyMode(concurrencyMode)
+                .stashSize(Math.max(snapshot.stashCapacity, snapshot.stashSize))
+                .semiSortedBuckets(snapshot.semiSorted)
+                .storage(storage)
+                .build();
+        for (int i = 0; i < snapshot.stashSize; i++) {
+            filter.stash.add(snapshot.stashFingerprints[i], snapshot.stashIndexes[i]);
+        }
+        return filter;
+    }
+
+    /**
+     * 旧的快照没有项数，数一遍表中的指纹
+     */
+    private void restoreItemCount(CuckooFilterSnapshot snapshot) {
+        long items = snapshot.itemCount;
+        if (items < 0) {
+            items = stash.size();
+            for (long bucket = 0; bucket < table.size(); bucket++) {
+                for (int slot = 0; slot < table.slotsPerBucket(); slot++) {
+                    if (table.readTag(bucket, slot) != 0) {
+                        items++;
+                    }
+                }
+            }
+        }
+        metrics.items.add(items);
+    }
+
+    /**
+     * 释放表的存储，映射到文件的表会先把修改写回磁盘
+     */
+    @Override
+    public void close() {
+        unregisterMBean();
+        table.storage().close();
+    }
+
+    /**
+     * 过滤器的运行指标
+     */
+    public CuckooFilterMXBean metrics() {
+        return new Metrics();
+    }
+
+    /**
+     * 把运行指标注册到平台的 MBeanServer，名字是 org.Mercury.cuckoo:type=CuckooFilter,name=name。
+     * {@link #close()}时自动注销
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("org.Mercury.cuckoo:type=CuckooFilter,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(metrics(), objectName);
+        unregisterMBean();
+        mbeanName = objectName;
+        return objectName;
+    }
+
+    private void unregisterMBean() {
+        ObjectName name = mbeanName;
+        if (name == null) {
+            return;
+        }
+        mbeanName = null;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            // 已经被别人注销了
+        }
+    }
+
+    private final class Metrics implements CuckooFilterMXBean {
+        @Override
+        public long getItemCount() {
+            return metrics.items.sum();
+        }
+
+        @Override
+        public long getCapacity() {
+            return table.size() * table.slotsPerBucket();
+        }
+
+        @Override
+        public double getLoadFactor() {
+            return (double) getItemCount() / getCapacity();
+        }
+
+        @Override
+        public int getFingerprintSize() {
+            return fingerprintSize;
+        }
+
+        @Override
+        public double getFalsePositiveRate() {
+            // 指纹不会是0，一次比较误判的概率是 1/(2^f-1)
+            double miss = 1.0 - 1.0 / (Math.pow(2, fingerprintSize) - 1);
+            return 1.0 - Math.pow(miss, 2.0 * table.slotsPerBucket() * Math.max(0.0, getLoadFactor()));
+        }
+
+        @Override
+        public long[] getKickHistogram() {
+            return metrics.kickHistogram();
+        }
+
+        @Override
+        public long getStashedAdds() {
+            return metrics.stashedAdds.sum();
+        }
+
+        @Override
+        public long getFailedAdds() {
+            return metrics.failedAdds.sum();
+        }
+
+        @Override
+        public int getStashOccupancy() {
+            return stash.size();
+        }
+
+        @Override
+        public int getStashCapacity() {
+            return stash.capacity();
+        }
+
+        @Override
+        public long getStashHits() {
+            return stash.hits();
+        }
+
+        @Override
+        public long[] getLockWaitNanos() {
+            return segmentedBucketLocker != null ? segmentedBucketLocker.waitNanos() : new long[0];
+        }
+
+        @Override
+        public long[] getLockWaits() {
+            return segmentedBucketLocker != null ? segmentedBucketLocker.waits() : new long[0];
+        }
+    }
+
+    public HashStrategy hashStrategy() {
+        return hashStrategy;
+    }
+
+    public int fingerprintSize() {
+        return fingerprintSize;
+    }
+
+    /**
+     * 表的桶数，用{@link Builder#buckets}建一样大的过滤器才能合并
+     */
+    public long buckets() {
+        return table.size();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        for (ConcurrencyMode mode : ConcurrencyMode.values())
+            for (InsertionStrategy strategy : InsertionStrategy.values())
+                if (!testConcurrentFilter(mode, strategy, false))
+                    return;
+        if (!testConcurrentFilter(ConcurrencyMode.SEGMENT_LOCKS, InsertionStrategy.RANDOM_WALK, true))
+            return;
+        for (ConcurrencyMode mode : ConcurrencyMode.values())
+            if (!testBatchOperations(mode))
+                return;
+        if (!testMerge())
+            return;
+        if (!testKeyOverloads())
+            return;
+        if (!testBulkLoad())
+            return;
+        for (int i = 0; i < 10000; i++)
+            if (!testFilter())
+                break;
+    }
+
+    /**
+     * 32个线程同时添加、删除和查找，每个线程检查自己添加且未删除的对象都能被找到(没有假阴性)
+     */
+    private static boolean testConcurrentFilter(ConcurrencyMode mode, InsertionStrategy strategy, boolean semiSorted) throws InterruptedException {
+        final int threads = 32;
+        final int keysPerThread = 20000;
+        // 最后约有75%的对象留在过滤器中，负载在90%以上，会发生大量踢出
+        final CuckooFilter filter = builder(500000).concurrencyMode(mode).insertionStrategy(strategy).semiSortedBuckets(semiSorted).build();
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final AtomicLong remaining = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        System.out.println("\n===============================");
+        System.out.println("CONCURRENT INSERTIONS, DELETIONS AND LOOKUPS WITH " + threads + " THREADS (" + mode + ", " + strategy + (semiSorted ? ", SEMI-SORTED" : "") + ")");
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int base = t * keysPerThread;
+            workers[t] = new Thread(() -> {
+                Random random = new Random();
+                List<Integer> present = new ArrayList<Integer>();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < keysPerThread && !failed.get(); i++) {
+                    Integer o = base + i;
+                    if (filter.add(o))
+                        present.add(o);
+                    if (random.nextInt(4) == 0 && !present.isEmpty()) {
+                        Integer d = present.remove(random.nextInt(present.size()));
+                        filter.delete(d);
+                    }
+                    for (int c = 0; c < 2 && !present.isEmpty(); c++) {
+                        Integer p = present.get(random.nextInt(present.size()));
+                        if (!filter.contains(p)) {
+                            System.out.println("ERROR, FILTER DOES NOT CONTAIN " + p);
+                            failed.set(true);
+                        }
+                    }
+                }
+                for (Integer p : present)
+                    if (!filter.contains(p)) {
+                        System.out.println("ERROR, FILTER DOES NOT CONTAIN " + p + " AFTER ALL INSERTIONS");
+                        failed.set(true);
+                    }
+                remaining.addAndGet(present.size());
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers)
+            worker.join();
+
+        if (failed.get())
+            return false;
+        CuckooFilterMXBean metrics = filter.metrics();
+        if (metrics.getItemCount() != remaining.get()) {
+            System.out.println("ERROR, ITEM COUNT IS " + metrics.getItemCount() + " BUT " + remaining.get() + " OBJECTS ARE LEFT");
+            return false;
+        }
+        System.out.println("LOAD FACTOR " + metrics.getLoadFactor() + ", FALSE POSITIVE RATE " + metrics.getFalsePositiveRate()
+                + ", KICKS " + Arrays.toString(metrics.getKickHistogram()) + ", STASHED " + metrics.getStashedAdds()
+                + ", LOCK WAITS " + Arrays.stream(metrics.getLockWaits()).sum());
+        System.out.println("EVERYTHING FINE! FILTER IS " + (filter.isFull() ? "" : "NOT ") + "FULL");
+        return true;
+    }
+
+    /**
+     * 批量操作和逐个操作的结果一致
+     */
+    private static boolean testBatchOperations(ConcurrencyMode mode) throws InterruptedException {
+        final int n = 100000;
+        CuckooFilter filter = builder(n).concurrencyMode(mode).build();
+        System.out.println("\n===============================");
+        System.out.println("BATCH INSERTIONS, LOOKUPS AND DELETIONS (" + mode + ")");
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = i * 0x9E3779B97F4A7C15L;
+        int added = filter.addAll(keys);
+        boolean[] found = filter.containsAll(keys);
+        for (int i = 0; i < added; i++)
+            if (!found[i]) {
+                System.out.println("ERROR, BATCH LOOKUP DOES NOT FIND KEY " + keys[i]);
+                return false;
+            }
+
+        long[] half = Arrays.copyOf(keys, added / 2);
+        if (filter.deleteAll(half) != half.length) {
+            System.out.println("ERROR, BATCH DELETION DID NOT DELETE ALL KEYS");
+            return false;
+        }
+        found = filter.containsAll(keys);
+        for (int i = half.length; i < added; i++)
+            if (!found[i]) {
+                System.out.println("ERROR, BATCH LOOKUP DOES NOT FIND KEY " + keys[i] + " AFTER DELETIONS");
+                return false;
+            }
+        System.out.println("EVERYTHING FINE! ADDED " + added + " OF " + n + " KEYS");
+        return testConcurrentBatches(mode);
+    }
+
+    /**
+     * 多个线程同时对不同的key批量添加和删除，每批只锁自己用到的段，不能丢失其他线程的修改
+     */
+    private static boolean testConcurrentBatches(ConcurrencyMode mode) throws InterruptedException {
+        final int threads = 4;
+        final int perThread = 20000;
+        final CuckooFilter filter = builder(threads * perThread * 2).concurrencyMode(mode).build();
+        final AtomicBoolean failed = new AtomicBoolean();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long base = (long) t * perThread;
+            workers[t] = new Thread(() -> {
+                long[] keys = new long[perThread];
+                for (int i = 0; i < perThread; i++)
+                    keys[i] = base + i;
+                long[] odd = new long[perThread / 2];
+                for (int i = 0; i < odd.length; i++)
+                    odd[i] = base + 2 * i + 1;
+                if (filter.addAll(keys) != perThread || filter.deleteAll(odd) != odd.length)
+                    failed.set(true);
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+        if (failed.get()) {
+            System.out.println("ERROR, A CONCURRENT BATCH DID NOT ADD OR DELETE ALL KEYS");
+            return false;
+        }
+        for (long key = 0; key < threads * perThread; key += 2)
+            if (!filter.contains(key)) {
+                System.out.println("ERROR, CONCURRENT BATCHES LOST KEY " + key);
+                return false;
+            }
+        if (filter.metrics().getItemCount() != threads * perThread / 2) {
+            System.out.println("ERROR, " + filter.metrics().getItemCount() + " ITEMS AFTER CONCURRENT BATCHES");
+            return false;
+        }
+        filter.close();
+        return true;
+    }
+
+    /**
+     * 四个分区的过滤器(槽位数不同)并行合并后包含所有的对象；目标放不下时抛出的异常中合并和丢弃的指纹数加起来等于总数
+     */
+    private static boolean testMerge() {
+        final int shards = 4;
+        final int perShard = 20000;
+        System.out.println("\n===============================");
+        System.out.println("MERGING " + shards + " FILTERS");
+        List<CuckooFilter> parts = new ArrayList<CuckooFilter>();
+        for (int s = 0; s < shards; s++) {
+            CuckooFilter part = builder(1).buckets(1 << 15).slotsPerBucket(s % 2 == 0 ? 4 : 8).build();
+            for (int i = 0; i < perShard; i++)
+                part.add(s * perShard + i);
+            parts.add(part);
+        }
+        CuckooFilter global = builder(1).buckets(parts.get(0).buckets()).build();
+        long merged = global.mergeAll(parts);
+        if (merged != shards * perShard) {
+            System.out.println("ERROR, MERGED " + merged + " OF " + shards * perShard + " FINGERPRINTS");
+            return false;
+        }
+        for (int i = 0; i < shards * perShard; i++)
+            if (!global.contains(i)) {
+                System.out.println("ERROR, MERGED FILTER DOES NOT CONTAIN " + i);
+                return false;
+            }
+
+        // 已经有一份所有的指纹，再合并一次超过了槽位数
+        CuckooFilter full = builder(1).buckets(global.buckets()).build();
+        full.merge(global);
+        try {
+            full.mergeAll(parts);
+            System.out.println("ERROR, OVERFLOWING MERGE DID NOT FAIL");
+            return false;
+        } catch (FilterFullException e) {
+            if (e.merged() + e.failed() != shards * perShard) {
+                System.out.println("ERROR, " + e.getMessage() + " DOES NOT ADD UP TO " + shards * perShard);
+                return false;
+            }
+            System.out.println("OVERFLOW REPORTED: " + e.getMessage());
+        }
+        System.out.println("EVERYTHING FINE!");
+        return true;
+    }
+
+    /**
+     * 基本类型和二进制 key 的各个重载得到同样的hash，hashCode 相同的字符串不再互相冲突
+     */
+    private static boolean testKeyOverloads() {
+        System.out.println("\n===============================");
+        System.out.println("PRIMITIVE AND BINARY KEYS");
+        CuckooFilter filter = builder(100000).build();
+        long[] longs = new long[10000];
+        for (int i = 0; i < longs.length; i++) {
+            longs[i] = i * 0x9E3779B97F4A7C15L;
+            filter.add(longs[i]);
+        }
+        for (boolean found : filter.containsAll(longs))
+            if (!found) {
+                System.out.println("ERROR, add(long) AND containsAll(long[]) DISAGREE");
+                return false;
+            }
+
+        String[] strings = {"Aa", "key-\u00e9\u4e2d", "emoji-\ud83d\ude00", "broken-\ud83d"};
+        byte[] padded = new byte[64];
+        for (String key : strings) {
+            filter.add(key);
+            byte[] utf8 = key.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            System.arraycopy(utf8, 0, padded, 7, utf8.length);
+            ByteBuffer direct = ByteBuffer.allocateDirect(utf8.length + 3);
+            direct.position(3);
+            direct.put(utf8).position(3);
+            if (!filter.contains(new StringBuilder(key)) || !filter.contains(utf8) || !filter.contains(padded, 7, utf8.length)
+                    || !filter.contains(ByteBuffer.wrap(padded, 7, utf8.length)) || !filter.contains(direct) || direct.position() != 3) {
+                System.out.println("ERROR, OVERLOADS DISAGREE FOR " + key);
+                return false;
+            }
+        }
+        // "Aa" 和 "BB" 的 hashCode 相同，对全部字节hash时不冲突
+        if (filter.contains("BB") || filter.contains((Object) "BB")) {
+            System.out.println("ERROR, STRINGS WITH EQUAL HASH CODES COLLIDE");
+            return false;
+        }
+
+        // 同一个 key 以不同的静态类型传入，Object 方法按运行时类型得到和类型化重载相同的hash
+        CuckooFilter mixed = builder(1000).build();
+        byte[] abc = "abc".getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        mixed.add("abc");
+        mixed.add(42L);
+        mixed.add(7);
+        mixed.add((Object) "xyz");
+        mixed.add((Object) Long.valueOf(-1L));
+        Object boxedLong = 42L;
+        Object boxedInt = 7;
+        Object bytes = abc;
+        Object buffer = ByteBuffer.wrap(abc);
+        if (!mixed.contains((Object) "abc") || !mixed.contains((Object) new StringBuilder("abc")) || !mixed.contains(bytes)
+                || !mixed.contains(buffer) || !mixed.contains(boxedLong) || !mixed.contains(boxedInt)
+                || !mixed.contains("xyz") || !mixed.contains(-1L) || mixed.contains(43L)) {
+            System.out.println("ERROR, OBJECT AND TYPED OVERLOADS DISAGREE");
+            return false;
+        }
+        FrozenCuckooFilter frozen = mixed.freeze();
+        if (!frozen.contains((Object) "abc") || !frozen.contains(boxedLong) || !frozen.contains("xyz")) {
+            System.out.println("ERROR, FROZEN FILTER HASHES OBJECTS DIFFERENTLY");
+            return false;
+        }
+        if (!mixed.delete((Object) "abc") || mixed.contains("abc") || !mixed.delete(boxedLong) || mixed.contains(42L)) {
+            System.out.println("ERROR, OBJECT DELETE MISSED A TYPED KEY");
+            return false;
+        }
+        mixed.close();
+
+        Funnel<UUID> uuidFunnel = (uuid, sink) -> sink.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+        UUID uuid = new UUID(0x0123456789abcdefL, 0xfedcba9876543210L);
+        filter.add(uuid, uuidFunnel);
+        ByteBuffer raw = ByteBuffer.allocate(16).order(java.nio.ByteOrder.LITTLE_ENDIAN);
+        raw.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).flip();
+        if (!filter.contains(raw) || !filter.delete(uuid, uuidFunnel) || filter.contains(uuid, uuidFunnel)) {
+            System.out.println("ERROR, FUNNEL KEY NOT FOUND OR NOT DELETED");
+            return false;
+        }
+        for (String key : strings)
+            if (!filter.delete(key)) {
+                System.out.println("ERROR, CANNOT DELETE " + key);
+                return false;
+            }
+        System.out.println("EVERYTHING FINE!");
+        return true;
+    }
+
+    /**
+     * 并行构建的过滤器包含所有 key，和逐个添加的hash一致；小的表和半排序的表中多个分区共用一个字的情况也不会丢失指纹
+     */
+    private static boolean testBulkLoad() {
+        System.out.println("\n===============================");
+        System.out.println("PARALLEL BULK LOAD");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // 负载94%，有一部分需要踢出
+            final int items = (1 << 20) / 100 * 94;
+            for (int fingerprintSize : new int[]{8, 16}) {
+                for (boolean semiSorted : new boolean[]{false, true}) {
+                    Builder builder = builder(items).buckets(1 << 18).fingerprintSize(fingerprintSize).semiSortedBuckets(semiSorted);
+                    long start = System.nanoTime();
+                    CuckooFilter sequential = builder.build();
+                    for (long key = 0; key < items; key++)
+                        sequential.add(key);
+                    long sequentialNanos = System.nanoTime() - start;
+                    start = System.nanoTime();
+                    CuckooFilter loaded = builder.buildFrom(LongStream.range(0, items), pool);
+                    long loadNanos = System.nanoTime() - start;
+                    System.out.println(fingerprintSize + " BIT" + (semiSorted ? ", SEMI-SORTED" : "") + ": ADD " + sequentialNanos / 1000000
+                            + " ms, BULK LOAD " + loadNanos / 1000000 + " ms, " + loaded.metrics().getItemCount() + " ITEMS");
+                    if (loaded.metrics().getItemCount() != items) {
+                        System.out.println("ERROR, BULK LOAD COUNTED " + loaded.metrics().getItemCount() + " ITEMS");
+                        return false;
+                    }
+                    for (long key = 0; key < items; key++)
+                        if (!loaded.contains(key)) {
+                            System.out.println("ERROR, BULK LOADED FILTER DOES NOT CONTAIN " + key);
+                            return false;
+                        }
+                    sequential.close();
+                    loaded.close();
+                }
+            }
+
+            CuckooFilter objects = builder(1000).buildFrom(java.util.stream.IntStream.range(0, 1000).boxed(), pool);
+            for (int i = 0; i < 1000; i++)
+                if (!objects.contains(i)) {
+                    System.out.println("ERROR, OBJECT " + i + " NOT FOUND AFTER BULK LOAD");
+                    return false;
+                }
+            objects.close();
+
+            // 字符串流和逐个添加的字符串hash相同
+            CuckooFilter strings = builder(10000).buildFrom(java.util.stream.IntStream.range(0, 10000).mapToObj(i -> "user:" + i), pool);
+            for (int i = 0; i < 10000; i++)
+                if (!strings.contains("user:" + i) || !strings.contains((Object) ("user:" + i))) {
+                    System.out.println("ERROR, STRING user:" + i + " NOT FOUND AFTER BULK LOAD");
+                    return false;
+                }
+            strings.close();
+
+            Funnel<UUID> uuidFunnel = (uuid, sink) -> sink.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+            CuckooFilter uuids = builder(10000).buildFrom(java.util.stream.IntStream.range(0, 10000).mapToObj(i -> new UUID(i, ~i)), uuidFunnel, pool);
+            for (int i = 0; i < 10000; i++)
+                if (!uuids.contains(new UUID(i, ~i), uuidFunnel)) {
+                    System.out.println("ERROR, FUNNEL KEY " + i + " NOT FOUND AFTER BULK LOAD");
+                    return false;
+                }
+            uuids.close();
+
+            try {
+                builder(1).buckets(1 << 10).buildFrom(LongStream.range(0, 1 << 13), pool);
+                System.out.println("ERROR, OVERFLOWING BULK LOAD DID NOT FAIL");
+                return false;
+            } catch (FilterFullException e) {
+                System.out.println("OVERFLOW REPORTED: " + e.getMessage());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        System.out.println("EVERYTHING FINE!");
+        return true;
     }
 
     private static boolean testFilter() {
@@ -316,7 +2251,9 @@ public class CuckooFilter {
                 return false;
             }
 
-        byte[] tableCpBfDel = Arrays.copyOf(filter.table.table, filter.table.table.length);
+        long[] tableCpBfDel = new long[(int) filter.table.table.size()];
+        for (int i = 0; i < tableCpBfDel.length; i++)
+            tableCpBfDel[i] = filter.table.table.get(i);
 
         System.out.println("RANDOM DELETIONS");
         Iterator<Integer> iter = bag.iterator();
@@ -335,8 +2272,9 @@ public class CuckooFilter {
                 System.out.println("ERROR, FILTER DOES NOT CONTAIN " + i);
                 ItemInfo info = filter.itemInfoObj(i);
                 System.out.println(info);
-                System.out.println("filter[" + info.index + "]:" + ByteUtil.readableByteArray(filter.table.get(info.index)) + "; filter[" + info.index2 + "]:" + ByteUtil.readableByteArray(filter.table.get(info.index2)));
-                System.out.println("filterBfDe[" + info.index + "]:" + ByteUtil.readableByteArray(new byte[]{tableCpBfDel[info.index]}) + "; filterBfDe[" + info.index2 + "]:" + ByteUtil.readableByteArray(new byte[]{tableCpBfDel[info.index2]}));
+                int words = filter.table.wordsPerBucket();
+                System.out.println("filter[" + info.index + "]:" + Long.toHexString(filter.table.word(info.index, 0)) + "; filter[" + info.index2 + "]:" + Long.toHexString(filter.table.word(info.index2, 0)));
+                System.out.println("filterBfDe[" + info.index + "]:" + Long.toHexString(tableCpBfDel[(int) info.index * words]) + "; filterBfDe[" + info.index2 + "]:" + Long.toHexString(tableCpBfDel[(int) info.index2 * words]));
                 return false;
             }
 
@@ -0,0 +1,285 @@
+package org.Mercury.cuckoo;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.Mercury.cuckoo.FilterProtocol.*;
+
+/**
+ * {@link CuckooFilterServer}的客户端，可以被多个线程共用。
+ *
+ * {@link #submit}发出请求后立即返回，不等待响应，多个请求在同一个连接上连续发送(pipelining)；
+ * 一个读线程按顺序读取响应，完成对应的 future。同步方法只是 submit 之后等待结果。
+ * 一个请求可以带一批 key，每个 key 只多占8个字节(long)或4个字节加 key 的长度(byte[])。
+ *
+ * long 和 byte[] key 在服务端按{@link CuckooFilter#add(long)}和{@link CuckooFilter#add(byte[])}处理，
+ * 和在本进程中直接调用这两个方法的结果一致。服务端返回的错误以{@link IllegalArgumentException}完成 future
+ */
+public class CuckooFilterClient implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    public enum Op {
+        ADD(OP_ADD), CONTAINS(OP_CONTAINS), DELETE(OP_DELETE);
+
+        private final byte code;
+
+        Op(byte code) {
+            this.code = code;
+        }
+    }
+
+    private final SocketChannel channel;
+    private final Thread reader;
+    // 写请求和登记 future 在 writeLock 中进行，两者顺序相同；读线程取 future 不需要这个锁，
+    // 否则写线程因为服务端背压阻塞在写上时，读线程也无法取走响应
+    private final Object writeLock = new Object();
+    private final ConcurrentLinkedQueue<CompletableFuture<boolean[]>> pending = new ConcurrentLinkedQueue<CompletableFuture<boolean[]>>();
+    private ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+    private volatile IOException failure = null;
+
+    private CuckooFilterClient(SocketChannel channel) {
+        this.channel = channel;
+        this.reader = new Thread(this::readLoop, "cuckoo-filter-client");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    public static CuckooFilterClient connect(InetSocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        return new CuckooFilterClient(channel);
+    }
+
+    /**
+     * 发出一批 long key 的请求，不等待响应。future 的结果中第i项是第i个 key 的结果
+     */
+    public CompletableFuture<boolean[]> submit(Op op, String filter, long[] keys) {
+        return submit(op, filter, keys, 0, keys.length);
+    }
+
+    public CompletableFuture<boolean[]> submit(Op op, String filter, long[] keys, int offset, int length) {
+        if(offset < 0 || length < 0 || offset > keys.length - length)
+            throw new IllegalArgumentException("Range [" + offset + "," + offset + "+" + length + ") is out of bounds for " + keys.length + " keys");
+        byte[] name = encodeName(filter);
+        synchronized (writeLock) {
+            startFrame(op, KEY_LONG, name, length, length * (long) Long.BYTES);
+            for (int i = offset; i < offset + length; i++) {
+                out.putLong(keys[i]);
+            }
+            return send();
+        }
+    }
+
+    /**
+     * 发出一批 byte[] key 的请求，不等待响应
+     */
+    public CompletableFuture<boolean[]> submit(Op op, String filter, byte[]... keys) {
+        byte[] name = encodeName(filter);
+        long keyBytes = 0;
+        for (byte[] key : keys) {
+            if (key == null) {
+                throw new IllegalArgumentException("Key cannot be null");
+            }
+            keyBytes += 4 + key.length;
+        }
+        synchronized (writeLock) {
+            startFrame(op, KEY_BYTES, name, keys.length, keyBytes);
+            for (byte[] key : keys) {
+                out.putInt(key.length);
+                out.put(key);
+            }
+            return send();
+        }
+    }
+
+    public boolean add(String filter, long key) {
+        return await(submit(Op.ADD, filter, new long[]{key}))[0];
+    }
+
+    public boolean contains(String filter, long key) {
+        return await(submit(Op.CONTAINS, filter, new long[]{key}))[0];
+    }
+
+    public boolean delete(String filter, long key) {
+        return await(submit(Op.DELETE, filter, new long[]{key}))[0];
+    }
+
+    public boolean add(String filter, byte[] key) {
+        return await(submit(Op.ADD, filter, key))[0];
+    }
+
+    public boolean contains(String filter, byte[] key) {
+        return await(submit(Op.CONTAINS, filter, key))[0];
+    }
+
+    public boolean delete(String filter, byte[] key) {
+        return await(submit(Op.DELETE, filter, key))[0];
+    }
+
+    public boolean[] addAll(String filter, long[] keys) {
+        return await(submit(Op.ADD, filter, keys));
+    }
+
+    public boolean[] containsAll(String filter, long[] keys) {
+        return await(submit(Op.CONTAINS, filter, keys));
+    }
+
+    public boolean[] deleteAll(String filter, long[] keys) {
+        return await(submit(Op.DELETE, filter, keys));
+    }
+
+    /**
+     * 关闭连接，还没收到响应的请求以{@link IOException}失败
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        boolean interrupted = false;
+        while (reader.isAlive()) {
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean[] await(CompletableFuture<boolean[]> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IllegalArgumentException) {
+                throw new IllegalArgumentException(cause.getMessage(), cause);
+            }
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            }
+            throw e;
+        }
+    }
+
+    private void startFrame(Op op, byte keyType, byte[] name, int count, long keyBytes) {
+        long length = 1 + 1 + 2 + name.length + 4 + keyBytes;
+        if (length > MAX_FRAME) {
+            throw new IllegalArgumentException("Request of " + length + " bytes exceeds the maximum frame of " + MAX_FRAME + " bytes, split the batch");
+        }
+        out.clear();
+        out = ensure(out, 4 + (int) length);
+        out.putInt((int) length);
+        out.put(op.code);
+        out.put(keyType);
+        out.putShort((short) name.length);
+        out.put(name);
+        out.putInt(count);
+    }
+
+    /**
+     * 写出 out 中的请求并登记 future。持有 writeLock 时调用
+     */
+    private CompletableFuture<boolean[]> send() {
+        CompletableFuture<boolean[]> future = new CompletableFuture<boolean[]>();
+        if (failure != null) {
+            future.completeExceptionally(failure);
+            return future;
+        }
+        // 先登记再写，读线程收到响应时一定能找到它
+        pending.add(future);
+        out.flip();
+        try {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+        if (failure != null) {
+            // 读线程可能在登记之前就清空了等待的请求
+            failPending();
+        }
+        return future;
+    }
+
+    private void readLoop() {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        try {
+            for (;;) {
+                header.clear();
+                readFully(header);
+                int length = header.getInt(0);
+                if (length <= 0 || length > MAX_FRAME) {
+                    throw new IOException("Invalid response length " + length);
+                }
+                if (in.capacity() < length) {
+                    in = ByteBuffer.allocate(length);
+                }
+                in.clear().limit(length);
+                readFully(in);
+                in.flip();
+                CompletableFuture<boolean[]> future = pending.poll();
+                if (future == null) {
+                    throw new IOException("Response without a request");
+                }
+                complete(future, in);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private static void complete(CompletableFuture<boolean[]> future, ByteBuffer in) {
+        if (in.get() == STATUS_ERROR) {
+            future.completeExceptionally(new IllegalArgumentException(new String(in.array(), in.position(), in.remaining(), StandardCharsets.UTF_8)));
+            return;
+        }
+        boolean[] results = new boolean[in.getInt()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = (in.get(in.position() + (i >>> 3)) & (1 << (i & 7))) != 0;
+        }
+        future.complete(results);
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Connection closed by server");
+            }
+        }
+    }
+
+    /**
+     * 连接不可用，所有等待的请求失败
+     */
+    private void fail(IOException e) {
+        synchronized (pending) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        failPending();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void failPending() {
+        for (CompletableFuture<boolean[]> future; (future = pending.poll()) != null; ) {
+            future.completeExceptionally(failure);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.Mercury.cuckoo;
+
+/**
+ * 过滤器的运行指标，可以通过{@link CuckooFilter#registerMBean}在JMX中查看。
+ * 计数器都是 LongAdder，读取时求和，读到的是近似的瞬时值
+ */
+public interface CuckooFilterMXBean {
+
+    /**
+     * 添加成功的次数减去删除成功的次数(包括暂存区中的指纹)
+     */
+    long getItemCount();
+
+    /**
+     * 表的槽位数
+     */
+    long getCapacity();
+
+    /**
+     * 项数除以槽位数
+     */
+    double getLoadFactor();
+
+    int getFingerprintSize();
+
+    /**
+     * 按当前负载因子计算的理论假阳性率：1 - (1 - 1/(2^f-1))^(2*b*负载因子)，b是每个桶的槽位数
+     */
+    double getFalsePositiveRate();
+
+    /**
+     * 添加时踢出次数的直方图，第0项是不需要踢出的添加，第i项(i>0)是踢出 [2^(i-1), 2^i) 次的添加。
+     * 配置了采样时只统计一部分添加
+     */
+    long[] getKickHistogram();
+
+    /**
+     * 找不到踢出路径、放入暂存区的添加次数
+     */
+    long getStashedAdds();
+
+    /**
+     * 因为暂存区已满而失败的添加次数
+     */
+    long getFailedAdds();
+
+    int getStashOccupancy();
+
+    int getStashCapacity();
+
+    long getStashHits();
+
+    /**
+     * 加锁模式下每个段的锁等待的总纳秒数，只统计没能马上拿到锁的情况。无锁模式下是空数组
+     */
+    long[] getLockWaitNanos();
+
+    /**
+     * 加锁模式下每个段没能马上拿到锁的次数
+     */
+    long[] getLockWaits();
+}
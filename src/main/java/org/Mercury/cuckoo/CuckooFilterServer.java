@@ -0,0 +1,458 @@
+package org.Mercury.cuckoo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.Mercury.cuckoo.FilterProtocol.*;
+
+/**
+ * 嵌入进程内的过滤器服务：同一台机器上的多个服务共用一份过滤器，而不是各自构建一份。
+ * 用{@link #register}注册有名字的过滤器，客户端用{@link CuckooFilterClient}通过{@link FilterProtocol}访问。
+ *
+ * 一个线程运行非阻塞的 selector 循环，处理所有连接：读到的每个完整请求帧直接在这个线程中查找或修改过滤器
+ * (内存操作，比一次系统调用快)，响应按顺序追加到连接的输出缓冲区，一次写出。
+ * 输出缓冲区积压超过 OUT_HIGH_WATER 时暂停读取这个连接，直到写出为止(背压)。
+ * 服务不拥有过滤器，关闭服务不会关闭它们
+ */
+public class CuckooFilterServer implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int OUT_HIGH_WATER = 1 << 20;
+
+    private final ConcurrentMap<String, CuckooFilter> filters = new ConcurrentHashMap<String, CuckooFilter>();
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final Thread loop;
+    private volatile boolean closed = false;
+
+    private CuckooFilterServer(InetSocketAddress address) throws IOException {
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+        this.loop = new Thread(this::selectLoop, "cuckoo-filter-server");
+        this.loop.setDaemon(true);
+        this.loop.start();
+    }
+
+    /**
+     * 在 address 上监听，端口为0时使用任意空闲端口，见{@link #address()}
+     */
+    public static CuckooFilterServer start(InetSocketAddress address) throws IOException {
+        return new CuckooFilterServer(address);
+    }
+
+    /**
+     * 只在本机回环地址上监听
+     */
+    public static CuckooFilterServer startLocal(int port) throws IOException {
+        return start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    public InetSocketAddress address() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    /**
+     * 以 name 提供过滤器。名字已被使用时抛出{@link IllegalStateException}
+     */
+    public void register(String name, CuckooFilter filter) {
+        encodeName(name);
+        if (filter == null) {
+            throw new IllegalArgumentException("Filter cannot be null");
+        }
+        if (filters.putIfAbsent(name, filter) != null) {
+            throw new IllegalStateException("A filter named " + name + " is already registered");
+        }
+    }
+
+    /**
+     * 停止提供 name 对应的过滤器并返回它，没有时返回{@code null}。之后的请求会得到错误响应
+     */
+    public CuckooFilter unregister(String name) {
+        return filters.remove(name);
+    }
+
+    /**
+     * 关闭监听和所有连接，等待 selector 线程退出
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        boolean interrupted = false;
+        while (loop.isAlive()) {
+            try {
+                loop.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void selectLoop() {
+        try {
+            while (!closed) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        // 客户端断开、发来了无法解析的帧或者处理出了意外的错，只关闭这个连接，selector 线程继续服务其他连接
+                        closeQuietly(key);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // selector 不可用，停止服务
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * 一个客户端连接的输入、输出缓冲区，只在 selector 线程中使用
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        // 写模式：position 之前是还没写出的响应
+        private ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                throw new IOException("Connection closed by client");
+            }
+            in.flip();
+            while (in.remaining() >= 4) {
+                int length = in.getInt(in.position());
+                if (length <= 0 || length > MAX_FRAME) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                if (in.remaining() < 4 + length) {
+                    if (in.capacity() < 4 + length) {
+                        // 帧比缓冲区大，扩容后等剩下的字节
+                        ByteBuffer larger = ByteBuffer.allocate(4 + length);
+                        larger.put(in);
+                        in = larger;
+                        flush();
+                        return;
+                    }
+                    break;
+                }
+                int end = in.position() + 4 + length;
+                in.position(in.position() + 4);
+                handleFrame(end);
+                in.position(end);
+            }
+            in.compact();
+            flush();
+        }
+
+        void flush() throws IOException {
+            if (out.position() > 0) {
+                out.flip();
+                channel.write(out);
+                out.compact();
+            }
+            int ops;
+            if (out.position() == 0) {
+                ops = SelectionKey.OP_READ;
+            } else if (out.position() > OUT_HIGH_WATER) {
+                ops = SelectionKey.OP_WRITE;
+            } else {
+                ops = SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+            }
+            if (key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        }
+
+        /**
+         * 处理 in 中 position 到 end 之间的一个请求，把响应追加到 out。请求有错或者过滤器抛出任何运行时异常时
+         * 只返回错误响应，不影响之后的请求
+         */
+        private void handleFrame(int end) {
+            int responseStart = out.position();
+            try {
+                byte op = in.get();
+                byte keyType = in.get();
+                int nameLength = in.getShort() & 0xffff;
+                if (nameLength > end - in.position()) {
+                    throw new IllegalArgumentException("Filter name of " + nameLength + " bytes exceeds the frame");
+                }
+                String name = new String(in.array(), in.arrayOffset() + in.position(), nameLength, StandardCharsets.UTF_8);
+                in.position(in.position() + nameLength);
+                CuckooFilter filter = filters.get(name);
+                if (filter == null) {
+                    throw new IllegalArgumentException("Unknown filter " + name);
+                }
+                if (op != OP_ADD && op != OP_CONTAINS && op != OP_DELETE) {
+                    throw new IllegalArgumentException("Unknown operation " + op);
+                }
+                int count = in.getInt();
+                checkKeys(keyType, count, end);
+
+                out = ensure(out, 9 + bitmapBytes(count));
+                out.putInt(0);
+                out.put(STATUS_OK);
+                out.putInt(count);
+                int bits = 0;
+                for (int i = 0; i < count; i++) {
+                    if (apply(filter, op, keyType)) {
+                        bits |= 1 << (i & 7);
+                    }
+                    if ((i & 7) == 7) {
+                        out.put((byte) bits);
+                        bits = 0;
+                    }
+                }
+                if ((count & 7) != 0) {
+                    out.put((byte) bits);
+                }
+                out.putInt(responseStart, out.position() - responseStart - 4);
+            } catch (RuntimeException e) {
+                out.position(responseStart);
+                String message = e.getMessage() != null ? e.getMessage() : e.toString();
+                byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+                out = ensure(out, 5 + bytes.length);
+                out.putInt(1 + bytes.length);
+                out.put(STATUS_ERROR);
+                out.put(bytes);
+            }
+        }
+
+        /**
+         * 修改过滤器之前检查所有 key 都在帧内，有错的请求不会只执行一部分
+         */
+        private void checkKeys(byte keyType, int count, int end) {
+            if (count < 0) {
+                throw new IllegalArgumentException("Negative key count " + count);
+            }
+            if (keyType == KEY_LONG) {
+                if ((long) count * Long.BYTES != end - in.position()) {
+                    throw new IllegalArgumentException(count + " long keys do not match a frame of " + (end - in.position()) + " key bytes");
+                }
+                return;
+            }
+            if (keyType != KEY_BYTES) {
+                throw new IllegalArgumentException("Unknown key type " + keyType);
+            }
+            int pos = in.position();
+            for (int i = 0; i < count; i++) {
+                int length = end - pos >= 4 ? in.getInt(pos) : -1;
+                if (length < 0 || length > end - pos - 4) {
+                    throw new IllegalArgumentException("Key " + i + " exceeds the frame");
+                }
+                pos += 4 + length;
+            }
+            if (pos != end) {
+                throw new IllegalArgumentException((end - pos) + " trailing bytes after " + count + " keys");
+            }
+        }
+
+        private boolean apply(CuckooFilter filter, byte op, byte keyType) {
+            if (keyType == KEY_LONG) {
+                long key = in.getLong();
+                switch (op) {
+                    case OP_ADD: return filter.add(key);
+                    case OP_CONTAINS: return filter.contains(key);
+                    default: return filter.delete(key);
+                }
+            }
+            int length = in.getInt();
+            int offset = in.arrayOffset() + in.position();
+            in.position(in.position() + length);
+            switch (op) {
+                case OP_ADD: return filter.add(in.array(), offset, length);
+                case OP_CONTAINS: return filter.contains(in.array(), offset, length);
+                default: return filter.delete(in.array(), offset, length);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int keys = 100000;
+        CuckooFilter users = CuckooFilter.builder(keys * 2).build();
+        try (CuckooFilterServer server = startLocal(0)) {
+            server.register("users", users);
+            System.out.println("SERVING ON " + server.address());
+            try (CuckooFilterClient client = CuckooFilterClient.connect(server.address())) {
+                long[] batch = new long[keys];
+                for (int i = 0; i < keys; i++) {
+                    batch[i] = i * 31L;
+                }
+                System.out.println("BATCHED ADDS AND LOOKUPS");
+                for (boolean added : client.addAll("users", batch)) {
+                    if (!added) {
+                        System.out.println("ERROR, REMOTE ADD FAILED");
+                        return;
+                    }
+                }
+                for (int i = 0; i < keys; i++) {
+                    // 服务端和本地使用同一个过滤器，本地按同样的方式hash
+                    if (!users.contains(batch[i])) {
+                        System.out.println("ERROR, LOCAL FILTER DOES NOT CONTAIN " + batch[i]);
+                        return;
+                    }
+                }
+
+                System.out.println("PIPELINED REQUESTS FROM 4 THREADS");
+                List<Thread> threads = new ArrayList<Thread>();
+                final List<String> errors = new ArrayList<String>();
+                for (int t = 0; t < 4; t++) {
+                    final int base = t;
+                    Thread thread = new Thread(() -> {
+                        List<CompletableFuture<boolean[]>> futures = new ArrayList<CompletableFuture<boolean[]>>();
+                        for (int i = base; i < keys; i += 4 * 100) {
+                            long[] part = new long[Math.min(100, keys - i)];
+                            for (int k = 0; k < part.length; k++) {
+                                part[k] = batch[i] + k * 4L * 31L;
+                            }
+                            futures.add(client.submit(CuckooFilterClient.Op.CONTAINS, "users", part));
+                        }
+                        for (CompletableFuture<boolean[]> future : futures) {
+                            for (boolean found : future.join()) {
+                                if (!found) {
+                                    synchronized (errors) {
+                                        errors.add("pipelined lookup missed a key");
+                                    }
+                                }
+                            }
+                        }
+                    });
+                    thread.start();
+                    threads.add(thread);
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                if (!errors.isEmpty()) {
+                    System.out.println("ERROR, " + errors.get(0));
+                    return;
+                }
+
+                System.out.println("BINARY KEYS");
+                byte[] key = "user:42".getBytes(StandardCharsets.UTF_8);
+                if (!client.add("users", key) || !users.contains("user:42") || !client.contains("users", key)
+                        || !client.delete("users", key) || client.contains("users", key)) {
+                    System.out.println("ERROR, BINARY KEY NOT ADDED OR DELETED");
+                    return;
+                }
+
+                try {
+                    client.contains("missing", 1L);
+                    System.out.println("ERROR, UNKNOWN FILTER ACCEPTED");
+                    return;
+                } catch (IllegalArgumentException expected) {
+                    System.out.println("ERROR RESPONSE: " + expected.getMessage());
+                }
+                // 错误响应之后连接还能使用
+                if (!client.contains("users", batch[0])) {
+                    System.out.println("ERROR, CONNECTION UNUSABLE AFTER AN ERROR RESPONSE");
+                    return;
+                }
+
+                // 过滤器抛出意外的异常时只返回错误响应，selector 线程和连接都不受影响
+                server.register("broken", CuckooFilter.builder(1 << 10).hashStrategy(new HashStrategy() {
+                    @Override
+                    public long hashBytes(byte[] bytes, int offset, int length) {
+                        throw new UnsupportedOperationException("broken hash");
+                    }
+
+                    @Override
+                    public long hashInt(int value) {
+                        throw new UnsupportedOperationException("broken hash");
+                    }
+
+                    @Override
+                    public long hashLong(long value) {
+                        throw new UnsupportedOperationException("broken hash");
+                    }
+                }).build());
+                try {
+                    client.contains("broken", 1L);
+                    System.out.println("ERROR, FAILING FILTER RETURNED A RESULT");
+                    return;
+                } catch (IllegalArgumentException expected) {
+                    System.out.println("ERROR RESPONSE: " + expected.getMessage());
+                }
+                if (!client.contains("users", batch[0])) {
+                    System.out.println("ERROR, SERVER UNUSABLE AFTER A FAILING FILTER");
+                    return;
+                }
+            }
+        }
+        users.close();
+        System.out.println("EVERYTHING FINE!");
+    }
+}
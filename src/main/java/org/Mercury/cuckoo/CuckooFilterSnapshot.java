@@ -0,0 +1,330 @@
+package org.Mercury.cuckoo;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * 过滤器快照的头部，以及读写表内容的方法。快照的格式(小端序，版本2)：
+ * <pre>
+ *   0  int   魔数 "CKFL"
+ *   4  int   格式版本号
+ *   8  int   指纹的位数
+ *  12  int   每个桶的槽位数
+ *  16  long  桶数
+ *  24  int   hash策略的id
+ *  28  int   暂存区中的指纹数 n
+ *  32  int   暂存区的容量
+ *  36  int   表内容的起始位置
+ *  40  int   标志位，第0位表示表是半排序压缩的({@link SemiSortedTable})，第1位表示有项数
+ *  44  4字节 保留
+ *  48  long  项数(包括暂存区中的指纹)
+ *  56  4字节 保留
+ *  60  int   前60字节的CRC32
+ *  64  n项暂存区，每项是 long 第一个候选桶、int 指纹、int 保留
+ *      long  暂存区的CRC32，之后补0直到64字节对齐
+ *      表的所有字(小端序)
+ *      long  表内容的CRC32
+ * </pre>
+ * 版本1没有暂存区，28处是标志位(第0位表示有victim)，32、48处是victim的第一个候选桶和指纹，表内容从64开始。
+ *
+ * 表内容和{@link ByteBufferTableStorage}的布局一致，快照文件可以不经反序列化直接映射成表。
+ * 校验和放在表内容之后，写快照时只需要顺序写一遍
+ */
+final class CuckooFilterSnapshot {
+    // 文件开头的 "CKFL"
+    static final int MAGIC = 0x4c464b43;
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 64;
+    static final int TRAILER_BYTES = 8;
+    private static final int STASH_ENTRY_BYTES = 16;
+    private static final int HEADER_CRC_OFFSET = 60;
+    private static final int V1_FLAG_VICTIM = 1;
+    private static final int FLAG_SEMI_SORTED = 1;
+    private static final int FLAG_ITEM_COUNT = 2;
+    // 没有办法直接访问字节的存储，按这个大小分批读写
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    final int fingerprintSize;
+    final int slotsPerBucket;
+    final long buckets;
+    final int hashStrategyId;
+    final boolean semiSorted;
+    // 项数，快照中没有时是-1
+    final long itemCount;
+    final int stashCapacity;
+    final int stashSize;
+    final long[] stashIndexes;
+    final int[] stashFingerprints;
+    // 表内容在文件中的起始位置
+    final long payloadOffset;
+
+    CuckooFilterSnapshot(int fingerprintSize, int slotsPerBucket, long buckets, int hashStrategyId, boolean semiSorted, long itemCount,
+                         int stashCapacity, int stashSize, long[] stashIndexes, int[] stashFingerprints) {
+        this(fingerprintSize, slotsPerBucket, buckets, hashStrategyId, semiSorted, itemCount, stashCapacity, stashSize, stashIndexes, stashFingerprints,
+                align(HEADER_BYTES + (long) stashSize * STASH_ENTRY_BYTES + TRAILER_BYTES));
+    }
+
+    private CuckooFilterSnapshot(int fingerprintSize, int slotsPerBucket, long buckets, int hashStrategyId, boolean semiSorted, long itemCount,
+                                 int stashCapacity, int stashSize, long[] stashIndexes, int[] stashFingerprints, long payloadOffset) {
+        this.fingerprintSize = fingerprintSize;
+        this.slotsPerBucket = slotsPerBucket;
+        this.buckets = buckets;
+        this.hashStrategyId = hashStrategyId;
+        this.semiSorted = semiSorted;
+        this.itemCount = itemCount;
+        this.stashCapacity = stashCapacity;
+        this.stashSize = stashSize;
+        this.stashIndexes = stashIndexes;
+        this.stashFingerprints = stashFingerprints;
+        this.payloadOffset = payloadOffset;
+    }
+
+    /**
+     * 写出头部和暂存区，之后紧接着就是表内容
+     */
+    void writeHeader(WritableByteChannel out) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate((int) payloadOffset).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(fingerprintSize)
+                .putInt(slotsPerBucket)
+                .putLong(buckets)
+                .putInt(hashStrategyId)
+                .putInt(stashSize)
+                .putInt(stashCapacity)
+                .putInt((int) payloadOffset)
+                .putInt((semiSorted ? FLAG_SEMI_SORTED : 0) | FLAG_ITEM_COUNT)
+                .putInt(0)
+                .putLong(itemCount);
+        header.putInt(HEADER_CRC_OFFSET, headerCrc(header));
+        header.position(HEADER_BYTES);
+        for (int i = 0; i < stashSize; i++) {
+            header.putLong(stashIndexes[i]).putInt(stashFingerprints[i]).putInt(0);
+        }
+        header.putLong(stashCrc(header, stashSize));
+        header.clear();
+        writeFully(out, header);
+    }
+
+    /**
+     * 读入头部和暂存区，之后 in 正好位于表内容的开头
+     */
+    static CuckooFilterSnapshot readHeader(ReadableByteChannel in) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(in, header);
+        if (header.getInt(0) != MAGIC)
+            throw new IOException("Not a cuckoo filter snapshot");
+        if (header.getInt(HEADER_CRC_OFFSET) != headerCrc(header))
+            throw new IOException("Snapshot header checksum mismatch");
+        int version = header.getInt(4);
+        if (version != 1 && version != VERSION)
+            throw new IOException("Unsupported snapshot version " + version + ", expected at most " + VERSION);
+        int fingerprintSize = header.getInt(8);
+        int slotsPerBucket = header.getInt(12);
+        long buckets = header.getLong(16);
+        int hashStrategyId = header.getInt(24);
+        if (buckets <= 0 || (buckets & (buckets - 1)) != 0)
+            throw new IOException("Invalid bucket count " + buckets + " in snapshot");
+
+        if (version == 1) {
+            // 版本1只有一个victim
+            long[] indexes = new long[1];
+            int[] fingerprints = new int[1];
+            int size = 0;
+            if ((header.getInt(28) & V1_FLAG_VICTIM) != 0) {
+                indexes[0] = header.getLong(32);
+                fingerprints[0] = header.getInt(48);
+                size = 1;
+            }
+            return new CuckooFilterSnapshot(fingerprintSize, slotsPerBucket, buckets, hashStrategyId, false, -1,
+                    CuckooFilter.DEFAULT_STASH_SIZE, size, indexes, fingerprints, HEADER_BYTES);
+        }
+
+        int stashSize = header.getInt(28);
+        int stashCapacity = header.getInt(32);
+        long payloadOffset = header.getInt(36);
+        if (stashSize < 0 || stashSize > stashCapacity || stashCapacity < 1 || stashCapacity > CuckooFilter.MAX_STASH_SIZE
+                || payloadOffset != align(HEADER_BYTES + (long) stashSize * STASH_ENTRY_BYTES + TRAILER_BYTES))
+            throw new IOException("Invalid stash of " + stashSize + " entries in snapshot");
+        ByteBuffer stash = ByteBuffer.allocate((int) payloadOffset).order(ByteOrder.LITTLE_ENDIAN);
+        stash.position(HEADER_BYTES);
+        readFully(in, stash);
+        long[] indexes = new long[stashSize];
+        int[] fingerprints = new int[stashSize];
+        stash.position(HEADER_BYTES);
+        for (int i = 0; i < stashSize; i++) {
+            indexes[i] = stash.getLong();
+            fingerprints[i] = stash.getInt();
+            stash.getInt();
+        }
+        if (stash.getLong() != stashCrc(stash, stashSize))
+            throw new IOException("Snapshot stash checksum mismatch");
+        int flags = header.getInt(40);
+        return new CuckooFilterSnapshot(fingerprintSize, slotsPerBucket, buckets, hashStrategyId, (flags & FLAG_SEMI_SORTED) != 0,
+                (flags & FLAG_ITEM_COUNT) != 0 ? header.getLong(48) : -1, stashCapacity, stashSize, indexes, fingerprints, payloadOffset);
+    }
+
+    HashStrategy hashStrategy() throws IOException {
+        try {
+            return HashStrategies.fromId(hashStrategyId);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Snapshot uses an unknown hash strategy", e);
+        }
+    }
+
+    /**
+     * 快照文件的总字节数
+     */
+    long fileBytes(TableStorage storage) {
+        return payloadOffset + (storage.size() << 3) + TRAILER_BYTES;
+    }
+
+    /**
+     * 写出表的所有字和校验和。映射到文件的表用 FileChannel.transferTo 直接从文件复制，不经过堆
+     */
+    static void writePayload(TableStorage storage, WritableByteChannel out) throws IOException {
+        CRC32 crc = new CRC32();
+        if (storage instanceof MappedTableStorage) {
+            MappedTableStorage mapped = (MappedTableStorage) storage;
+            mapped.force();
+            for (ByteBuffer chunk : mapped.chunks) {
+                crc.update(chunk.duplicate());
+            }
+            try (FileChannel channel = FileChannel.open(mapped.file(), StandardOpenOption.READ)) {
+                long position = mapped.offset();
+                long remaining = storage.size() << 3;
+                while (remaining > 0) {
+                    long n = channel.transferTo(position, remaining, out);
+                    position += n;
+                    remaining -= n;
+                }
+            }
+        } else if (storage instanceof ByteBufferTableStorage) {
+            for (ByteBuffer chunk : ((ByteBufferTableStorage) storage).chunks) {
+                crc.update(chunk.duplicate());
+                writeFully(out, chunk.duplicate());
+            }
+        } else {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (long i = 0; i < storage.size(); i++) {
+                buffer.putLong(storage.get(i));
+                if (!buffer.hasRemaining()) {
+                    flush(buffer, crc, out);
+                }
+            }
+            flush(buffer, crc, out);
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        trailer.putLong(0, crc.getValue());
+        writeFully(out, trailer);
+    }
+
+    /**
+     * 读入表的所有字并检查校验和
+     */
+    static void readPayload(TableStorage storage, ReadableByteChannel in) throws IOException {
+        CRC32 crc = new CRC32();
+        if (storage instanceof ByteBufferTableStorage) {
+            for (ByteBuffer chunk : ((ByteBufferTableStorage) storage).chunks) {
+                ByteBuffer buffer = chunk.duplicate();
+                readFully(in, buffer);
+                buffer.flip();
+                crc.update(buffer);
+            }
+        } else {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            long index = 0;
+            while (index < storage.size()) {
+                buffer.clear();
+                buffer.limit((int) Math.min(BUFFER_BYTES, (storage.size() - index) << 3));
+                readFully(in, buffer);
+                buffer.flip();
+                crc.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    storage.set(index++, buffer.getLong());
+                }
+            }
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(in, trailer);
+        checkPayloadCrc(trailer.getLong(0), crc);
+    }
+
+    /**
+     * 直接映射快照文件时，检查文件大小，需要时再检查表内容的校验和(会读一遍整个文件)
+     */
+    void checkMapped(Path file, MappedTableStorage storage, boolean verifyPayload) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long expected = fileBytes(storage);
+            if (channel.size() != expected)
+                throw new IOException("Snapshot " + file + " has " + channel.size() + " bytes, expected " + expected);
+            if (!verifyPayload) {
+                return;
+            }
+            CRC32 crc = new CRC32();
+            for (ByteBuffer chunk : storage.chunks) {
+                crc.update(chunk.duplicate());
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (trailer.hasRemaining()) {
+                if (channel.read(trailer, expected - TRAILER_BYTES + trailer.position()) < 0)
+                    throw new EOFException("Snapshot " + file + " ends before its checksum");
+            }
+            checkPayloadCrc(trailer.getLong(0), crc);
+        }
+    }
+
+    private static void checkPayloadCrc(long expected, CRC32 crc) throws IOException {
+        if (expected != crc.getValue())
+            throw new IOException("Snapshot payload checksum mismatch");
+    }
+
+    // 暂存区的各项放在头部之后
+    private static long stashCrc(ByteBuffer buffer, int stashSize) {
+        CRC32 crc = new CRC32();
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.limit(HEADER_BYTES + stashSize * STASH_ENTRY_BYTES).position(HEADER_BYTES);
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    private static long align(long offset) {
+        return (offset + HEADER_BYTES - 1) & -HEADER_BYTES;
+    }
+
+    private static int headerCrc(ByteBuffer header) {
+        CRC32 crc = new CRC32();
+        ByteBuffer bytes = header.duplicate();
+        bytes.clear().limit(HEADER_CRC_OFFSET);
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private static void flush(ByteBuffer buffer, CRC32 crc, WritableByteChannel out) throws IOException {
+        buffer.flip();
+        crc.update(buffer.duplicate());
+        writeFully(out, buffer);
+        buffer.clear();
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static void readFully(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0)
+                throw new EOFException("Snapshot ends after " + buffer.position() + " of " + buffer.limit() + " bytes");
+        }
+    }
+}
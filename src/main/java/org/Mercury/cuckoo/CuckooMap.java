@@ -0,0 +1,408 @@
+package org.Mercury.cuckoo;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 在指纹旁边存一个小值(1到32位)的布谷鸟哈希表，桶的计算和{@link CuckooFilter}相同。
+ * 指纹和值放在两个桶数、槽位数相同的{@link ByteArrayTable}中，同一个桶同一个槽位是一项。
+ *
+ * 和过滤器一样只存指纹，不存key：两个key的指纹和桶相同时会互相覆盖，
+ * {@link #get}也可能以大约过滤器误判率的概率返回另一个key的值，只适合能容忍这种误差的场景(如缓存提示、路由表)。
+ * 同一个key只存一份，重复{@link #put}会覆盖旧值。
+ *
+ * 读先用乐观读，失败后才加读锁；写加两个桶所在段的写锁。两个桶都满了时和过滤器一样沿踢出路径逐项移动，
+ * 每次只锁两个桶(见{@link CuckooTables#insertWithPath})
+ */
+public class CuckooMap implements Closeable {
+    // get 找不到 key 时的返回值，值都是非负的
+    public static final long NOT_FOUND = -1;
+    public static final int DEFAULT_VALUE_BITS = 8;
+    public static final int MAX_VALUE_BITS = Integer.SIZE;
+
+    private final HashStrategy hashStrategy;
+    private final ByteArrayTable fingerprints;
+    private final ByteArrayTable values;
+    private final SegmentedBucketLocker locker;
+    private final MapSlots slots = new MapSlots();
+    private final int fingerprintMask;
+    private final int valueBits;
+    private final long valueMask;
+    private final long indexMask;
+    private final LongAdder size = new LongAdder();
+
+    private CuckooMap(Builder builder) {
+        int fingerprintSize = builder.fingerprintSize;
+        int slotsPerBucket = builder.slotsPerBucket;
+        CuckooTables.checkParameters(fingerprintSize, slotsPerBucket, builder.maxItems, builder.hashStrategy);
+        if(builder.valueBits <= 0 || builder.valueBits > MAX_VALUE_BITS)
+            throw new IllegalArgumentException("Value bits must be in [1," + MAX_VALUE_BITS + "], received " + builder.valueBits);
+        if(builder.valueBits * slotsPerBucket > ByteArrayTable.MAX_BITS_PER_BUCKET)
+            throw new IllegalArgumentException("Value bits cannot be greater than " + ByteArrayTable.MAX_BITS_PER_BUCKET / slotsPerBucket
+                    + " with " + slotsPerBucket + " slots per bucket, received " + builder.valueBits);
+
+        long tableSize = CuckooTables.tableSize(builder.maxItems, slotsPerBucket);
+
+        this.hashStrategy = builder.hashStrategy;
+        this.fingerprintMask = fingerprintSize < Integer.SIZE ? (1 << fingerprintSize) - 1 : 0xffffffff;
+        this.valueBits = builder.valueBits;
+        this.valueMask = valueBits < Integer.SIZE ? (1L << valueBits) - 1 : 0xffffffffL;
+        this.indexMask = tableSize - 1;
+        this.fingerprints = new ByteArrayTable(tableSize, slotsPerBucket, fingerprintSize);
+        this.values = new ByteArrayTable(tableSize, slotsPerBucket, valueBits);
+        this.locker = CuckooTables.locker(builder.expectedConcurrency, false, fingerprints, values);
+    }
+
+    public static Builder builder(long maxItems) {
+        return new Builder(maxItems);
+    }
+
+    /**
+     * 表的构建参数，未设置的参数使用默认值
+     */
+    public static final class Builder {
+        private final long maxItems;
+        private int fingerprintSize = CuckooFilter.DEFAULT_FINGERPRINT_SIZE;
+        private int valueBits = DEFAULT_VALUE_BITS;
+        private int slotsPerBucket = CuckooFilter.DEFAULT_SLOTS_PER_BUCKET;
+        private HashStrategy hashStrategy = CuckooFilter.DEFAULT_HASH_STRATEGY;
+        private int expectedConcurrency = CuckooFilter.DEFAULT_EXPECTED_CONCURRENCY;
+
+        private Builder(long maxItems) {
+            this.maxItems = maxItems;
+        }
+
+        public Builder fingerprintSize(int fingerprintSize) {
+            this.fingerprintSize = fingerprintSize;
+            return this;
+        }
+
+        /**
+         * 每个值的位数，值的范围是 [0, 2^valueBits)
+         */
+        public Builder valueBits(int valueBits) {
+            this.valueBits = valueBits;
+            return this;
+        }
+
+        public Builder slotsPerBucket(int slotsPerBucket) {
+            this.slotsPerBucket = slotsPerBucket;
+            return this;
+        }
+
+        public Builder hashStrategy(HashStrategy hashStrategy) {
+            this.hashStrategy = hashStrategy;
+            return this;
+        }
+
+        public Builder expectedConcurrency(int expectedConcurrency) {
+            this.expectedConcurrency = expectedConcurrency;
+            return this;
+        }
+
+        public CuckooMap build() {
+            return new CuckooMap(this);
+        }
+    }
+
+    /**
+     * 返回 key 对应的值，没有时返回{@link #NOT_FOUND}。指纹冲突时可能返回另一个key的值
+     */
+    public long get(Object key) {
+        long hash = hashKey(key);
+        long index = CuckooFilter.indexOf(hash, indexMask);
+        int fingerprint = CuckooFilter.fingerprintOf(hash, fingerprintMask);
+        long index2 = CuckooFilter.altIndex(fingerprint, index, indexMask);
+
+        long stamp1 = locker.tryOptimisticRead(index);
+        long stamp2 = locker.tryOptimisticRead(index2);
+        long value = lookup(fingerprint, index, index2);
+        if (locker.validate(index, stamp1) && locker.validate(index2, stamp2)) {
+            return value;
+        }
+        locker.lockBucketsRead(index, index2);
+        try {
+            return lookup(fingerprint, index, index2);
+        } finally {
+            locker.unlockBucketsRead(index, index2);
+        }
+    }
+
+    public boolean containsKey(Object key) {
+        return get(key) != NOT_FOUND;
+    }
+
+    /**
+     * 放入 key 和值，key 已经存在时覆盖旧值。表太满、找不到空位时返回{@code false}，表中已有的项都还在
+     */
+    public boolean put(Object key, long value) {
+        if(value < 0 || value > valueMask)
+            throw new IllegalArgumentException("Value must fit in " + valueBits + " bits, received " + value);
+        long hash = hashKey(key);
+        long index = CuckooFilter.indexOf(hash, indexMask);
+        int fingerprint = CuckooFilter.fingerprintOf(hash, fingerprintMask);
+        long index2 = CuckooFilter.altIndex(fingerprint, index, indexMask);
+
+        locker.lockBucketWrite(index, index2);
+        try {
+            if (putDirect(fingerprint, (int) value, index, index2)) {
+                return true;
+            }
+        } finally {
+            locker.unlockBucketsWrite(index, index2);
+        }
+
+        // 插入在两个桶的写锁内进行，别的线程可能已经放入了同一个 key 或者腾出了位置
+        return CuckooTables.insertWithPath(slots, locker, index, index2, () -> putDirect(fingerprint, (int) value, index, index2));
+    }
+
+    /**
+     * 删除 key，返回是否找到。指纹冲突时可能删掉另一个key
+     */
+    public boolean remove(Object key) {
+        long hash = hashKey(key);
+        long index = CuckooFilter.indexOf(hash, indexMask);
+        int fingerprint = CuckooFilter.fingerprintOf(hash, fingerprintMask);
+        long index2 = CuckooFilter.altIndex(fingerprint, index, indexMask);
+
+        locker.lockBucketWrite(index, index2);
+        try {
+            if (removeFrom(index, fingerprint) || removeFrom(index2, fingerprint)) {
+                size.decrement();
+                return true;
+            }
+            return false;
+        } finally {
+            locker.unlockBucketsWrite(index, index2);
+        }
+    }
+
+    public long size() {
+        return size.sum();
+    }
+
+    public int valueBits() {
+        return valueBits;
+    }
+
+    /**
+     * 表能放的项数(所有槽位)
+     */
+    public long capacity() {
+        return fingerprints.size() * fingerprints.slotsPerBucket();
+    }
+
+    @Override
+    public void close() {
+        fingerprints.storage().close();
+        values.storage().close();
+    }
+
+    private long hashKey(Object key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+        return KeyBuffer.hashObject(hashStrategy, key);
+    }
+
+    private long lookup(int fingerprint, long index, long index2) {
+        int slot = fingerprints.findSlot(index, fingerprint);
+        if (slot >= 0) {
+            return values.readTag(index, slot) & 0xffffffffL;
+        }
+        slot = fingerprints.findSlot(index2, fingerprint);
+        if (slot >= 0) {
+            return values.readTag(index2, slot) & 0xffffffffL;
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * 已有同样的指纹时覆盖它的值，否则放入一个空槽位。持有两个桶的写锁时调用
+     */
+    private boolean putDirect(int fingerprint, int value, long index, long index2) {
+        int slot = fingerprints.findSlot(index, fingerprint);
+        if (slot >= 0) {
+            values.writeTag(index, slot, value);
+            return true;
+        }
+        slot = fingerprints.findSlot(index2, fingerprint);
+        if (slot >= 0) {
+            values.writeTag(index2, slot, value);
+            return true;
+        }
+        return putEmpty(index, fingerprint, value) || putEmpty(index2, fingerprint, value);
+    }
+
+    private boolean putEmpty(long bucket, int fingerprint, int value) {
+        int slot = fingerprints.findEmptySlot(bucket);
+        if (slot < 0) {
+            return false;
+        }
+        // 先写值再写指纹，乐观读在写锁释放前都会失败，这里只是让无效的中间状态更少
+        values.writeTag(bucket, slot, value);
+        fingerprints.writeTag(bucket, slot, fingerprint);
+        size.increment();
+        return true;
+    }
+
+    /**
+     * 踢出时一项是同一个槽位的指纹和值，另一个桶由指纹算出
+     */
+    private final class MapSlots implements CuckooTables.Slots {
+        @Override
+        public int slotsPerBucket() {
+            return fingerprints.slotsPerBucket();
+        }
+
+        @Override
+        public long altBucket(long bucket, int slot) {
+            int fingerprint = fingerprints.readTag(bucket, slot);
+            return fingerprint == 0 ? -1 : CuckooFilter.altIndex(fingerprint, bucket, indexMask);
+        }
+
+        @Override
+        public int findEmptySlot(long bucket) {
+            return fingerprints.findEmptySlot(bucket);
+        }
+
+        @Override
+        public boolean move(long from, int fromSlot, long to, int toSlot) {
+            int fingerprint = fingerprints.readTag(from, fromSlot);
+            if (fingerprint == 0 || CuckooFilter.altIndex(fingerprint, from, indexMask) != to || fingerprints.readTag(to, toSlot) != 0) {
+                return false;
+            }
+            values.writeTag(to, toSlot, values.readTag(from, fromSlot));
+            fingerprints.writeTag(to, toSlot, fingerprint);
+            fingerprints.writeTag(from, fromSlot, 0);
+            values.writeTag(from, fromSlot, 0);
+            return true;
+        }
+    }
+
+    private boolean removeFrom(long bucket, int fingerprint) {
+        int slot = fingerprints.findSlot(bucket, fingerprint);
+        if (slot < 0) {
+            return false;
+        }
+        fingerprints.writeTag(bucket, slot, 0);
+        values.writeTag(bucket, slot, 0);
+        return true;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final int items = 100000;
+        CuckooMap map = CuckooMap.builder(items).valueBits(12).build();
+        System.out.println("PUT " + items + " ITEMS");
+        for (int i = 0; i < items; i++) {
+            if (!map.put(i, i & 0xfff)) {
+                System.out.println("ERROR, COULD NOT PUT " + i);
+                return;
+            }
+        }
+        int wrong = 0;
+        for (int i = 0; i < items; i++) {
+            if (map.get(i) != (i & 0xfff)) {
+                wrong++;
+            }
+        }
+        // 只有指纹和桶都相同的key会互相覆盖，16位指纹下很少
+        System.out.println(wrong + " WRONG VALUES, SIZE " + map.size());
+        if (wrong > items / 1000) {
+            System.out.println("ERROR, TOO MANY WRONG VALUES");
+            return;
+        }
+
+        System.out.println("OVERWRITE AND REMOVE");
+        long before = map.size();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, 4095 - (i & 0xfff));
+        }
+        if (map.size() != before || map.get(7) != 4088) {
+            System.out.println("ERROR, OVERWRITE CHANGED SIZE OR VALUE");
+            return;
+        }
+        for (int i = 0; i < 1000; i++) {
+            map.remove(i);
+        }
+        if (map.containsKey(500) || map.size() != before - 1000) {
+            System.out.println("ERROR, REMOVED KEY STILL FOUND");
+            return;
+        }
+        try {
+            map.put(-1, 4096);
+            System.out.println("ERROR, VALUE OUT OF RANGE ACCEPTED");
+            return;
+        } catch (IllegalArgumentException expected) {
+        }
+
+        System.out.println("FILL UNTIL FULL");
+        CuckooMap small = CuckooMap.builder(1 << 12).valueBits(16).build();
+        int put = 0;
+        while (small.put(put, put & 0xffff)) {
+            put++;
+        }
+        System.out.println(put + " OF " + small.capacity() + " SLOTS USED");
+        // 失败的踢出被撤销，之前放入的项都还在
+        int lost = 0;
+        for (int i = 0; i < put; i++) {
+            if (small.get(i) == NOT_FOUND) {
+                lost++;
+            }
+        }
+        if (lost > 0) {
+            System.out.println("ERROR, FAILED PUT LOST " + lost + " ITEMS");
+            return;
+        }
+        map.close();
+        small.close();
+        if (!testConcurrentPuts()) {
+            return;
+        }
+        System.out.println("EVERYTHING FINE!");
+    }
+
+    /**
+     * 多个线程同时放入、覆盖和读取。8位指纹和4位值让几个桶共用一个字，锁不对时修改会互相覆盖，丢掉 key；
+     * 负载约91%，后面的放入需要并发地沿路径踢出
+     */
+    private static boolean testConcurrentPuts() throws InterruptedException {
+        final int threads = 4;
+        final int keysPerThread = 30000;
+        final CuckooMap map = CuckooMap.builder(threads * keysPerThread).fingerprintSize(8).valueBits(4).build();
+        System.out.println("CONCURRENT PUT AND GET FROM " + threads + " THREADS");
+        final LongAdder failures = new LongAdder();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int base = t * keysPerThread;
+            workers[t] = new Thread(() -> {
+                for (int i = base; i < base + keysPerThread; i++) {
+                    if (!map.put(i, i & 0xf)) {
+                        failures.increment();
+                    }
+                    // 覆盖前面放入的 key，同时读其他线程正在写的桶
+                    if (i > base && !map.put(i - 1, (i - 1) & 0xf)) {
+                        failures.increment();
+                    }
+                    map.get(i + keysPerThread);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        int missing = 0;
+        for (int i = 0; i < threads * keysPerThread; i++) {
+            if (map.get(i) == NOT_FOUND) {
+                missing++;
+            }
+        }
+        map.close();
+        if (failures.sum() > 0 || missing > 0) {
+            System.out.println("ERROR, " + failures.sum() + " FAILED PUTS, " + missing + " KEYS MISSING AFTER CONCURRENT PUTS");
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,153 @@
+package org.Mercury.cuckoo;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+
+/**
+ * {@link CuckooFilter}、{@link CuckooMap}和{@link AdaptiveCuckooFilter}共用的表布局：参数检查、表的大小、锁的分组，
+ * 以及槽位中除了指纹还有其他内容(值、hash)的表在加锁模式下的路径踢出
+ */
+final class CuckooTables {
+    // 一条随机游走路径最多踢出的次数
+    static final int MAX_KICKS = 500;
+    // 路径被并发修改时重新查找的次数
+    static final int MAX_PATH_ATTEMPTS = 8;
+
+    private static final ThreadLocal<EvictionPath> PATHS = new ThreadLocal<EvictionPath>() {
+        @Override
+        protected EvictionPath initialValue() {
+            return new EvictionPath(MAX_KICKS + 1);
+        }
+    };
+
+    private CuckooTables() {
+    }
+
+    static void checkParameters(int fingerprintSize, int slotsPerBucket, long maxItems, HashStrategy hashStrategy) {
+        if(fingerprintSize <= 0)
+            throw new IllegalArgumentException("Fingerprint size must be a positive number, received " + fingerprintSize);
+        if(fingerprintSize > Integer.SIZE)
+            throw new IllegalArgumentException("Fingerprint size cannot be greater than " + Integer.SIZE  +" , received " + fingerprintSize);
+        if(slotsPerBucket != 2 && slotsPerBucket != 4 && slotsPerBucket != 8)
+            throw new IllegalArgumentException("Slots per bucket must be 2, 4 or 8, received " + slotsPerBucket);
+        if(fingerprintSize * slotsPerBucket > ByteArrayTable.MAX_BITS_PER_BUCKET)
+            throw new IllegalArgumentException("Fingerprint size cannot be greater than " + ByteArrayTable.MAX_BITS_PER_BUCKET / slotsPerBucket
+                    + " with " + slotsPerBucket + " slots per bucket, received " + fingerprintSize);
+        if(maxItems <= 0)
+            throw new IllegalArgumentException("Max items must be a positive number, received " + maxItems);
+        if(hashStrategy == null)
+            throw new IllegalArgumentException("Hash strategy cannot be null");
+    }
+
+    /**
+     * 表大小(桶数)必须是2的幂，并且所有槽位数大于最大项数；没有足够的“剩余空间”(负载超过96%)时加倍
+     */
+    static long tableSize(long maxItems, int slotsPerBucket) {
+        long tableSize = 1;
+        while (tableSize * slotsPerBucket < maxItems) {
+            tableSize <<= 1;
+        }
+        if (maxItems * 1.0D / (tableSize * slotsPerBucket) > 0.96) {
+            tableSize <<= 1;
+        }
+        return tableSize;
+    }
+
+    /**
+     * 几张表按同样的桶号并排存放时，任何一张表中共用一个字的桶都要落在同一段，所以按最大的{@link ByteArrayTable#lockGroupShift()}分组
+     */
+    static SegmentedBucketLocker locker(int expectedConcurrency, boolean timed, ByteArrayTable... tables) {
+        int groupShift = 0;
+        for (ByteArrayTable table : tables) {
+            groupShift = Math.max(groupShift, table.lockGroupShift());
+        }
+        return new SegmentedBucketLocker(expectedConcurrency, groupShift, timed);
+    }
+
+    /**
+     * 路径踢出需要的槽位操作。一项由几张表中同一个桶同一个槽位的内容组成(指纹和值、指纹和选择子和hash)
+     */
+    interface Slots {
+        int slotsPerBucket();
+
+        /**
+         * bucket 的 slot 中的项的另一个桶，槽位为空时返回-1。不加锁调用，读到的内容可能已经过时
+         */
+        long altBucket(long bucket, int slot);
+
+        int findEmptySlot(long bucket);
+
+        /**
+         * 持有 from 和 to 两个桶的写锁时调用。fromSlot 中的项的另一个桶还是 to、toSlot 还是空的时，
+         * 先复制到 toSlot 再清除 fromSlot(移动期间两个位置都能找到这一项)，返回{@code true}；否则不做修改，返回{@code false}
+         */
+        boolean move(long from, int fromSlot, long to, int toSlot);
+    }
+
+    /**
+     * 两个桶都满了时调用，和{@link CuckooFilter}一样不锁整个表：不加锁地找出一条随机游走路径，
+     * 从末端往回每次在两个桶的写锁内移动一项，腾出 index 或 index2 中的一个槽位后，在这两个桶的写锁内调用 insert。
+     * 路径被并发修改或者 insert 返回{@code false}(腾出的槽位又被占了)时重新查找。
+     * 找不到路径时返回{@code false}，已经完成的移动仍然有效，表中已有的项都还在
+     */
+    static boolean insertWithPath(Slots slots, SegmentedBucketLocker locker, long index, long index2, BooleanSupplier insert) {
+        EvictionPath path = PATHS.get();
+        for (int attempt = 0; attempt < MAX_PATH_ATTEMPTS; attempt++) {
+            if (!findPath(slots, path, index, index2)) {
+                return false;
+            }
+            if (!applyPath(slots, locker, path)) {
+                continue;
+            }
+            locker.lockBucketWrite(index, index2);
+            try {
+                if (insert.getAsBoolean()) {
+                    return true;
+                }
+            } finally {
+                locker.unlockBucketsWrite(index, index2);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 随机游走：每一步随机选一个槽位，看它的项在另一个桶中是否有空位。路径的 tags 不使用，移动时重新检查槽位中的项
+     */
+    private static boolean findPath(Slots slots, EvictionPath path, long index, long index2) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        path.clear();
+        long bucket = random.nextBoolean() ? index : index2;
+        while (path.length < MAX_KICKS) {
+            int slot = random.nextInt(slots.slotsPerBucket());
+            path.add(bucket, slot, 0);
+            long alt = slots.altBucket(bucket, slot);
+            if (alt < 0) { // 槽位已经被并发的删除腾空了
+                return true;
+            }
+            int empty = slots.findEmptySlot(alt);
+            if (empty >= 0) {
+                path.add(alt, empty, 0);
+                return true;
+            }
+            bucket = alt;
+        }
+        return false;
+    }
+
+    private static boolean applyPath(Slots slots, SegmentedBucketLocker locker, EvictionPath path) {
+        for (int k = path.length - 2; k >= 0; k--) {
+            long from = path.buckets[k];
+            long to = path.buckets[k + 1];
+            locker.lockBucketWrite(from, to);
+            try {
+                if (!slots.move(from, path.slots[k], to, path.slots[k + 1])) {
+                    return false;
+                }
+            } finally {
+                locker.unlockBucketsWrite(from, to);
+            }
+        }
+        return true;
+    }
+}
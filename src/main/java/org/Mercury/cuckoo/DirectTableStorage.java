@@ -0,0 +1,22 @@
+package org.Mercury.cuckoo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 堆外存储，由直接内存中的 ByteBuffer 组成，不占用GC堆。
+ * 受 -XX:MaxDirectMemorySize 限制，内存在 ByteBuffer 被回收时释放
+ */
+final class DirectTableStorage extends ByteBufferTableStorage {
+
+    DirectTableStorage(long size) {
+        super(size);
+        for (int i = 0; i < chunks.length; i++) {
+            setChunk(i, ByteBuffer.allocateDirect(chunkWords(i) << 3));
+        }
+    }
+
+    @Override
+    public void close() {
+        chunks = null;
+    }
+}
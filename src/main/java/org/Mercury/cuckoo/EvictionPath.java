@@ -0,0 +1,35 @@
+package org.Mercury.cuckoo;
+
+/**
+ * 插入时的踢出路径。
+ * 第k项记录桶 buckets[k] 的槽位 slots[k] 中的指纹 tags[k]，它要被移动到第k+1项的位置；
+ * 最后一项是一个空槽位(tag为0)。{@link CuckooTables}的路径不记录 tags，移动时重新检查槽位中的项。
+ * 移动时从路径末端往回逐步进行，这样每一步只需要锁住两个桶，而且被移动的指纹在任何时刻都能被找到。
+ */
+final class EvictionPath {
+    final long[] buckets;
+    final int[] slots;
+    final int[] tags;
+    int length = 0;
+
+    EvictionPath(int capacity) {
+        buckets = new long[capacity];
+        slots = new int[capacity];
+        tags = new int[capacity];
+    }
+
+    void clear() {
+        length = 0;
+    }
+
+    boolean isFull() {
+        return length == buckets.length;
+    }
+
+    void add(long bucket, int slot, int tag) {
+        buckets[length] = bucket;
+        slots[length] = slot;
+        tags[length] = tag;
+        length++;
+    }
+}
@@ -0,0 +1,58 @@
+package org.Mercury.cuckoo;
+
+/**
+ * 广度优先查找踢出路径时的队列。
+ * 第i个节点表示桶 buckets[i]，它是从父节点 parents[i] 的桶中把槽位 slots[i] 的指纹 tags[i] 踢出后到达的；
+ * 两个候选桶是根节点，父节点为-1。队列从不出队，节点保留到查找结束，用来从找到的节点回溯出整条路径。
+ */
+final class EvictionQueue {
+    final long[] buckets;
+    final int[] parents;
+    final int[] slots;
+    final int[] tags;
+    final int[] depths;
+    int size = 0;
+    // 回溯路径时暂存的节点
+    private final int[] chain;
+
+    EvictionQueue(int capacity, int maxDepth) {
+        buckets = new long[capacity];
+        parents = new int[capacity];
+        slots = new int[capacity];
+        tags = new int[capacity];
+        depths = new int[capacity];
+        chain = new int[maxDepth + 1];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    boolean isFull() {
+        return size == buckets.length;
+    }
+
+    void add(long bucket, int parent, int slot, int tag) {
+        buckets[size] = bucket;
+        parents[size] = parent;
+        slots[size] = slot;
+        tags[size] = tag;
+        depths[size] = parent < 0 ? 0 : depths[parent] + 1;
+        size++;
+    }
+
+    /**
+     * 把从根节点到 node 的所有踢出依次放入 path
+     */
+    void toPath(int node, EvictionPath path) {
+        int length = 0;
+        for (int n = node; n >= 0; n = parents[n]) {
+            chain[length++] = n;
+        }
+        path.clear();
+        for (int k = length - 1; k > 0; k--) {
+            int child = chain[k - 1];
+            path.add(buckets[chain[k]], slots[child], tags[child]);
+        }
+    }
+}
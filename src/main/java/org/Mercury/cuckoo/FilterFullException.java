@@ -0,0 +1,33 @@
+package org.Mercury.cuckoo;
+
+/**
+ * 合并过滤器时目标过滤器放不下所有指纹。放得下的指纹已经合并进去了，放不下的被丢弃，
+ * 所以目标过滤器中是部分的并集，对没合并进去的元素可能有假阴性。
+ * 并行构建({@link CuckooFilter.Builder#buildFrom(java.util.stream.LongStream)})放不下所有 key 时也抛出这个异常，过滤器已被关闭
+ */
+public class FilterFullException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    private final long merged;
+    private final long failed;
+
+    public FilterFullException(long merged, long failed) {
+        super("Filter is full, merged " + merged + " fingerprints but " + failed + " did not fit");
+        this.merged = merged;
+        this.failed = failed;
+    }
+
+    /**
+     * 合并进去的指纹数
+     */
+    public long merged() {
+        return merged;
+    }
+
+    /**
+     * 没能放入的指纹数
+     */
+    public long failed() {
+        return failed;
+    }
+}
@@ -0,0 +1,61 @@
+package org.Mercury.cuckoo;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 过滤器的计数器。项数总是统计；踢出直方图按 sampleEvery 采样，0表示不统计
+ */
+final class FilterMetrics {
+    // 踢出次数最多 MAX_TRIES_WHEN_ADDING(500)，落在第9项 [256,512)
+    static final int KICK_BUCKETS = 10;
+
+    final int sampleEvery;
+    final LongAdder items = new LongAdder();
+    final LongAdder stashedAdds = new LongAdder();
+    final LongAdder failedAdds = new LongAdder();
+    private final LongAdder[] kicks = new LongAdder[KICK_BUCKETS];
+
+    FilterMetrics(int sampleEvery) {
+        this.sampleEvery = sampleEvery;
+        for (int i = 0; i < kicks.length; i++) {
+            kicks[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * 记录一次成功的添加和它的踢出次数
+     */
+    void recordKicks(int count) {
+        if (sampled()) {
+            kicks[Math.min(KICK_BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(count))].increment();
+        }
+    }
+
+    /**
+     * 记录 n 次不需要踢出的添加，批量添加使用
+     */
+    void recordDirect(int n) {
+        if (sampleEvery == 1) {
+            kicks[0].add(n);
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            if (sampled()) {
+                kicks[0].increment();
+            }
+        }
+    }
+
+    long[] kickHistogram() {
+        long[] histogram = new long[KICK_BUCKETS];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = kicks[i].sum();
+        }
+        return histogram;
+    }
+
+    private boolean sampled() {
+        return sampleEvery == 1 || (sampleEvery > 1 && ThreadLocalRandom.current().nextInt(sampleEvery) == 0);
+    }
+}
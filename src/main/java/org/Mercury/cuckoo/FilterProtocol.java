@@ -0,0 +1,67 @@
+package org.Mercury.cuckoo;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link CuckooFilterServer}和{@link CuckooFilterClient}之间的二进制协议，所有整数都是大端序。
+ *
+ * 请求帧：int 帧长(不含这4个字节) | byte 操作 | byte key类型 | short 名字长度 | 过滤器名字(UTF-8) | int key数 | keys
+ * key类型是 LONG 时每个 key 8个字节，和{@link CuckooFilter#add(long)}相同；
+ * 是 BYTES 时每个 key 是 int 长度加上字节，和{@link CuckooFilter#add(byte[])}相同。
+ *
+ * 响应帧：int 帧长 | byte 状态 | 状态是 OK 时：int key数 | 结果位图(第i个结果在第 i/8 个字节的第 i%8 位)；
+ * 状态是 ERROR 时：错误信息(UTF-8)。
+ *
+ * 一个连接上可以连续发送多个请求而不等待响应(pipelining)，服务端按请求的顺序返回响应，所以帧中不需要请求编号
+ */
+final class FilterProtocol {
+    static final byte OP_ADD = 1;
+    static final byte OP_CONTAINS = 2;
+    static final byte OP_DELETE = 3;
+
+    static final byte KEY_LONG = 1;
+    static final byte KEY_BYTES = 2;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+
+    // 帧的最大长度，超过时服务端关闭连接
+    static final int MAX_FRAME = 1 << 24;
+    static final int MAX_NAME = Short.MAX_VALUE;
+
+    private FilterProtocol() {
+    }
+
+    static byte[] encodeName(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Filter name cannot be null");
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_NAME) {
+            throw new IllegalArgumentException("Filter name cannot be longer than " + MAX_NAME + " bytes, received " + bytes.length);
+        }
+        return bytes;
+    }
+
+    /**
+     * 返回至少能再写入 extra 个字节的缓冲区，容量不够时翻倍，已写入的内容会被复制过去
+     */
+    static ByteBuffer ensure(ByteBuffer buffer, int extra) {
+        if (buffer.remaining() >= extra) {
+            return buffer;
+        }
+        int needed = buffer.position() + extra;
+        if (needed < 0) {
+            throw new IllegalArgumentException("Frame is too large, " + buffer.position() + " + " + extra + " bytes");
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, buffer.capacity() * 2));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    static int bitmapBytes(int count) {
+        return (count + 7) >>> 3;
+    }
+}
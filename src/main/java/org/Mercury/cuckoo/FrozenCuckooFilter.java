@@ -0,0 +1,392 @@
+package org.Mercury.cuckoo;
+
+import com.google.common.hash.Funnel;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.Mercury.cuckoo.ByteBufferTableStorage.CHUNK_SHIFT;
+import static org.Mercury.cuckoo.ByteBufferTableStorage.CHUNK_WORDS;
+
+/**
+ * 不可变的只读过滤器，由{@link CuckooFilter#freeze()}得到，查找结果和冻结时的过滤器完全相同。
+ *
+ * 构建之后不再修改，所以查找不加锁、不做乐观读检查；冻结时暂存区为空(通常如此)的话也不查暂存区。
+ * 所有字段都是 final 的，按 Java 内存模型对 final 字段的保证，构造完成后通过任何方式(包括普通字段的数据竞争)
+ * 交给其他线程都能看到完整的内容，任意多个线程可以同时查找。
+ *
+ * 表的布局和{@link ByteArrayTable}相同(半排序的桶在冻结时解开)，放在按缓存行对齐的直接内存中，
+ * 每个桶(最多16字节)只落在一个缓存行里，查找一个桶最多一次缓存未命中。对齐需要 JDK 17 及以上，见{@link AlignedBuffers}
+ */
+public final class FrozenCuckooFilter {
+    private static final long CHUNK_MASK = CHUNK_WORDS - 1;
+
+    private final HashStrategy hashStrategy;
+    // 每块最多 2^CHUNK_SHIFT 个字，同{@link ByteBufferTableStorage}
+    private final LongBuffer[] chunks;
+    private final long buckets;
+    private final long indexMask;
+    private final int slotsPerBucket;
+    private final int fingerprintSize;
+    private final int fingerprintMask;
+    private final int wordsPerBucket;
+    private final int bucketBits;
+    private final int bucketsPerWordShift;
+    private final long bucketsPerWordMask;
+    private final long laneLow;
+    private final long laneHigh;
+    private final long itemCount;
+    // 冻结时暂存区中的指纹，通常为空
+    private final long[] stashIndexes;
+    private final int[] stashFingerprints;
+
+    /**
+     * 复制表的内容，调用方保证复制期间表不被修改
+     */
+    FrozenCuckooFilter(ByteArrayTable table, int fingerprintSize, HashStrategy hashStrategy, long itemCount,
+                       long[] stashIndexes, int[] stashFingerprints) {
+        this.hashStrategy = hashStrategy;
+        this.buckets = table.size();
+        this.indexMask = buckets - 1;
+        this.slotsPerBucket = table.slotsPerBucket();
+        this.fingerprintSize = fingerprintSize;
+        this.fingerprintMask = fingerprintSize < Integer.SIZE ? (1 << fingerprintSize) - 1 : 0xffffffff;
+        this.itemCount = itemCount;
+        this.stashIndexes = stashIndexes;
+        this.stashFingerprints = stashFingerprints;
+
+        // 和{@link ByteArrayTable}相同的布局
+        this.wordsPerBucket = slotsPerBucket * fingerprintSize <= Long.SIZE ? 1 : 2;
+        int slotsPerWord = (slotsPerBucket + wordsPerBucket - 1) / wordsPerBucket;
+        this.bucketBits = slotsPerWord * fingerprintSize;
+        this.bucketsPerWordShift = wordsPerBucket == 1 ? 31 - Integer.numberOfLeadingZeros(Long.SIZE / bucketBits) : 0;
+        this.bucketsPerWordMask = (1L << bucketsPerWordShift) - 1;
+        long low = 0;
+        for (int i = 0; i < slotsPerWord; i++) {
+            low |= 1L << (i * fingerprintSize);
+        }
+        this.laneLow = low;
+        this.laneHigh = low << (fingerprintSize - 1);
+
+        long words = ((buckets + bucketsPerWordMask) >>> bucketsPerWordShift) * wordsPerBucket;
+        this.chunks = new LongBuffer[(int) ((words + CHUNK_WORDS - 1) >>> CHUNK_SHIFT)];
+        for (int i = 0; i < chunks.length; i++) {
+            int chunkWords = (int) Math.min(CHUNK_WORDS, words - ((long) i << CHUNK_SHIFT));
+            chunks[i] = AlignedBuffers.allocate(chunkWords << 3).asLongBuffer();
+        }
+
+        if (table.getClass() == ByteArrayTable.class) {
+            // 布局相同，直接复制字
+            TableStorage storage = table.storage();
+            for (long w = 0; w < words; w++) {
+                chunks[(int) (w >>> CHUNK_SHIFT)].put((int) (w & CHUNK_MASK), storage.get(w));
+            }
+        } else {
+            long tagMask = (1L << fingerprintSize) - 1;
+            for (long bucket = 0; bucket < buckets; bucket++) {
+                long first = (bucket >>> bucketsPerWordShift) * wordsPerBucket;
+                int bucketShift = (int) (bucket & bucketsPerWordMask) * bucketBits;
+                for (int slot = 0; slot < slotsPerBucket; slot++) {
+                    long tag = table.readTag(bucket, slot) & tagMask;
+                    if (tag != 0) {
+                        long w = first + slot / slotsPerWord;
+                        LongBuffer chunk = chunks[(int) (w >>> CHUNK_SHIFT)];
+                        int i = (int) (w & CHUNK_MASK);
+                        chunk.put(i, chunk.get(i) | tag << (bucketShift + (slot % slotsPerWord) * fingerprintSize));
+                    }
+                }
+            }
+        }
+    }
+
+    public boolean contains(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Cannot use a null object");
+        }
+        return containsHash(KeyBuffer.hashObject(hashStrategy, o));
+    }
+
+    /*
+     * 以下几个方法的hash和{@link CuckooFilter}中的同名方法相同
+     */
+
+    public boolean contains(long key) {
+        return containsHash(hashStrategy.hashLong(key));
+    }
+
+    public boolean contains(int key) {
+        return containsHash(hashStrategy.hashInt(key));
+    }
+
+    public boolean contains(byte[] key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+        return containsHash(hashStrategy.hashBytes(key, 0, key.length));
+    }
+
+    public boolean contains(byte[] key, int offset, int length) {
+        return containsHash(hashStrategy.hashBytes(key, offset, length));
+    }
+
+    public boolean contains(ByteBuffer key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+        return containsHash(KeyBuffer.hash(hashStrategy, key));
+    }
+
+    public boolean contains(CharSequence key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+        return containsHash(KeyBuffer.hash(hashStrategy, key));
+    }
+
+    public <T> boolean contains(T key, Funnel<? super T> funnel) {
+        if (key == null || funnel == null) {
+            throw new IllegalArgumentException("Key and funnel cannot be null");
+        }
+        KeyBuffer buffer = KeyBuffer.get();
+        funnel.funnel(key, buffer);
+        return containsHash(buffer.hash(hashStrategy));
+    }
+
+    public boolean[] containsAll(long[] keys) {
+        if (keys == null) {
+            throw new IllegalArgumentException("Keys cannot be null");
+        }
+        boolean[] results = new boolean[keys.length];
+        containsAll(keys, results);
+        return results;
+    }
+
+    /**
+     * results[i] 表示 keys[i] 是否可能在过滤器中，和{@link CuckooFilter#containsAll(long[], boolean[])}一致
+     */
+    public void containsAll(long[] keys, boolean[] results) {
+        if (keys == null || results == null) {
+            throw new IllegalArgumentException("Keys and results cannot be null");
+        }
+        if (results.length < keys.length) {
+            throw new IllegalArgumentException("Results has " + results.length + " entries, but there are " + keys.length + " keys");
+        }
+        for (int i = 0; i < keys.length; i++) {
+            results[i] = containsHash(hashStrategy.hashLong(keys[i]));
+        }
+    }
+
+    private boolean containsHash(long hash) {
+        long index = CuckooFilter.indexOf(hash, indexMask);
+        int fingerprint = CuckooFilter.fingerprintOf(hash, fingerprintMask);
+        long index2 = CuckooFilter.altIndex(fingerprint, index, indexMask);
+        long pattern = (fingerprint & 0xffffffffL) * laneLow;
+        return findTag(index, pattern) || findTag(index2, pattern)
+                || (stashFingerprints.length != 0 && stashContains(fingerprint, index, index2));
+    }
+
+    /**
+     * 桶中是否有槽位等于广播后的指纹 pattern，每个字一次 SWAR 比较
+     */
+    private boolean findTag(long bucket, long pattern) {
+        long w = (bucket >>> bucketsPerWordShift) * wordsPerBucket;
+        int shift = (int) (bucket & bucketsPerWordMask) * bucketBits;
+        if (ByteUtil.hasZeroLane((word(w) >>> shift) ^ pattern, laneLow, laneHigh)) {
+            return true;
+        }
+        return wordsPerBucket == 2 && ByteUtil.hasZeroLane(word(w + 1) ^ pattern, laneLow, laneHigh);
+    }
+
+    private long word(long w) {
+        return chunks[(int) (w >>> CHUNK_SHIFT)].get((int) (w & CHUNK_MASK));
+    }
+
+    private boolean stashContains(int fingerprint, long index, long index2) {
+        for (int i = 0; i < stashFingerprints.length; i++) {
+            if (stashFingerprints[i] == fingerprint && (stashIndexes[i] == index || stashIndexes[i] == index2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 冻结时的项数
+     */
+    public long itemCount() {
+        return itemCount;
+    }
+
+    public long capacity() {
+        return buckets * slotsPerBucket;
+    }
+
+    public long buckets() {
+        return buckets;
+    }
+
+    public int fingerprintSize() {
+        return fingerprintSize;
+    }
+
+    public HashStrategy hashStrategy() {
+        return hashStrategy;
+    }
+
+    /**
+     * 表占用的直接内存字节数
+     */
+    public long sizeInBytes() {
+        long bytes = 0;
+        for (LongBuffer chunk : chunks) {
+            bytes += (long) chunk.capacity() << 3;
+        }
+        return bytes;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("CACHE-LINE ALIGNED: " + AlignedBuffers.aligned());
+        for (ConcurrencyMode mode : ConcurrencyMode.values()) {
+            for (int fingerprintSize : new int[]{8, 12, 16, 32}) {
+                if (!testFreeze(CuckooFilter.builder(1 << 16).fingerprintSize(fingerprintSize).concurrencyMode(mode), "" + mode + ", " + fingerprintSize + " BITS")) {
+                    return;
+                }
+            }
+        }
+        if (!testFreeze(CuckooFilter.builder(1 << 16).fingerprintSize(12).semiSortedBuckets(true), "SEMI-SORTED")) {
+            return;
+        }
+        if (!testFreeze(CuckooFilter.builder(1 << 16).fingerprintSize(8).slotsPerBucket(8), "8 SLOTS")) {
+            return;
+        }
+        if (!testStash() || !testConcurrentReaders()) {
+            return;
+        }
+        System.out.println("EVERYTHING FINE!");
+    }
+
+    /**
+     * 冻结后的过滤器和原过滤器对成员和非成员的回答完全相同，冻结后再修改原过滤器不影响它
+     */
+    private static boolean testFreeze(CuckooFilter.Builder builder, String name) {
+        CuckooFilter filter = builder.build();
+        int members = (int) (filter.buckets() * 4 * 0.9);
+        for (long key = 0; key < members; key++) {
+            if (!filter.add(key)) {
+                System.out.println("ERROR, " + name + ": COULD NOT ADD " + key);
+                return false;
+            }
+        }
+        FrozenCuckooFilter frozen = filter.freeze();
+        for (long key = 0; key < members; key++) {
+            if (!frozen.contains(key)) {
+                System.out.println("ERROR, " + name + ": FALSE NEGATIVE FOR " + key);
+                return false;
+            }
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < 1 << 18; i++) {
+            long key = -1L - random.nextInt(Integer.MAX_VALUE);
+            if (frozen.contains(key) != filter.contains(key)) {
+                System.out.println("ERROR, " + name + ": FROZEN AND MUTABLE FILTERS DISAGREE ON " + key);
+                return false;
+            }
+        }
+        for (long key = 0; key < members; key += 2) {
+            filter.delete(key);
+        }
+        for (long key = 0; key < members; key++) {
+            if (!frozen.contains(key)) {
+                System.out.println("ERROR, " + name + ": DELETING FROM THE MUTABLE FILTER CHANGED THE FROZEN ONE");
+                return false;
+            }
+        }
+        if (frozen.itemCount() != members || frozen.buckets() != filter.buckets()) {
+            System.out.println("ERROR, " + name + ": " + frozen.itemCount() + " ITEMS IN " + frozen.buckets() + " BUCKETS");
+            return false;
+        }
+        filter.close();
+        return true;
+    }
+
+    /**
+     * 冻结时在暂存区中的指纹仍然能被找到
+     */
+    private static boolean testStash() {
+        CuckooFilter filter = CuckooFilter.builder(64).fingerprintSize(16).stashSize(8).build();
+        int added = 0;
+        while (filter.add((long) added)) {
+            added++;
+        }
+        if (filter.stashOccupancy() == 0) {
+            System.out.println("ERROR, NOTHING WAS STASHED");
+            return false;
+        }
+        FrozenCuckooFilter frozen = filter.freeze();
+        for (long key = 0; key < added; key++) {
+            if (!frozen.contains(key)) {
+                System.out.println("ERROR, FALSE NEGATIVE FOR STASHED KEY " + key);
+                return false;
+            }
+        }
+        filter.close();
+        return true;
+    }
+
+    /**
+     * 多个线程通过普通字段读取同一个冻结的过滤器
+     */
+    private static boolean testConcurrentReaders() throws InterruptedException {
+        CuckooFilter filter = CuckooFilter.builder(1 << 18).build();
+        final int members = 1 << 17;
+        for (long key = 0; key < members; key++) {
+            filter.add(key);
+        }
+        // 通过 AtomicReference 发布，读线程每次循环都重新读取，不会把读取提到循环外面
+        final AtomicReference<FrozenCuckooFilter> published = new AtomicReference<FrozenCuckooFilter>();
+        final AtomicInteger errors = new AtomicInteger();
+        final AtomicLong checked = new AtomicLong();
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread(() -> {
+                FrozenCuckooFilter frozen;
+                while ((frozen = published.get()) == null) {
+                    Thread.yield();
+                }
+                for (long key = 0; key < members; key++) {
+                    if (!frozen.contains(key)) {
+                        errors.incrementAndGet();
+                    }
+                }
+                checked.addAndGet(members);
+            });
+            // 卡住的读线程不会阻止 JVM 退出
+            readers[t].setDaemon(true);
+            readers[t].start();
+        }
+        published.set(filter.freeze());
+        boolean hung = false;
+        for (Thread reader : readers) {
+            reader.join(60_000);
+            hung |= reader.isAlive();
+        }
+        filter.close();
+        if (hung) {
+            System.out.println("ERROR, A CONCURRENT READER DID NOT FINISH WITHIN 60 SECONDS");
+            return false;
+        }
+        if (checked.get() != (long) members * readers.length) {
+            System.out.println("ERROR, READERS CHECKED " + checked.get() + " OF " + (long) members * readers.length + " KEYS");
+            return false;
+        }
+        if (errors.get() != 0) {
+            System.out.println("ERROR, " + errors.get() + " FALSE NEGATIVES FROM CONCURRENT READERS");
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,295 @@
+package org.Mercury.cuckoo;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 内置的hash策略。编号会被记录到持久化的过滤器中，不能修改已有的编号。
+ */
+public enum HashStrategies implements HashStrategy {
+
+    /**
+     * MurmurHash3 x64 128位版本(seed为0)，取前64位，与Guava的{@code Hashing.murmur3_128().asLong()}一致
+     */
+    MURMUR3_128(1) {
+        private static final long C1 = 0x87c37b91114253d5L;
+        private static final long C2 = 0x4cf5ad432745937fL;
+
+        @Override
+        public long hashBytes(byte[] bytes, int offset, int length) {
+            checkRange(bytes, offset, length);
+            long h1 = 0;
+            long h2 = 0;
+            int pos = offset;
+            int end = offset + (length & ~15);
+            for (; pos < end; pos += 16) {
+                long k1 = ByteUtil.getLongLE(bytes, pos);
+                long k2 = ByteUtil.getLongLE(bytes, pos + 8);
+                h1 ^= mixK1(k1);
+                h1 = Long.rotateLeft(h1, 27);
+                h1 += h2;
+                h1 = h1 * 5 + 0x52dce729;
+                h2 ^= mixK2(k2);
+                h2 = Long.rotateLeft(h2, 31);
+                h2 += h1;
+                h2 = h2 * 5 + 0x38495ab5;
+            }
+
+            // 剩余不足16个字节
+            long k1 = 0;
+            long k2 = 0;
+            int rest = length & 15;
+            for (int i = rest - 1; i >= 8; i--) {
+                k2 = (k2 << 8) | (bytes[pos + i] & 0xffL);
+            }
+            for (int i = Math.min(rest, 8) - 1; i >= 0; i--) {
+                k1 = (k1 << 8) | (bytes[pos + i] & 0xffL);
+            }
+            if (rest > 8) {
+                h2 ^= mixK2(k2);
+            }
+            if (rest > 0) {
+                h1 ^= mixK1(k1);
+            }
+            return finish(h1, h2, length);
+        }
+
+        @Override
+        public long hashInt(int value) {
+            return finish(mixK1(value & 0xffffffffL), 0, 4);
+        }
+
+        @Override
+        public long hashLong(long value) {
+            return finish(mixK1(value), 0, 8);
+        }
+
+        private long mixK1(long k1) {
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            return k1 * C2;
+        }
+
+        private long mixK2(long k2) {
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            return k2 * C1;
+        }
+
+        private long finish(long h1, long h2, int length) {
+            h1 ^= length;
+            h2 ^= length;
+            h1 += h2;
+            h2 += h1;
+            h1 = fmix64(h1);
+            h2 = fmix64(h2);
+            h1 += h2;
+            return h1;
+        }
+
+        private long fmix64(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+    },
+
+    /**
+     * xxHash64(seed为0)
+     */
+    XXHASH_64(2) {
+        private static final long P1 = 0x9E3779B185EBCA87L;
+        private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+        private static final long P3 = 0x165667B19E3779F9L;
+        private static final long P4 = 0x85EBCA77C2B2AE63L;
+        private static final long P5 = 0x27D4EB2F165667C5L;
+
+        @Override
+        public long hashBytes(byte[] bytes, int offset, int length) {
+            checkRange(bytes, offset, length);
+            int pos = offset;
+            int end = offset + length;
+            long h;
+            if (length >= 32) {
+                long v1 = P1 + P2;
+                long v2 = P2;
+                long v3 = 0;
+                long v4 = -P1;
+                int limit = end - 32;
+                do {
+                    v1 = round(v1, ByteUtil.getLongLE(bytes, pos));
+                    v2 = round(v2, ByteUtil.getLongLE(bytes, pos + 8));
+                    v3 = round(v3, ByteUtil.getLongLE(bytes, pos + 16));
+                    v4 = round(v4, ByteUtil.getLongLE(bytes, pos + 24));
+                    pos += 32;
+                } while (pos <= limit);
+                h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                h = mergeRound(h, v1);
+                h = mergeRound(h, v2);
+                h = mergeRound(h, v3);
+                h = mergeRound(h, v4);
+            } else {
+                h = P5;
+            }
+            h += length;
+
+            for (; pos + 8 <= end; pos += 8) {
+                h ^= round(0, ByteUtil.getLongLE(bytes, pos));
+                h = Long.rotateLeft(h, 27) * P1 + P4;
+            }
+            if (pos + 4 <= end) {
+                h ^= (ByteUtil.getIntLE(bytes, pos) & 0xffffffffL) * P1;
+                h = Long.rotateLeft(h, 23) * P2 + P3;
+                pos += 4;
+            }
+            for (; pos < end; pos++) {
+                h ^= (bytes[pos] & 0xffL) * P5;
+                h = Long.rotateLeft(h, 11) * P1;
+            }
+            return avalanche(h);
+        }
+
+        @Override
+        public long hashInt(int value) {
+            long h = P5 + 4;
+            h ^= (value & 0xffffffffL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            return avalanche(h);
+        }
+
+        @Override
+        public long hashLong(long value) {
+            long h = P5 + 8;
+            h ^= round(0, value);
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+            return avalanche(h);
+        }
+
+        private long round(long acc, long input) {
+            acc += input * P2;
+            acc = Long.rotateLeft(acc, 31);
+            return acc * P1;
+        }
+
+        private long mergeRound(long acc, long val) {
+            acc ^= round(0, val);
+            return acc * P1 + P4;
+        }
+
+        private long avalanche(long h) {
+            h ^= h >>> 33;
+            h *= P2;
+            h ^= h >>> 29;
+            h *= P3;
+            h ^= h >>> 32;
+            return h;
+        }
+    },
+
+    /**
+     * SHA1，为兼容旧版本保留。高32位是摘要的前4个字节(大端序)，低32位是接下来的4个字节(小端序)。
+     * MessageDigest 不是线程安全的，所以每个线程持有自己的实例和缓冲区
+     */
+    SHA1(3) {
+        private final ThreadLocal<Sha1Buffers> buffers = new ThreadLocal<Sha1Buffers>() {
+            @Override
+            protected Sha1Buffers initialValue() {
+                return new Sha1Buffers();
+            }
+        };
+
+        @Override
+        public long hashBytes(byte[] bytes, int offset, int length) {
+            checkRange(bytes, offset, length);
+            Sha1Buffers b = buffers.get();
+            b.sha1.update(bytes, offset, length);
+            return b.digest();
+        }
+
+        @Override
+        public long hashInt(int value) {
+            Sha1Buffers b = buffers.get();
+            for (int i = 0; i < 4; i++) {
+                b.key[i] = (byte) (value & 0xff);  // & 0xff 将int(4个字节)分割成4个byte
+                value >>= 8;
+            }
+            b.sha1.update(b.key, 0, 4);
+            return b.digest();
+        }
+
+        @Override
+        public long hashLong(long value) {
+            Sha1Buffers b = buffers.get();
+            for (int i = 0; i < 8; i++) {
+                b.key[i] = (byte) (value & 0xff);
+                value >>= 8;
+            }
+            b.sha1.update(b.key, 0, 8);
+            return b.digest();
+        }
+    };
+
+    private final int id;
+
+    HashStrategies(int id) {
+        this.id = id;
+    }
+
+    /**
+     * 持久化时使用的编号
+     */
+    public int id() {
+        return id;
+    }
+
+    public static HashStrategies fromId(int id) {
+        for (HashStrategies strategy : values()) {
+            if (strategy.id == id) {
+                return strategy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown hash strategy id " + id);
+    }
+
+    private static void checkRange(byte[] bytes, int offset, int length) {
+        if(bytes == null)
+            throw new IllegalArgumentException("Cannot hash a null byte array");
+        if(offset < 0 || length < 0 || offset > bytes.length - length)
+            throw new IllegalArgumentException("Range [" + offset + "," + offset + "+" + length + ") is out of bounds for an array of " + bytes.length + " bytes");
+    }
+
+    private static final class Sha1Buffers {
+        private final MessageDigest sha1;
+        private final byte[] key = new byte[8];
+        private final byte[] digest = new byte[20];
+
+        Sha1Buffers() {
+            try {
+                sha1 = MessageDigest.getInstance("SHA1");
+            } catch (NoSuchAlgorithmException var) {
+                throw new InternalError("All Java implementations should carry an implementation of SHA1, however it cannot be found!");
+            }
+        }
+
+        long digest() {
+            try {
+                sha1.digest(digest, 0, digest.length);
+            } catch (DigestException e) {
+                throw new InternalError("Cannot write a SHA1 digest into a buffer of " + digest.length + " bytes");
+            }
+            long val = 0;
+            for (int i = 0; i < 4; i++) { // 将4个byte转换成int
+                val = (val << 8) | (digest[i] & 0xff);
+            }
+            val <<= 32;
+            for (int i = 0; i < 4; i++) {
+                val |= (long) (digest[i + 4] & 0xff) << (i * 8);
+            }
+            return val;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.Mercury.cuckoo;
+
+/**
+ * 计算64位hash的策略，过滤器的桶索引和指纹都从同一个64位hash中取得。
+ * 实现必须是无状态且线程安全的，同一个实例会被多个线程同时使用。
+ */
+public interface HashStrategy {
+
+    long hashBytes(byte[] bytes, int offset, int length);
+
+    /**
+     * 等价于对value的4个字节(小端序)做hash，但不需要分配数组
+     */
+    long hashInt(int value);
+
+    /**
+     * 等价于对value的8个字节(小端序)做hash，但不需要分配数组
+     */
+    long hashLong(long value);
+}
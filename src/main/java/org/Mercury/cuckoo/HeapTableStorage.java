@@ -0,0 +1,57 @@
+package org.Mercury.cuckoo;
+
+import java.util.Arrays;
+
+/**
+ * 存放在堆上long数组中的存储，读写都是普通的内存访问，由桶的锁保证线程安全。
+ * 最多 Integer.MAX_VALUE - 8 个字(约16GB)
+ */
+final class HeapTableStorage implements TableStorage {
+    static final long MAX_WORDS = Integer.MAX_VALUE - 8;
+
+    private final long[] words;
+
+    HeapTableStorage(long size) {
+        if(size > MAX_WORDS)
+            throw new IllegalArgumentException("A heap table cannot hold " + size + " words, use an off-heap or mapped storage instead");
+        words = new long[(int) size];
+    }
+
+    @Override
+    public long size() {
+        return words.length;
+    }
+
+    @Override
+    public long get(long index) {
+        return words[(int) index];
+    }
+
+    @Override
+    public void set(long index, long value) {
+        words[(int) index] = value;
+    }
+
+    @Override
+    public boolean compareAndSet(long index, long expect, long update) {
+        if (words[(int) index] != expect) {
+            return false;
+        }
+        words[(int) index] = update;
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(words, 0);
+    }
+
+    @Override
+    public boolean isAtomic() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,18 @@
+package org.Mercury.cuckoo;
+
+/**
+ * 两个候选桶都满了时，查找踢出路径的方式
+ */
+public enum InsertionStrategy {
+
+    /**
+     * 随机游走：每一步随机踢出一个指纹，最多{@code MAX_TRIES_WHEN_ADDING}步。负载高时路径很长，插入延迟不稳定
+     */
+    RANDOM_WALK,
+
+    /**
+     * 广度优先：从两个候选桶出发，按层查找最短的踢出路径，深度和访问的桶数都有上限。
+     * 路径最多只有几步，插入延迟在高负载下也是可预测的，加锁模式下持锁的时间也更短
+     */
+    BFS
+}
@@ -0,0 +1,66 @@
+package org.Mercury.cuckoo;
+
+/**
+ * 批量操作中一批key的桶索引和指纹。
+ * 先算出一批key的hash，再一起访问它们的桶，这样各个key的缓存未命中可以同时进行，而不是一个接一个地等待。
+ */
+final class KeyBatch {
+    final long[] index;
+    final long[] index2;
+    final int[] fingerprint;
+    // 在这一批中原来的位置，copy 之后还能找到结果对应的key
+    final int[] position;
+    // 查找前取得的两个桶所在段的乐观读 stamp
+    final long[] stamp;
+    final long[] stamp2;
+    // 批量查找时两个桶的字、广播后的指纹和比较结果，见{@link BucketProbe}
+    final long[] word;
+    final long[] word2;
+    final long[] pattern;
+    final boolean[] found;
+    // 加锁模式下这一批的桶所在的段，第i位表示第i个段，见{@link SegmentedBucketLocker#lockSegmentsWrite}
+    final long[] segments;
+    int size = 0;
+
+    KeyBatch(int capacity) {
+        this(capacity, 0);
+    }
+
+    KeyBatch(int capacity, int segments) {
+        index = new long[capacity];
+        index2 = new long[capacity];
+        fingerprint = new int[capacity];
+        position = new int[capacity];
+        stamp = new long[capacity];
+        stamp2 = new long[capacity];
+        word = new long[capacity];
+        word2 = new long[capacity];
+        pattern = new long[capacity];
+        found = new boolean[capacity];
+        this.segments = new long[(segments + 63) >>> 6];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    void add(long i1, long i2, int fp) {
+        index[size] = i1;
+        index2[size] = i2;
+        fingerprint[size] = fp;
+        position[size] = size;
+        size++;
+    }
+
+    /**
+     * 把第 from 项复制到第 to 项，用于把需要再处理的key移到批的前面
+     */
+    void copy(int from, int to) {
+        index[to] = index[from];
+        index2[to] = index2[from];
+        fingerprint[to] = fingerprint[from];
+        position[to] = position[from];
+        stamp[to] = stamp[from];
+        stamp2[to] = stamp2[from];
+    }
+}
@@ -0,0 +1,229 @@
+package org.Mercury.cuckoo;
+
+import com.google.common.hash.PrimitiveSink;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 把 key 的字节写入每个线程自己的可增长数组，再对整个数组做一次hash，不分配对象(数组只在 key 变长时扩容)。
+ * 多字节的值按小端序写入，和 Guava 的{@code Hasher}一致；字符串按 UTF-8 编码，和{@link String#getBytes(Charset)}的结果相同，
+ * 不成对的代理字符编码成 '?'
+ */
+final class KeyBuffer implements PrimitiveSink {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final ThreadLocal<KeyBuffer> BUFFERS = new ThreadLocal<KeyBuffer>() {
+        @Override
+        protected KeyBuffer initialValue() {
+            return new KeyBuffer();
+        }
+    };
+
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+    private int length = 0;
+
+    /**
+     * 当前线程的缓冲区，已清空。Funnel 中不能再使用过滤器的 Funnel 方法
+     */
+    static KeyBuffer get() {
+        KeyBuffer buffer = BUFFERS.get();
+        buffer.length = 0;
+        return buffer;
+    }
+
+    long hash(HashStrategy hashStrategy) {
+        return hashStrategy.hashBytes(bytes, 0, length);
+    }
+
+    /**
+     * 不改变 buffer 的 position。有底层数组时直接对数组hash，不需要复制
+     */
+    static long hash(HashStrategy hashStrategy, ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return hashStrategy.hashBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        KeyBuffer key = get();
+        key.putBytes(buffer);
+        return key.hash(hashStrategy);
+    }
+
+    static long hash(HashStrategy hashStrategy, CharSequence chars) {
+        KeyBuffer key = get();
+        key.putUtf8(chars);
+        return key.hash(hashStrategy);
+    }
+
+    /**
+     * 所有接受 Object 的方法共用的hash：按运行时类型使用和类型化重载相同的hash，
+     * 所以 add("abc") 之后 contains((Object) "abc") 也能找到，Long 和 long、Integer 和 int 相同。
+     * 其他类型对{@link Object#hashCode()}做hash
+     */
+    static long hashObject(HashStrategy hashStrategy, Object key) {
+        if (key instanceof Long) {
+            return hashStrategy.hashLong((Long) key);
+        }
+        if (key instanceof Integer) {
+            return hashStrategy.hashInt((Integer) key);
+        }
+        if (key instanceof CharSequence) {
+            return hash(hashStrategy, (CharSequence) key);
+        }
+        if (key instanceof byte[]) {
+            byte[] bytes = (byte[]) key;
+            return hashStrategy.hashBytes(bytes, 0, bytes.length);
+        }
+        if (key instanceof ByteBuffer) {
+            return hash(hashStrategy, (ByteBuffer) key);
+        }
+        if (key == null) {
+            throw new IllegalArgumentException("Key cannot be null");
+        }
+        return hashStrategy.hashInt(key.hashCode());
+    }
+
+    private void ensure(int extra) {
+        if (extra > bytes.length - length) {
+            int needed = length + extra;
+            if (needed < 0)
+                throw new IllegalArgumentException("Key is too large to hash, " + length + " + " + extra + " bytes");
+            bytes = Arrays.copyOf(bytes, Math.max(needed, bytes.length * 2));
+        }
+    }
+
+    private void putBytes(ByteBuffer buffer) {
+        int n = buffer.remaining();
+        ensure(n);
+        // duplicate 会分配对象，绝对位置的 get 不会改变 position
+        int position = buffer.position();
+        for (int i = 0; i < n; i++) {
+            bytes[length + i] = buffer.get(position + i);
+        }
+        length += n;
+    }
+
+    private void putUtf8(CharSequence chars) {
+        int n = chars.length();
+        ensure(n); // ASCII 时刚好够，其余的在循环中扩容
+        for (int i = 0; i < n; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                if (length == bytes.length) {
+                    ensure(n - i);
+                }
+                bytes[length++] = (byte) c;
+            } else if (c < 0x800) {
+                ensure(2);
+                bytes[length++] = (byte) (0xc0 | c >>> 6);
+                bytes[length++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                int codePoint = i + 1 < n && Character.isHighSurrogate(c) && Character.isLowSurrogate(chars.charAt(i + 1))
+                        ? Character.toCodePoint(c, chars.charAt(++i)) : -1;
+                if (codePoint < 0) {
+                    ensure(1);
+                    bytes[length++] = '?';
+                } else {
+                    ensure(4);
+                    bytes[length++] = (byte) (0xf0 | codePoint >>> 18);
+                    bytes[length++] = (byte) (0x80 | codePoint >>> 12 & 0x3f);
+                    bytes[length++] = (byte) (0x80 | codePoint >>> 6 & 0x3f);
+                    bytes[length++] = (byte) (0x80 | codePoint & 0x3f);
+                }
+            } else {
+                ensure(3);
+                bytes[length++] = (byte) (0xe0 | c >>> 12);
+                bytes[length++] = (byte) (0x80 | c >>> 6 & 0x3f);
+                bytes[length++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+    }
+
+    @Override
+    public KeyBuffer putByte(byte b) {
+        ensure(1);
+        bytes[length++] = b;
+        return this;
+    }
+
+    @Override
+    public KeyBuffer putBytes(byte[] b) {
+        return putBytes(b, 0, b.length);
+    }
+
+    @Override
+    public KeyBuffer putBytes(byte[] b, int off, int len) {
+        if(off < 0 || len < 0 || off > b.length - len)
+            throw new IndexOutOfBoundsException("Range [" + off + "," + off + "+" + len + ") is out of bounds for an array of " + b.length + " bytes");
+        ensure(len);
+        System.arraycopy(b, off, bytes, length, len);
+        length += len;
+        return this;
+    }
+
+    @Override
+    public KeyBuffer putShort(short s) {
+        return putLE(s, 2);
+    }
+
+    @Override
+    public KeyBuffer putInt(int i) {
+        return putLE(i, 4);
+    }
+
+    @Override
+    public KeyBuffer putLong(long l) {
+        return putLE(l, 8);
+    }
+
+    @Override
+    public KeyBuffer putFloat(float f) {
+        return putInt(Float.floatToRawIntBits(f));
+    }
+
+    @Override
+    public KeyBuffer putDouble(double d) {
+        return putLong(Double.doubleToRawLongBits(d));
+    }
+
+    @Override
+    public KeyBuffer putBoolean(boolean b) {
+        return putByte(b ? (byte) 1 : (byte) 0);
+    }
+
+    @Override
+    public KeyBuffer putChar(char c) {
+        return putLE(c, 2);
+    }
+
+    @Override
+    public KeyBuffer putUnencodedChars(CharSequence chars) {
+        ensure(chars.length() * 2);
+        for (int i = 0; i < chars.length(); i++) {
+            putChar(chars.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * UTF-8 不分配对象，其他字符集先编码成数组
+     */
+    @Override
+    public KeyBuffer putString(CharSequence chars, Charset charset) {
+        if (StandardCharsets.UTF_8.equals(charset)) {
+            putUtf8(chars);
+            return this;
+        }
+        return putBytes(chars.toString().getBytes(charset));
+    }
+
+    private KeyBuffer putLE(long value, int n) {
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            bytes[length++] = (byte) value;
+            value >>>= 8;
+        }
+        return this;
+    }
+}
@@ -0,0 +1,76 @@
+package org.Mercury.cuckoo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 映射到文件的存储。同一台机器上的多个JVM映射同一个文件时共享同一份物理内存，不需要复制。
+ * 桶的锁只在一个JVM内有效，多个JVM共享时应只有一个JVM写入，其他JVM只读映射。
+ */
+final class MappedTableStorage extends ByteBufferTableStorage {
+    private final Path file;
+    private final long offset;
+    private final boolean readOnly;
+
+    /**
+     * @param offset   表在文件中的起始位置(字节)
+     * @param readOnly 只读映射，写入会抛出 ReadOnlyBufferException
+     */
+    MappedTableStorage(Path file, long offset, long size, boolean readOnly) {
+        super(size);
+        this.file = file;
+        this.offset = offset;
+        this.readOnly = readOnly;
+        long length = offset + (size << 3);
+        try (FileChannel channel = readOnly
+                ? FileChannel.open(file, StandardOpenOption.READ)
+                : FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            long existing = channel.size();
+            if (readOnly && existing < length)
+                throw new IllegalArgumentException("File " + file + " has " + existing + " bytes, but the table needs " + length);
+            if (!readOnly && existing != 0 && existing != length)
+                throw new IllegalArgumentException("File " + file + " has " + existing + " bytes, but the table needs " + length
+                        + "; refusing to map a table with a different size");
+            FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+            for (int i = 0; i < chunks.length; i++) {
+                long position = offset + ((long) i << CHUNK_SHIFT << 3);
+                setChunk(i, channel.map(mode, position, (long) chunkWords(i) << 3));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map " + file, e);
+        }
+    }
+
+    Path file() {
+        return file;
+    }
+
+    long offset() {
+        return offset;
+    }
+
+    /**
+     * 把修改写回磁盘
+     */
+    void force() {
+        if (readOnly) {
+            return;
+        }
+        for (ByteBuffer chunk : chunks) {
+            ((MappedByteBuffer) chunk).force();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (chunks != null) {
+            force();
+            chunks = null;
+        }
+    }
+}
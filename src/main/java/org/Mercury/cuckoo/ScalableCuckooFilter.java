@@ -0,0 +1,523 @@
+package org.Mercury.cuckoo;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 可以增长的布谷鸟过滤器，不会报告已满。
+ * 最新的一层满了(暂存区满了)时，新增一层容量是它 growthFactor 倍、指纹多 fingerprintGrowth 位的过滤器，之后的添加都进入新的一层。
+ *
+ * 每一层的假阳性率约是上一层的一半，所有层的总假阳性率不超过第一层的两倍。
+ * 指纹达到上限(32位，并且一个桶要放得进128位)以后不再增加，之后总假阳性率随层数线性增长。
+ *
+ * 层数组是写时复制的 volatile 数组，最新的一层在最前面。查找和删除只读一次数组引用，从新到旧逐层查找，
+ * 永远不会被增长阻塞；增长时只有同样要增长的添加会等待新的一层建好。
+ * 旧的层被删空以后由{@link #compact()}去掉并关闭，配置了 compactionExecutor 时在后台自动进行。
+ * 只剩少量项的旧的层不会被合并：各层的指纹位数和桶数不同，没有原来的 key 就不能把指纹搬到另一层。
+ * 删除从新到旧找第一个匹配的签名，一个 key 在较新的层中误判时删掉的是那一层的指纹，它自己的指纹留在旧的层中，
+ * 所以指纹较短时旧的层很少能真正删空
+ */
+public class ScalableCuckooFilter implements Closeable {
+    public static final int DEFAULT_GROWTH_FACTOR = 2;
+    public static final int DEFAULT_FINGERPRINT_GROWTH = 1;
+
+    private final HashStrategy hashStrategy;
+    private final int slotsPerBucket;
+    private final ConcurrencyMode concurrencyMode;
+    private final InsertionStrategy insertionStrategy;
+    private final int stashSize;
+    private final boolean semiSorted;
+    private final int expectedConcurrency;
+    private final int growthFactor;
+    private final int fingerprintGrowth;
+    private final Executor compactionExecutor;
+
+    // 最新的一层在最前面，只在持有 growLock 时替换
+    private volatile Snapshot snapshot;
+    private final Object growLock = new Object();
+    // 被替换下来、可能还有操作在使用的层数组，持有 growLock 时访问
+    private final List<Snapshot> retired = new ArrayList<Snapshot>();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean(false);
+
+    private ScalableCuckooFilter(Builder builder) {
+        if(builder.growthFactor < 2)
+            throw new IllegalArgumentException("Growth factor must be at least 2, received " + builder.growthFactor);
+        if(builder.fingerprintGrowth < 0)
+            throw new IllegalArgumentException("Fingerprint growth cannot be negative, received " + builder.fingerprintGrowth);
+        this.hashStrategy = builder.hashStrategy;
+        this.slotsPerBucket = builder.slotsPerBucket;
+        this.concurrencyMode = builder.concurrencyMode;
+        this.insertionStrategy = builder.insertionStrategy;
+        this.stashSize = builder.stashSize;
+        this.semiSorted = builder.semiSorted;
+        this.expectedConcurrency = builder.expectedConcurrency;
+        this.growthFactor = builder.growthFactor;
+        this.fingerprintGrowth = builder.fingerprintGrowth;
+        this.compactionExecutor = builder.compactionExecutor;
+        this.snapshot = new Snapshot(new Level[]{newLevel(builder.initialCapacity, builder.fingerprintSize)});
+    }
+
+    public static Builder builder(long initialCapacity) {
+        return new Builder(initialCapacity);
+    }
+
+    /**
+     * 过滤器的构建参数，未设置的参数使用{@link CuckooFilter}的默认值
+     */
+    public static final class Builder {
+        private final long initialCapacity;
+        private int fingerprintSize = CuckooFilter.DEFAULT_FINGERPRINT_SIZE;
+        private int slotsPerBucket = CuckooFilter.DEFAULT_SLOTS_PER_BUCKET;
+        private HashStrategy hashStrategy = CuckooFilter.DEFAULT_HASH_STRATEGY;
+        private ConcurrencyMode concurrencyMode = ConcurrencyMode.SEGMENT_LOCKS;
+        private InsertionStrategy insertionStrategy = InsertionStrategy.RANDOM_WALK;
+        private int stashSize = CuckooFilter.DEFAULT_STASH_SIZE;
+        private boolean semiSorted = false;
+        private int expectedConcurrency = CuckooFilter.DEFAULT_EXPECTED_CONCURRENCY;
+        private int growthFactor = DEFAULT_GROWTH_FACTOR;
+        private int fingerprintGrowth = DEFAULT_FINGERPRINT_GROWTH;
+        private Executor compactionExecutor = null;
+
+        private Builder(long initialCapacity) {
+            this.initialCapacity = initialCapacity;
+        }
+
+        /**
+         * 第一层的指纹位数
+         */
+        public Builder fingerprintSize(int fingerprintSize) {
+            this.fingerprintSize = fingerprintSize;
+            return this;
+        }
+
+        public Builder slotsPerBucket(int slotsPerBucket) {
+            this.slotsPerBucket = slotsPerBucket;
+            return this;
+        }
+
+        public Builder hashStrategy(HashStrategy hashStrategy) {
+            this.hashStrategy = hashStrategy;
+            return this;
+        }
+
+        public Builder concurrencyMode(ConcurrencyMode concurrencyMode) {
+            this.concurrencyMode = concurrencyMode;
+            return this;
+        }
+
+        public Builder insertionStrategy(InsertionStrategy insertionStrategy) {
+            this.insertionStrategy = insertionStrategy;
+            return this;
+        }
+
+        /**
+         * 每一层的暂存区大小，暂存区满了才增长
+         */
+        public Builder stashSize(int stashSize) {
+            this.stashSize = stashSize;
+            return this;
+        }
+
+        /**
+         * 每一层都使用半排序压缩的桶，指纹最多增长到{@link SemiSortedTable#MAX_BITS_PER_TAG}位
+         */
+        public Builder semiSortedBuckets(boolean semiSorted) {
+            this.semiSorted = semiSorted;
+            return this;
+        }
+
+        public Builder expectedConcurrency(int expectedConcurrency) {
+            this.expectedConcurrency = expectedConcurrency;
+            return this;
+        }
+
+        /**
+         * 每一层的容量是上一层的几倍
+         */
+        public Builder growthFactor(int growthFactor) {
+            this.growthFactor = growthFactor;
+            return this;
+        }
+
+        /**
+         * 每一层的指纹比上一层多几位，1位就能让总假阳性率有界
+         */
+        public Builder fingerprintGrowth(int fingerprintGrowth) {
+            this.fingerprintGrowth = fingerprintGrowth;
+            return this;
+        }
+
+        /**
+         * 旧的层被删空时，在这个 Executor 上去掉它们。不设置时只能调用{@link ScalableCuckooFilter#compact()}
+         */
+        public Builder compactionExecutor(Executor compactionExecutor) {
+            this.compactionExecutor = compactionExecutor;
+            return this;
+        }
+
+        public ScalableCuckooFilter build() {
+            return new ScalableCuckooFilter(this);
+        }
+    }
+
+    /**
+     * 一层过滤器和它当前的项数。项数在添加前先加1，所以正在进行的添加也会被计入，压缩时不会去掉这一层
+     */
+    private static final class Level {
+        final CuckooFilter filter;
+        final long capacity;
+        final int fingerprintSize;
+        final LongAdder items = new LongAdder();
+
+        Level(CuckooFilter filter, long capacity, int fingerprintSize) {
+            this.filter = filter;
+            this.capacity = capacity;
+            this.fingerprintSize = fingerprintSize;
+        }
+    }
+
+    /**
+     * 一个层数组和正在使用它的操作数。操作先加1再检查数组还是当前的，所以数组被替换后计数只会减少，
+     * 减到0以后就没有操作能再访问它的层了，压缩去掉的层这时才关闭
+     */
+    private static final class Snapshot {
+        final Level[] levels;
+        final LongAdder active = new LongAdder();
+
+        Snapshot(Level[] levels) {
+            this.levels = levels;
+        }
+    }
+
+    private Snapshot acquire() {
+        for (;;) {
+            Snapshot current = snapshot;
+            current.active.increment();
+            if (snapshot == current) {
+                return current;
+            }
+            current.active.decrement();
+        }
+    }
+
+    private static void release(Snapshot s) {
+        s.active.decrement();
+    }
+
+    private Level newLevel(long capacity, int fingerprintSize) {
+        CuckooFilter filter = CuckooFilter.builder(capacity)
+                .fingerprintSize(fingerprintSize)
+                .slotsPerBucket(slotsPerBucket)
+                .hashStrategy(hashStrategy)
+                .concurrencyMode(concurrencyMode)
+                .insertionStrategy(insertionStrategy)
+                .stashSize(stashSize)
+                .semiSortedBuckets(semiSorted)
+                .expectedConcurrency(expectedConcurrency)
+                .build();
+        return new Level(filter, capacity, fingerprintSize);
+    }
+
+    /**
+     * 如果在任何一层中找到给定对象的签名，则返回{@code true}，从最新的一层开始查找
+     */
+    public boolean contains(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Cannot look up a null object");
+        }
+        long hash = KeyBuffer.hashObject(hashStrategy, o);
+        Snapshot current = acquire();
+        try {
+            for (Level level : current.levels) {
+                if (level.filter.containsHash(hash)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            release(current);
+        }
+    }
+
+    /**
+     * 添加到最新的一层，它满了就先增长，所以总是返回{@code true}
+     */
+    public boolean add(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Cannot add a null object");
+        }
+        long hash = KeyBuffer.hashObject(hashStrategy, o);
+        for (;;) {
+            // 增长和压缩要持有 growLock 并等待旧数组上的操作结束，所以先释放数组再增长
+            Snapshot current = acquire();
+            Level newest = current.levels[0];
+            boolean added;
+            boolean full;
+            newest.items.increment();
+            try {
+                added = newest.filter.addHash(hash);
+                full = added && newest.filter.isFull();
+            } finally {
+                release(current);
+            }
+            if (!added) {
+                newest.items.decrement();
+                grow(newest);
+                continue;
+            }
+            if (full) {
+                grow(newest);
+            }
+            // 添加期间层数组被替换了，这一层可能已经被压缩去掉(它在压缩时恰好是空的)，去掉了就重新添加
+            if (snapshot == current || isLive(newest)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 从最新的一层开始，删除找到的第一个签名
+     */
+    public boolean delete(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Cannot remove a null object");
+        }
+        long hash = KeyBuffer.hashObject(hashStrategy, o);
+        Snapshot current = acquire();
+        Level emptied = null;
+        try {
+            for (Level level : current.levels) {
+                if (level.filter.deleteHash(hash)) {
+                    level.items.decrement();
+                    emptied = level != current.levels[0] && level.items.sum() == 0 ? level : null;
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            release(current);
+            if (emptied != null && compactionExecutor != null) {
+                scheduleCompaction();
+            }
+        }
+    }
+
+    /**
+     * 去掉已经删空的旧的层(最新的一层总是保留)，返回去掉的层数。只有项数正好为0的层会被去掉，见类的说明。
+     * 已经拿到旧的层数组的操作不受影响，它们查的是空的层；等这些操作都结束后，去掉的层被关闭
+     */
+    public int compact() {
+        synchronized (growLock) {
+            Level[] current = snapshot.levels;
+            List<Level> kept = new ArrayList<Level>();
+            List<Level> dropped = new ArrayList<Level>();
+            kept.add(current[0]);
+            for (int i = 1; i < current.length; i++) {
+                (current[i].items.sum() > 0 ? kept : dropped).add(current[i]);
+            }
+            if (dropped.isEmpty()) {
+                return 0;
+            }
+            replace(kept.toArray(new Level[0]));
+            awaitRetired();
+            for (Level level : dropped) {
+                level.filter.close();
+            }
+            return dropped.size();
+        }
+    }
+
+    /**
+     * 关闭所有层，之后不能再使用这个过滤器
+     */
+    @Override
+    public void close() {
+        synchronized (growLock) {
+            for (Level level : snapshot.levels) {
+                level.filter.close();
+            }
+        }
+    }
+
+    /**
+     * 当前的层数
+     */
+    public int levels() {
+        return snapshot.levels.length;
+    }
+
+    /**
+     * 所有层的 maxItems 之和，实际的槽位数更多(每层的桶数会取到2的幂)
+     */
+    public long capacity() {
+        long capacity = 0;
+        for (Level level : snapshot.levels) {
+            capacity += level.capacity;
+        }
+        return capacity;
+    }
+
+    /**
+     * 换上新的层数组，旧的数组记到 retired 中。持有 growLock 时调用
+     */
+    private void replace(Level[] levels) {
+        Snapshot old = snapshot;
+        snapshot = new Snapshot(levels);
+        retired.add(old);
+    }
+
+    /**
+     * 等待所有被替换下来的层数组上的操作结束。每个操作只做一次添加、查找或删除，等待很短。持有 growLock 时调用
+     */
+    private void awaitRetired() {
+        for (Snapshot s : retired) {
+            while (s.active.sum() != 0) {
+                Thread.yield();
+            }
+        }
+        retired.clear();
+    }
+
+    /**
+     * 新增一层。多个线程同时发现同一层满了时只增长一次
+     */
+    private void grow(Level full) {
+        synchronized (growLock) {
+            Level[] current = snapshot.levels;
+            if (current[0] != full) {
+                return; // 别的线程已经增长过了
+            }
+            Level next = newLevel(full.capacity * growthFactor, nextFingerprintSize(full.fingerprintSize));
+            Level[] grown = new Level[current.length + 1];
+            grown[0] = next;
+            System.arraycopy(current, 0, grown, 1, current.length);
+            replace(grown);
+        }
+    }
+
+    private int nextFingerprintSize(int fingerprintSize) {
+        int max = semiSorted ? SemiSortedTable.MAX_BITS_PER_TAG : Math.min(Integer.SIZE, ByteArrayTable.MAX_BITS_PER_BUCKET / slotsPerBucket);
+        return Math.min(max, fingerprintSize + fingerprintGrowth);
+    }
+
+    /**
+     * 持有 growLock 时检查，之前开始的压缩都已经完成，之后的压缩一定能看到这一层的项数
+     */
+    private boolean isLive(Level level) {
+        synchronized (growLock) {
+            for (Level l : snapshot.levels) {
+                if (l == level) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private void scheduleCompaction() {
+        if (compactionScheduled.compareAndSet(false, true)) {
+            compactionExecutor.execute(() -> {
+                compactionScheduled.set(false);
+                compact();
+            });
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        ScalableCuckooFilter filter = builder(1000).fingerprintSize(8).build();
+        System.out.println("RANDOM INSERTIONS BEYOND THE INITIAL CAPACITY");
+        Random random = new Random();
+        Set<Integer> bag = new HashSet<Integer>();
+        for (int i = 0; i < 100000; i++) {
+            Integer o = random.nextInt();
+            if (bag.add(o) && !filter.add(o)) {
+                System.out.println("ERROR COULD NOT ADD " + o);
+                return;
+            }
+        }
+        System.out.println(filter.levels() + " LEVELS, CAPACITY " + filter.capacity());
+        for (Integer o : bag)
+            if (!filter.contains(o)) {
+                System.out.println("ERROR, FILTER DOES NOT CONTAIN " + o);
+                return;
+            }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            Integer o = random.nextInt();
+            if (!bag.contains(o) && filter.contains(o))
+                falsePositives++;
+        }
+        System.out.println("FALSE POSITIVE RATE " + falsePositives / 100000.0);
+
+        for (Integer o : bag)
+            filter.delete(o);
+        System.out.println("COMPACTED " + filter.compact() + " EMPTY LEVELS");
+        filter.close();
+
+        // 32位指纹几乎没有跨层的误删，全部删除后旧的层都被去掉
+        filter = builder(1000).fingerprintSize(32).build();
+        for (Integer o : bag)
+            filter.add(o);
+        for (Integer o : bag)
+            filter.delete(o);
+        int levels = filter.levels();
+        int compacted = filter.compact();
+        if (compacted != levels - 1 || filter.levels() != 1) {
+            System.out.println("ERROR, " + filter.levels() + " LEVELS LEFT AFTER COMPACTING " + compacted + " OF " + levels);
+            return;
+        }
+        filter.close();
+        if (!testConcurrentCompaction()) {
+            return;
+        }
+        System.out.println("EVERYTHING FINE!");
+    }
+
+    /**
+     * 后台压缩和添加、删除、查找同时进行：每个线程反复添加一批 key 再删掉，删空的旧层被压缩掉并关闭，
+     * 查找不能漏掉还没删除的 key
+     */
+    private static boolean testConcurrentCompaction() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final ScalableCuckooFilter filter = builder(1000).fingerprintSize(32).compactionExecutor(executor).build();
+        final AtomicBoolean failed = new AtomicBoolean();
+        Thread[] workers = new Thread[4];
+        for (int t = 0; t < workers.length; t++) {
+            final int base = t << 24;
+            workers[t] = new Thread(() -> {
+                for (int round = 0; round < 20; round++) {
+                    int from = base + round * 5000;
+                    for (int i = from; i < from + 5000; i++)
+                        filter.add(i);
+                    for (int i = from; i < from + 5000; i++)
+                        if (!filter.contains(i) || !filter.delete(i))
+                            failed.set(true);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        filter.compact();
+        System.out.println(filter.levels() + " LEVELS AFTER CONCURRENT ADDS, DELETES AND COMPACTIONS");
+        filter.close();
+        if (failed.get()) {
+            System.out.println("ERROR, A KEY WAS LOST DURING CONCURRENT COMPACTION");
+            return false;
+        }
+        return true;
+    }
+}
@@ -2,6 +2,7 @@ package org.Mercury.cuckoo;
 
 import com.google.common.annotations.VisibleForTesting;
 
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.StampedLock;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -16,8 +17,20 @@ public class SegmentedBucketLocker {
     private final StampedLock[] lockAry;
     //必须是2的幂,所以没有偏置
     private final int concurrentSegments;
+    // 相邻的 2^groupShift 个桶属于同一段，见{@link ByteArrayTable#lockGroupShift()}
+    private final int groupShift;
+    // 每个段没能马上拿到锁的次数和等待的纳秒数，不统计时为null
+    private final LongAdder[] waits;
+    private final LongAdder[] waitNanos;
 
     SegmentedBucketLocker(int expectedConcurrency) {
+        this(expectedConcurrency, 0, false);
+    }
+
+    /**
+     * @param timed 是否统计锁等待。先 try 一次，拿不到才计时，不等待时没有额外开销
+     */
+    SegmentedBucketLocker(int expectedConcurrency, int groupShift, boolean timed) {
         checkArgument(expectedConcurrency > 0, "expectedConcurrency (%s) must be > 0.", expectedConcurrency);
         checkArgument((expectedConcurrency & (expectedConcurrency - 1)) == 0,
                 "expectedConcurrency (%s) must be a power of two.", expectedConcurrency);
@@ -25,10 +38,13 @@ public class SegmentedBucketLocker {
 
         //大多数操作都锁定2个bucket，所以对于X个线程，我们应该有大约2X个段。
         this.concurrentSegments = expectedConcurrency * 2;
+        this.groupShift = groupShift;
         this.lockAry = new StampedLock[concurrentSegments];
         for (int i = 0; i < lockAry.length; i++) {
             lockAry[i] = new StampedLock();
         }
+        this.waits = timed ? newAdders(concurrentSegments) : null;
+        this.waitNanos = timed ? newAdders(concurrentSegments) : null;
     }
 
     /**
@@ -38,7 +54,7 @@ public class SegmentedBucketLocker {
      */
     @VisibleForTesting
     private int getBucketLock(long bucketIndex){
-        return (int) (bucketIndex % concurrentSegments);
+        return (int) ((bucketIndex >>> groupShift) % concurrentSegments);
     }
 
     /**
@@ -52,14 +68,14 @@ public class SegmentedBucketLocker {
 
         //要以相同的顺序锁定段，以避免死锁
         if (bucket1LockIdx < bucket2LockIdx) {
-            lockAry[bucket1LockIdx].writeLock();
-            lockAry[bucket2LockIdx].writeLock();
+            writeLock(bucket1LockIdx);
+            writeLock(bucket2LockIdx);
         } else if (bucket1LockIdx > bucket2LockIdx) {
-            lockAry[bucket2LockIdx].writeLock();
-            lockAry[bucket1LockIdx].writeLock();
+            writeLock(bucket2LockIdx);
+            writeLock(bucket1LockIdx);
         } else {
             // 两个在同一个字段,所以锁一次
-            lockAry[bucket1LockIdx].writeLock();
+            writeLock(bucket1LockIdx);
         }
     }
 
@@ -70,14 +86,14 @@ public class SegmentedBucketLocker {
         int bucket1LockIdx = getBucketLock(i1);
         int bucket2LockIdx = getBucketLock(i2);
         if (bucket1LockIdx < bucket2LockIdx) {
-            lockAry[bucket1LockIdx].readLock();
-            lockAry[bucket2LockIdx].readLock();
+            readLock(bucket1LockIdx);
+            readLock(bucket2LockIdx);
         } else if (bucket1LockIdx > bucket2LockIdx) {
-            lockAry[bucket2LockIdx].readLock();
-            lockAry[bucket1LockIdx].readLock();
+            readLock(bucket2LockIdx);
+            readLock(bucket1LockIdx);
         }
         else {
-            lockAry[bucket1LockIdx].readLock();
+            readLock(bucket1LockIdx);
         }
     }
 
@@ -111,12 +127,75 @@ public class SegmentedBucketLocker {
         lockAry[bucket2LockIdx].tryUnlockRead();
     }
 
+    /**
+     * 乐观读，不加锁。桶所在的段正被写锁定时返回0
+     */
+    long tryOptimisticRead(long bucketIndex) {
+        return lockAry[getBucketLock(bucketIndex)].tryOptimisticRead();
+    }
+
+    /**
+     * 检查从拿到乐观读的 stamp 以来，桶所在的段是否被写过
+     */
+    boolean validate(long bucketIndex, long stamp) {
+        return lockAry[getBucketLock(bucketIndex)].validate(stamp);
+    }
+
+    /**
+     * 段的个数
+     */
+    int segments() {
+        return concurrentSegments;
+    }
+
+    /**
+     * 按顺序对所有段加写锁
+     */
+    void lockAllBucketsWrite() {
+        for (int i = 0; i < lockAry.length; i++) {
+            writeLock(i);
+        }
+    }
+
+    void unlockAllBucketsWrite() {
+        for (StampedLock lock : lockAry) {
+            lock.tryUnlockWrite();
+        }
+    }
+
+    /**
+     * 把桶所在的段记到位图 segments 中，第i位表示第i个段
+     */
+    void markSegment(long bucketIndex, long[] segments) {
+        int segment = getBucketLock(bucketIndex);
+        segments[segment >>> 6] |= 1L << segment;
+    }
+
+    /**
+     * 对位图中的段加写锁，每个段只锁一次。和其他加锁方法一样按段的顺序加锁，不会死锁
+     */
+    void lockSegmentsWrite(long[] segments) {
+        for (int w = 0; w < segments.length; w++) {
+            for (long bits = segments[w]; bits != 0; bits &= bits - 1) {
+                writeLock((w << 6) + Long.numberOfTrailingZeros(bits));
+            }
+        }
+    }
+
+    void unlockSegmentsWrite(long[] segments) {
+        for (int w = 0; w < segments.length; w++) {
+            for (long bits = segments[w]; bits != 0; bits &= bits - 1) {
+                lockAry[(w << 6) + Long.numberOfTrailingZeros(bits)].tryUnlockWrite();
+            }
+        }
+    }
+
     /**
      * lock all segment
      */
     void lockAllBucketsRead() {
-        for (StampedLock lock : lockAry) {
-            lock.readLock();
+        for (int i = 0; i < lockAry.length; i++) {
+            readLock(i);
         }
     }
 
@@ -129,9 +208,75 @@ public class SegmentedBucketLocker {
         }
     }
 
+    /**
+     * 每个段没能马上拿到锁的次数，不统计时是空数组
+     */
+    long[] waits() {
+        return sums(waits);
+    }
+
+    /**
+     * 每个段等待锁的总纳秒数
+     */
+    long[] waitNanos() {
+        return sums(waitNanos);
+    }
+
+    private void writeLock(int segment) {
+        StampedLock lock = lockAry[segment];
+        if (waits == null) {
+            lock.writeLock();
+            return;
+        }
+        if (lock.tryWriteLock() != 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        lock.writeLock();
+        recordWait(segment, start);
+    }
+
+    private void readLock(int segment) {
+        StampedLock lock = lockAry[segment];
+        if (waits == null) {
+            lock.readLock();
+            return;
+        }
+        if (lock.tryReadLock() != 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        lock.readLock();
+        recordWait(segment, start);
+    }
+
+    private void recordWait(int segment, long start) {
+        waitNanos[segment].add(System.nanoTime() - start);
+        waits[segment].increment();
+    }
+
+    private static LongAdder[] newAdders(int n) {
+        LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static long[] sums(LongAdder[] adders) {
+        if (adders == null) {
+            return new long[0];
+        }
+        long[] sums = new long[adders.length];
+        for (int i = 0; i < adders.length; i++) {
+            sums[i] = adders[i].sum();
+        }
+        return sums;
+    }
+
     void lockSingleBucketWrite(long i1) {
         int bucketLockIdx = getBucketLock(i1);
-        lockAry[bucketLockIdx].writeLock();
+        writeLock(bucketLockIdx);
     }
 
     void unlockSingleBucketWrite(long i1) {
@@ -0,0 +1,81 @@
+package org.Mercury.cuckoo;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * 无锁模式下每个段的版本号，让读操作不加锁也能发现并发的踢出(移动)。
+ *
+ * 每个段一个long：高32位是开始的移动次数，低32位是完成的移动次数，两者相等时段中没有正在进行的移动。
+ * 读操作在查找前后各读一次版本号，两次相同且没有正在进行的移动时结果才有效，否则重试；写操作从不等待读操作。
+ * 只有在两个桶之间移动指纹时需要修改版本号，插入空槽位和删除都是单次CAS，不需要。
+ */
+final class SegmentedBucketVersions {
+    // 每个段独占一个缓存行(8个long)，避免伪共享
+    private static final int PADDING = 8;
+    private static final long MOVE_STARTED = 1L << 32;
+    private static final long FINISHED_MASK = 0xffffffffL;
+
+    private final AtomicLongArray versions;
+    //必须是2的幂
+    private final int concurrentSegments;
+
+    SegmentedBucketVersions(int concurrentSegments) {
+        checkArgument(concurrentSegments > 0, "concurrentSegments (%s) must be > 0.", concurrentSegments);
+        checkArgument((concurrentSegments & (concurrentSegments - 1)) == 0,
+                "concurrentSegments (%s) must be a power of two.", concurrentSegments);
+        this.concurrentSegments = concurrentSegments;
+        this.versions = new AtomicLongArray(concurrentSegments * PADDING);
+    }
+
+    private int getVersionIndex(long bucketIndex) {
+        return (int) (bucketIndex & (concurrentSegments - 1)) * PADDING;
+    }
+
+    /**
+     * 读取桶所在段的版本号
+     */
+    long tryOptimisticRead(long bucketIndex) {
+        return versions.get(getVersionIndex(bucketIndex));
+    }
+
+    /**
+     * 读取版本号时段中没有正在进行的移动，并且之后也没有开始新的移动
+     */
+    boolean validate(long bucketIndex, long stamp) {
+        return (stamp >>> 32) == (stamp & FINISHED_MASK) && versions.get(getVersionIndex(bucketIndex)) == stamp;
+    }
+
+    /**
+     * 开始在两个桶之间移动指纹
+     */
+    void beginMove(long i1, long i2) {
+        int index1 = getVersionIndex(i1);
+        int index2 = getVersionIndex(i2);
+        versions.getAndAdd(index1, MOVE_STARTED);
+        if (index2 != index1) {
+            versions.getAndAdd(index2, MOVE_STARTED);
+        }
+    }
+
+    void endMove(long i1, long i2) {
+        int index1 = getVersionIndex(i1);
+        int index2 = getVersionIndex(i2);
+        finishMove(index1);
+        if (index2 != index1) {
+            finishMove(index2);
+        }
+    }
+
+    // 低32位加1，溢出时不能进位到高32位
+    private void finishMove(int index) {
+        for (;;) {
+            long version = versions.get(index);
+            long next = (version & ~FINISHED_MASK) | ((version + 1) & FINISHED_MASK);
+            if (versions.compareAndSet(index, version, next)) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package org.Mercury.cuckoo;
+
+/**
+ * 半排序压缩的表(布谷鸟过滤器论文中的 semi-sorting)，每个桶4个槽位，指纹4到16位。
+ * 桶中的4个指纹按大小排序后，它们的高4位只有 C(19,4)=3876 种组合，用12位的编号代替16位，
+ * 每个桶是 12 + 4*(bitsPerTag-4) 位，每项省1位。
+ *
+ * 16个桶正好是 bitsPerTag-1 个字，桶在一组字中连续存放，可以跨字但不会跨组，
+ * 所以锁按16个桶的组划分({@link #lockGroupShift()})。一个桶可能跨两个字，修改不是一次CAS，只能用于加锁模式。
+ *
+ * 读取时用查找表把桶解码成普通布局的一个字(每个槽位 bitsPerTag 位)，再用和{@link ByteArrayTable}相同的SWAR比较，
+ * 修改时重新排序、编码后写回，都不分配对象。
+ * 排序会改变指纹所在的槽位，所以槽位只表示当前的排序位置，{@link #compareAndSetTag}替换任意一个等于 expect 的槽位
+ */
+public class SemiSortedTable extends ByteArrayTable {
+    public static final int SLOTS_PER_BUCKET = 4;
+    public static final int MIN_BITS_PER_TAG = 4;
+    public static final int MAX_BITS_PER_TAG = 16;
+
+    private static final int CODE_BITS = 12;
+    private static final int GROUP_SHIFT = 4; // 每组 2^4 = 16 个桶
+    // 编号 -> 排好序的4个高4位(第i个在 4i 位)
+    private static final short[] DECODE = new short[1 << CODE_BITS];
+    // 排好序的4个高4位 -> 编号，没有排好序的组合不会被用到
+    private static final short[] ENCODE = new short[1 << 16];
+
+    static {
+        int code = 0;
+        for (int a = 0; a < 16; a++)
+            for (int b = a; b < 16; b++)
+                for (int c = b; c < 16; c++)
+                    for (int d = c; d < 16; d++) {
+                        int nibbles = a | b << 4 | c << 8 | d << 12;
+                        DECODE[code] = (short) nibbles;
+                        ENCODE[nibbles] = (short) code;
+                        code++;
+                    }
+    }
+
+    private final int bitsPerTag;
+    private final int lowBits; // 每个指纹除高4位以外的位数
+    private final long lowMask;
+    private final int bucketBits; // 压缩后每个桶的位数
+    private final long bucketMask;
+    private final int wordsPerGroup;
+
+    public SemiSortedTable(long buckets, int bitsPerTag) {
+        this(buckets, bitsPerTag, TableStorages.heap());
+    }
+
+    public SemiSortedTable(long buckets, int bitsPerTag, TableStorage.Factory storageFactory) {
+        super(buckets, SLOTS_PER_BUCKET, checkBits(bitsPerTag), storageFactory,
+                ((buckets + (1 << GROUP_SHIFT) - 1) >>> GROUP_SHIFT) * (bitsPerTag - 1));
+        this.bitsPerTag = bitsPerTag;
+        this.lowBits = bitsPerTag - 4;
+        this.lowMask = (1L << lowBits) - 1;
+        this.bucketBits = CODE_BITS + SLOTS_PER_BUCKET * lowBits;
+        this.bucketMask = (1L << bucketBits) - 1;
+        this.wordsPerGroup = bitsPerTag - 1;
+    }
+
+    private static int checkBits(int bitsPerTag) {
+        if(bitsPerTag < MIN_BITS_PER_TAG || bitsPerTag > MAX_BITS_PER_TAG)
+            throw new IllegalArgumentException("Semi-sorted buckets need tags of [" + MIN_BITS_PER_TAG + "," + MAX_BITS_PER_TAG + "] bits, received " + bitsPerTag);
+        return bitsPerTag;
+    }
+
+    @Override
+    public boolean findTag(long bucket, int tag) {
+        checkBucket(bucket);
+        return ByteUtil.hasZeroLane(read(bucket) ^ broadcast(tag), laneLow, laneHigh);
+    }
+
+    @Override
+    public boolean hasEmptySlot(long bucket) {
+        checkBucket(bucket);
+        return ByteUtil.hasZeroLane(read(bucket), laneLow, laneHigh);
+    }
+
+    @Override
+    public int findEmptySlot(long bucket) {
+        checkBucket(bucket);
+        long zeros = ByteUtil.zeroLanes(read(bucket), laneRest, laneHigh);
+        return zeros == 0 ? -1 : Long.numberOfTrailingZeros(zeros) / bitsPerTag;
+    }
+
+    @Override
+    public int occupancy(long bucket) {
+        checkBucket(bucket);
+        return SLOTS_PER_BUCKET - Long.bitCount(ByteUtil.zeroLanes(read(bucket), laneRest, laneHigh));
+    }
+
+    @Override
+    public int findSlot(long bucket, int tag) {
+        checkBucket(bucket);
+        long zeros = ByteUtil.zeroLanes(read(bucket) ^ broadcast(tag), laneRest, laneHigh);
+        return zeros == 0 ? -1 : Long.numberOfTrailingZeros(zeros) / bitsPerTag;
+    }
+
+    @Override
+    public boolean insertTag(long bucket, int tag) {
+        checkBucket(bucket);
+        checkTag(tag);
+        long word = read(bucket);
+        long zeros = ByteUtil.zeroLanes(word, laneRest, laneHigh);
+        if (zeros == 0) {
+            return false;
+        }
+        int lane = Long.numberOfTrailingZeros(zeros) / bitsPerTag;
+        write(bucket, word | ((long) tag & tagMask) << (lane * bitsPerTag));
+        return true;
+    }
+
+    @Override
+    public boolean deleteTag(long bucket, int tag) {
+        checkBucket(bucket);
+        checkTag(tag);
+        return replace(bucket, tag, 0);
+    }
+
+    @Override
+    public int readTag(long bucket, int slot) {
+        checkBucket(bucket);
+        checkSlot(slot);
+        return (int) ((read(bucket) >>> (slot * bitsPerTag)) & tagMask);
+    }
+
+    @Override
+    public void writeTag(long bucket, int slot, int tag) {
+        checkBucket(bucket);
+        checkSlot(slot);
+        int shift = slot * bitsPerTag;
+        write(bucket, (read(bucket) & ~(tagMask << shift)) | (((long) tag & tagMask) << shift));
+    }
+
+    /**
+     * 桶中有等于 expect 的槽位时把它替换为 update。槽位会随排序移动，slot 只用于检查范围
+     */
+    @Override
+    public boolean compareAndSetTag(long bucket, int slot, int expect, int update) {
+        checkBucket(bucket);
+        checkSlot(slot);
+        checkTag(update);
+        return replace(bucket, expect, update);
+    }
+
+    @Override
+    public long prefetch(long bucket) {
+        checkBucket(bucket);
+        return table.get(firstWord(bucket));
+    }
+
+    @Override
+    long bucketWord(long bucket) {
+        return read(bucket);
+    }
+
+    /**
+     * 返回解码后的桶，仅用于调试输出
+     */
+    @Override
+    public long word(long bucket, int i) {
+        checkBucket(bucket);
+        return read(bucket);
+    }
+
+    /**
+     * 解码后每个桶是一个字
+     */
+    @Override
+    public int wordsPerBucket() {
+        return 1;
+    }
+
+    @Override
+    public int lockGroupShift() {
+        return GROUP_SHIFT;
+    }
+
+    private boolean replace(long bucket, int expect, int update) {
+        long word = read(bucket);
+        long zeros = ByteUtil.zeroLanes(word ^ broadcast(expect), laneRest, laneHigh);
+        if (zeros == 0) {
+            return false;
+        }
+        int shift = Long.numberOfTrailingZeros(zeros) / bitsPerTag * bitsPerTag;
+        write(bucket, (word & ~(tagMask << shift)) | (((long) update & tagMask) << shift));
+        return true;
+    }
+
+    // 桶所在组的第一个字加上桶在组中的字偏移
+    private long firstWord(long bucket) {
+        return (bucket >>> GROUP_SHIFT) * wordsPerGroup + ((bucket & ((1 << GROUP_SHIFT) - 1)) * bucketBits >>> 6);
+    }
+
+    // 桶在第一个字中的起始位
+    private int bucketShift(long bucket) {
+        return (int) ((bucket & ((1 << GROUP_SHIFT) - 1)) * bucketBits) & 63;
+    }
+
+    /**
+     * 读出压缩的桶并解码成普通布局：第i个槽位在 i*bitsPerTag 位，从小到大排列
+     */
+    private long read(long bucket) {
+        long w = firstWord(bucket);
+        int shift = bucketShift(bucket);
+        long bits = table.get(w) >>> shift;
+        if (shift + bucketBits > Long.SIZE) {
+            bits |= table.get(w + 1) << (Long.SIZE - shift);
+        }
+        // 并发修改时乐观读可能读到不完整的桶，编号超出3876时解码出全0，之后的 validate 会失败
+        int nibbles = DECODE[(int) bits & ((1 << CODE_BITS) - 1)];
+        long lows = bits >>> CODE_BITS;
+        return tag(nibbles, lows)
+                | tag(nibbles >>> 4, lows >>> lowBits) << bitsPerTag
+                | tag(nibbles >>> 8, lows >>> 2 * lowBits) << 2 * bitsPerTag
+                | tag(nibbles >>> 12, lows >>> 3 * lowBits) << 3 * bitsPerTag;
+    }
+
+    private long tag(int nibbles, long lows) {
+        return (long) (nibbles & 0xf) << lowBits | lows & lowMask;
+    }
+
+    /**
+     * 把普通布局的桶排序、编码后写回。只在持有桶的写锁时调用
+     */
+    private void write(long bucket, long word) {
+        long t0 = word & tagMask;
+        long t1 = (word >>> bitsPerTag) & tagMask;
+        long t2 = (word >>> 2 * bitsPerTag) & tagMask;
+        long t3 = (word >>> 3 * bitsPerTag) & tagMask;
+        // 4个元素的排序网络
+        long t;
+        if (t0 > t1) { t = t0; t0 = t1; t1 = t; }
+        if (t2 > t3) { t = t2; t2 = t3; t3 = t; }
+        if (t0 > t2) { t = t0; t0 = t2; t2 = t; }
+        if (t1 > t3) { t = t1; t1 = t3; t3 = t; }
+        if (t1 > t2) { t = t1; t1 = t2; t2 = t; }
+        int nibbles = (int) (t0 >>> lowBits | (t1 >>> lowBits) << 4 | (t2 >>> lowBits) << 8 | (t3 >>> lowBits) << 12);
+        long bits = ENCODE[nibbles]
+                | ((t0 & lowMask) | (t1 & lowMask) << lowBits | (t2 & lowMask) << 2 * lowBits | (t3 & lowMask) << 3 * lowBits) << CODE_BITS;
+
+        long w = firstWord(bucket);
+        int shift = bucketShift(bucket);
+        table.set(w, (table.get(w) & ~(bucketMask << shift)) | (bits << shift));
+        int spill = shift + bucketBits - Long.SIZE;
+        if (spill > 0) {
+            long mask = (1L << spill) - 1;
+            table.set(w + 1, (table.get(w + 1) & ~mask) | (bits >>> (Long.SIZE - shift)));
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package org.Mercury.cuckoo;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 分片的布谷鸟过滤器：hash 的高位决定 key 属于哪个分片，每个分片是一个独立的{@link CuckooFilter}，
+ * 有自己的表、锁、暂存区和计数器，不同分片上的操作不会争用同一个锁。分片数和每个分片的锁段数({@link Builder#expectedConcurrency})互不相关。
+ *
+ * 桶索引用 hash 高32位的低位，分片用高32位的最高几位，每个分片的桶数不超过 2^(32-分片位数) 时两者不重叠。
+ *
+ * 单写者模式下每个分片有一个自己的写线程，添加和删除交给它执行(调用方等待结果)，分片使用无锁模式，
+ * 写操作的CAS不会有竞争，查找照常在调用线程中进行，从不加锁。每次写操作都要分配一个任务、唤醒写线程并等待它的结果，
+ * 一次添加的耗时是几微秒而不是几十纳秒(见 README 中 ShardedBenchmark 的数字)，只在核数多、写操作争用严重时才比加锁划算
+ */
+public class ShardedCuckooFilter implements Closeable {
+    private final HashStrategy hashStrategy;
+    private final int shardBits;
+    private final Shard[] shards;
+    private final boolean singleWriter;
+
+    private ShardedCuckooFilter(Builder builder) {
+        if(builder.maxItems <= 0)
+            throw new IllegalArgumentException("Max items must be a positive number, received " + builder.maxItems);
+        if(builder.shards <= 0 || Integer.bitCount(builder.shards) != 1)
+            throw new IllegalArgumentException("Shards must be a positive power of two, received " + builder.shards);
+        if(builder.hashStrategy == null)
+            throw new IllegalArgumentException("Hash strategy cannot be null");
+        this.hashStrategy = builder.hashStrategy;
+        this.shardBits = Integer.numberOfTrailingZeros(builder.shards);
+        this.singleWriter = builder.singleWriter;
+        this.shards = new Shard[builder.shards];
+        long perShard = (builder.maxItems + builder.shards - 1) / builder.shards;
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                CuckooFilter filter = CuckooFilter.builder(perShard)
+                        .fingerprintSize(builder.fingerprintSize)
+                        .slotsPerBucket(builder.slotsPerBucket)
+                        .hashStrategy(hashStrategy)
+                        .concurrencyMode(singleWriter ? ConcurrencyMode.LOCK_FREE : builder.concurrencyMode)
+                        .insertionStrategy(builder.insertionStrategy)
+                        .stashSize(builder.stashSize)
+                        .expectedConcurrency(builder.expectedConcurrency)
+                        .build();
+                shards[i] = new Shard(filter, singleWriter ? newWriter(i) : null);
+            }
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public static Builder builder(long maxItems) {
+        return new Builder(maxItems);
+    }
+
+    /**
+     * 过滤器的构建参数，未设置的参数使用{@link CuckooFilter}的默认值，maxItems 平均分给各个分片
+     */
+    public static final class Builder {
+        private final long maxItems;
+        private int shards = defaultShards();
+        private int fingerprintSize = CuckooFilter.DEFAULT_FINGERPRINT_SIZE;
+        private int slotsPerBucket = CuckooFilter.DEFAULT_SLOTS_PER_BUCKET;
+        private HashStrategy hashStrategy = CuckooFilter.DEFAULT_HASH_STRATEGY;
+        private ConcurrencyMode concurrencyMode = ConcurrencyMode.SEGMENT_LOCKS;
+        private InsertionStrategy insertionStrategy = InsertionStrategy.RANDOM_WALK;
+        private int stashSize = CuckooFilter.DEFAULT_STASH_SIZE;
+        private int expectedConcurrency = CuckooFilter.DEFAULT_EXPECTED_CONCURRENCY;
+        private boolean singleWriter = false;
+
+        private Builder(long maxItems) {
+            this.maxItems = maxItems;
+        }
+
+        /**
+         * 分片数，必须是2的幂，默认是不小于CPU核数的2的幂
+         */
+        public Builder shards(int shards) {
+            this.shards = shards;
+            return this;
+        }
+
+        public Builder fingerprintSize(int fingerprintSize) {
+            this.fingerprintSize = fingerprintSize;
+            return this;
+        }
+
+        public Builder slotsPerBucket(int slotsPerBucket) {
+            this.slotsPerBucket = slotsPerBucket;
+            return this;
+        }
+
+        public Builder hashStrategy(HashStrategy hashStrategy) {
+            this.hashStrategy = hashStrategy;
+            return this;
+        }
+
+        /**
+         * 每个分片的并发模式，单写者模式下总是无锁模式
+         */
+        public Builder concurrencyMode(ConcurrencyMode concurrencyMode) {
+            this.concurrencyMode = concurrencyMode;
+            return this;
+        }
+
+        public Builder insertionStrategy(InsertionStrategy insertionStrategy) {
+            this.insertionStrategy = insertionStrategy;
+            return this;
+        }
+
+        public Builder stashSize(int stashSize) {
+            this.stashSize = stashSize;
+            return this;
+        }
+
+        /**
+         * 预计同时访问一个分片的线程数，决定每个分片的锁(或版本号)的段数
+         */
+        public Builder expectedConcurrency(int expectedConcurrency) {
+            this.expectedConcurrency = expectedConcurrency;
+            return this;
+        }
+
+        /**
+         * 每个分片只由自己的写线程修改
+         */
+        public Builder singleWriter(boolean singleWriter) {
+            this.singleWriter = singleWriter;
+            return this;
+        }
+
+        public ShardedCuckooFilter build() {
+            return new ShardedCuckooFilter(this);
+        }
+
+        private static int defaultShards() {
+            int cores = Runtime.getRuntime().availableProcessors();
+            return cores <= 1 ? 1 : Integer.highestOneBit(cores - 1) << 1;
+        }
+    }
+
+    /**
+     * 分片的字段创建后不再修改，只会被读。被写的状态(表、锁、暂存区、计数器)都在各自的{@link CuckooFilter}中
+     */
+    private static final class Shard {
+        final CuckooFilter filter;
+        // 单写者模式下的写线程，否则是 null
+        final ExecutorService writer;
+
+        Shard(CuckooFilter filter, ExecutorService writer) {
+            this.filter = filter;
+            this.writer = writer;
+        }
+    }
+
+    private static ExecutorService newWriter(int shard) {
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "cuckoo-shard-writer-" + shard);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 如果在 key 所在的分片中找到它的签名，则返回{@code true}
+     */
+    public boolean contains(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Cannot look up a null object");
+        }
+        long hash = KeyBuffer.hashObject(hashStrategy, o);
+        return shardOf(hash).filter.containsHash(hash);
+    }
+
+    /**
+     * 添加到 key 所在的分片，那个分片满了时返回{@code false}
+     */
+    public boolean add(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Cannot add a null object");
+        }
+        long hash = KeyBuffer.hashObject(hashStrategy, o);
+        Shard shard = shardOf(hash);
+        if (shard.writer == null) {
+            return shard.filter.addHash(hash);
+        }
+        return write(shard, () -> shard.filter.addHash(hash));
+    }
+
+    public boolean delete(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Cannot remove a null object");
+        }
+        long hash = KeyBuffer.hashObject(hashStrategy, o);
+        Shard shard = shardOf(hash);
+        if (shard.writer == null) {
+            return shard.filter.deleteHash(hash);
+        }
+        return write(shard, () -> shard.filter.deleteHash(hash));
+    }
+
+    /**
+     * 分片数
+     */
+    public int shards() {
+        return shards.length;
+    }
+
+    /**
+     * 第 i 个分片，可以用来查看它的运行指标。单写者模式下不应该直接修改它
+     */
+    public CuckooFilter shard(int i) {
+        return shards[i].filter;
+    }
+
+    public boolean isSingleWriter() {
+        return singleWriter;
+    }
+
+    /**
+     * 所有分片的项数之和
+     */
+    public long itemCount() {
+        long items = 0;
+        for (Shard shard : shards) {
+            items += shard.filter.metrics().getItemCount();
+        }
+        return items;
+    }
+
+    /**
+     * 等写线程处理完已经提交的写操作，然后释放所有分片
+     */
+    @Override
+    public void close() {
+        boolean interrupted = false;
+        for (Shard shard : shards) {
+            if (shard != null && shard.writer != null) {
+                shard.writer.shutdown();
+            }
+        }
+        for (Shard shard : shards) {
+            if (shard == null) {
+                continue;
+            }
+            while (shard.writer != null) {
+                try {
+                    if (shard.writer.awaitTermination(1, TimeUnit.SECONDS)) {
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            shard.filter.close();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // 高32位的最高 shardBits 位，只有一个分片时右移32位得到0
+    private Shard shardOf(long hash) {
+        return shards[(int) ((hash >>> 32) >>> (32 - shardBits))];
+    }
+
+    /**
+     * 在分片的写线程中执行写操作并等待结果
+     */
+    private static boolean write(Shard shard, Callable<Boolean> op) {
+        try {
+            return shard.writer.submit(op).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the shard writer", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        for (boolean singleWriter : new boolean[]{false, true}) {
+            if (!testConcurrentShards(singleWriter)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 8个线程同时向8个分片添加、删除和查找，每个线程检查自己添加且未删除的对象都能被找到
+     */
+    private static boolean testConcurrentShards(boolean singleWriter) throws InterruptedException {
+        final int threads = 8;
+        final int keysPerThread = 20000;
+        final ShardedCuckooFilter filter = builder(threads * keysPerThread).shards(8).singleWriter(singleWriter).build();
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final CountDownLatch start = new CountDownLatch(1);
+        System.out.println("\n===============================");
+        System.out.println("CONCURRENT OPERATIONS ON " + filter.shards() + " SHARDS WITH " + threads + " THREADS" + (singleWriter ? " (SINGLE WRITER)" : ""));
+
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int base = t * keysPerThread;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < keysPerThread && !failed.get(); i++) {
+                    Integer o = base + i;
+                    if (!filter.add(o) || !filter.contains(o)) {
+                        System.out.println("ERROR, COULD NOT ADD OR FIND " + o);
+                        failed.set(true);
+                    }
+                    if (i % 4 == 3 && !filter.delete(base + i - 1)) {
+                        System.out.println("ERROR, COULD NOT DELETE " + (base + i - 1));
+                        failed.set(true);
+                    }
+                }
+                for (int i = 0; i < keysPerThread && !failed.get(); i++) {
+                    if (i % 4 != 2 && !filter.contains(base + i)) {
+                        System.out.println("ERROR, FILTER DOES NOT CONTAIN " + (base + i));
+                        failed.set(true);
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long expected = threads * (long) keysPerThread * 3 / 4;
+        if (!failed.get() && filter.itemCount() != expected) {
+            System.out.println("ERROR, " + filter.itemCount() + " ITEMS INSTEAD OF " + expected);
+            failed.set(true);
+        }
+        filter.close();
+        if (!failed.get()) {
+            System.out.println("EVERYTHING FINE!");
+        }
+        return !failed.get();
+    }
+}
@@ -0,0 +1,377 @@
+package org.Mercury.cuckoo;
+
+import com.google.common.base.Ticker;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 只记住最近一段时间(或最近若干次添加)的过滤器，由一圈 generations 个{@link CuckooFilter}(代)组成。
+ * 添加进入最新的一代，查找检查所有的代；最新的一代到期(时间窗口)或者添加数达到 itemsPerGeneration(计数窗口)时轮换：
+ * 最旧的一代被原地{@link CuckooFilter#clear 清空}，成为新的最新一代，表不重新分配，内存不变，也没有重建造成的停顿。
+ *
+ * 每代覆盖窗口的 1/generations，所以一个元素在添加后至少保留 (generations-1)/generations 个窗口，至多一个窗口。
+ * 轮换在添加和查找时检查，不需要后台线程；很久没有访问时，下一次访问会一次轮换多代。
+ * 最新的一代满了时提前轮换，最旧的一代会早于窗口被清掉。
+ *
+ * 所有代的桶数、指纹位数和hash方法都相同，一个 key 在每一代中的桶和指纹都一样
+ */
+public class SlidingWindowCuckooFilter implements Closeable {
+    public static final int DEFAULT_GENERATIONS = 4;
+
+    private final HashStrategy hashStrategy;
+    private final CuckooFilter[] generations;
+    // 时间窗口中每代的纳秒数，计数窗口时是0
+    private final long generationNanos;
+    // 计数窗口中每代的添加数，时间窗口时是0
+    private final long itemsPerGeneration;
+    private final Ticker ticker;
+
+    // 最新一代的下标，只在持有 rotateLock 时修改
+    private volatile int current = 0;
+    // 时间窗口中下一次轮换的时间
+    private volatile long nextRotation;
+    // 最新一代的添加数(计数窗口)
+    private final AtomicLong currentItems = new AtomicLong();
+    private final Object rotateLock = new Object();
+
+    private SlidingWindowCuckooFilter(Builder builder) {
+        if(builder.generations < 2)
+            throw new IllegalArgumentException("A sliding window needs at least 2 generations, received " + builder.generations);
+        if(builder.windowNanos < 0)
+            throw new IllegalArgumentException("Window cannot be negative, received " + builder.windowNanos + " ns");
+        if(builder.windowNanos > 0 && builder.windowNanos < builder.generations)
+            throw new IllegalArgumentException("Window of " + builder.windowNanos + " ns is too short for " + builder.generations + " generations");
+        if(builder.windowNanos == 0 && builder.itemsPerGeneration <= 0)
+            throw new IllegalArgumentException("Items per generation must be a positive number, received " + builder.itemsPerGeneration);
+        if(builder.ticker == null)
+            throw new IllegalArgumentException("Ticker cannot be null");
+        this.hashStrategy = builder.hashStrategy;
+        this.generationNanos = builder.windowNanos / builder.generations;
+        this.itemsPerGeneration = builder.windowNanos > 0 ? 0 : builder.itemsPerGeneration;
+        this.ticker = builder.ticker;
+        this.generations = new CuckooFilter[builder.generations];
+        try {
+            for (int i = 0; i < generations.length; i++) {
+                generations[i] = CuckooFilter.builder(builder.maxItemsPerGeneration)
+                        .fingerprintSize(builder.fingerprintSize)
+                        .slotsPerBucket(builder.slotsPerBucket)
+                        .hashStrategy(builder.hashStrategy)
+                        .concurrencyMode(builder.concurrencyMode)
+                        .insertionStrategy(builder.insertionStrategy)
+                        .stashSize(builder.stashSize)
+                        .expectedConcurrency(builder.expectedConcurrency)
+                        .build();
+            }
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+        this.nextRotation = ticker.read() + generationNanos;
+    }
+
+    /**
+     * @param maxItemsPerGeneration 每一代的容量
+     */
+    public static Builder builder(long maxItemsPerGeneration) {
+        return new Builder(maxItemsPerGeneration);
+    }
+
+    /**
+     * 过滤器的构建参数，未设置的参数使用{@link CuckooFilter}的默认值。
+     * 设置了{@link #window}时是时间窗口，否则是计数窗口，每代的添加数默认等于每代的容量
+     */
+    public static final class Builder {
+        private final long maxItemsPerGeneration;
+        private int generations = DEFAULT_GENERATIONS;
+        private long windowNanos = 0;
+        private long itemsPerGeneration;
+        private Ticker ticker = Ticker.systemTicker();
+        private int fingerprintSize = CuckooFilter.DEFAULT_FINGERPRINT_SIZE;
+        private int slotsPerBucket = CuckooFilter.DEFAULT_SLOTS_PER_BUCKET;
+        private HashStrategy hashStrategy = CuckooFilter.DEFAULT_HASH_STRATEGY;
+        private ConcurrencyMode concurrencyMode = ConcurrencyMode.SEGMENT_LOCKS;
+        private InsertionStrategy insertionStrategy = InsertionStrategy.RANDOM_WALK;
+        private int stashSize = CuckooFilter.DEFAULT_STASH_SIZE;
+        private int expectedConcurrency = CuckooFilter.DEFAULT_EXPECTED_CONCURRENCY;
+
+        private Builder(long maxItemsPerGeneration) {
+            this.maxItemsPerGeneration = maxItemsPerGeneration;
+            this.itemsPerGeneration = maxItemsPerGeneration;
+        }
+
+        /**
+         * 代数，至少2，默认4。代数越多，窗口的边界越精确，查找要检查的代也越多
+         */
+        public Builder generations(int generations) {
+            this.generations = generations;
+            return this;
+        }
+
+        /**
+         * 时间窗口的长度
+         */
+        public Builder window(long duration, TimeUnit unit) {
+            this.windowNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * 计数窗口中每代的添加数，整个窗口是 generations 倍
+         */
+        public Builder itemsPerGeneration(long itemsPerGeneration) {
+            this.itemsPerGeneration = itemsPerGeneration;
+            return this;
+        }
+
+        /**
+         * 时间窗口使用的时钟，默认是 System.nanoTime
+         */
+        public Builder ticker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        public Builder fingerprintSize(int fingerprintSize) {
+            this.fingerprintSize = fingerprintSize;
+            return this;
+        }
+
+        public Builder slotsPerBucket(int slotsPerBucket) {
+            this.slotsPerBucket = slotsPerBucket;
+            return this;
+        }
+
+        public Builder hashStrategy(HashStrategy hashStrategy) {
+            this.hashStrategy = hashStrategy;
+            return this;
+        }
+
+        public Builder concurrencyMode(ConcurrencyMode concurrencyMode) {
+            this.concurrencyMode = concurrencyMode;
+            return this;
+        }
+
+        public Builder insertionStrategy(InsertionStrategy insertionStrategy) {
+            this.insertionStrategy = insertionStrategy;
+            return this;
+        }
+
+        public Builder stashSize(int stashSize) {
+            this.stashSize = stashSize;
+            return this;
+        }
+
+        public Builder expectedConcurrency(int expectedConcurrency) {
+            this.expectedConcurrency = expectedConcurrency;
+            return this;
+        }
+
+        public SlidingWindowCuckooFilter build() {
+            return new SlidingWindowCuckooFilter(this);
+        }
+    }
+
+    /**
+     * 如果在窗口内的任何一代中找到给定对象的签名，则返回{@code true}，从最新的一代开始查找
+     */
+    public boolean contains(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Cannot look up a null object");
+        }
+        expire();
+        long hash = KeyBuffer.hashObject(hashStrategy, o);
+        int newest = current;
+        for (int k = 0; k < generations.length; k++) {
+            if (generations[(newest - k + generations.length) % generations.length].containsHash(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 批量查找，results[i] 表示 keys[i] 是否在窗口内。每一代各做一次{@link CuckooFilter#containsAll}，结果取或
+     */
+    public void containsAll(long[] keys, boolean[] results) {
+        if (keys == null || results == null) {
+            throw new IllegalArgumentException("Keys and results cannot be null");
+        }
+        expire();
+        int newest = current;
+        generations[newest].containsAll(keys, results);
+        boolean[] found = new boolean[keys.length];
+        for (int k = 1; k < generations.length; k++) {
+            generations[(newest - k + generations.length) % generations.length].containsAll(keys, found);
+            for (int i = 0; i < keys.length; i++) {
+                results[i] |= found[i];
+            }
+        }
+    }
+
+    /**
+     * 添加到最新的一代，它满了就提前轮换后再添加一次
+     */
+    public boolean add(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Cannot add a null object");
+        }
+        expire();
+        long hash = KeyBuffer.hashObject(hashStrategy, o);
+        int newest = current;
+        boolean added = generations[newest].addHash(hash);
+        if (!added) {
+            rotate(newest);
+            newest = current;
+            added = generations[newest].addHash(hash);
+        }
+        if (added && itemsPerGeneration > 0 && currentItems.incrementAndGet() >= itemsPerGeneration) {
+            rotate(newest);
+        }
+        return added;
+    }
+
+    /**
+     * 从最新的一代开始，删除找到的第一个签名
+     */
+    public boolean delete(Object o) {
+        if (o == null) {
+            throw new IllegalArgumentException("Cannot remove a null object");
+        }
+        long hash = KeyBuffer.hashObject(hashStrategy, o);
+        int newest = current;
+        for (int k = 0; k < generations.length; k++) {
+            if (generations[(newest - k + generations.length) % generations.length].deleteHash(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int generations() {
+        return generations.length;
+    }
+
+    /**
+     * 第 k 新的一代(0是最新的一代)，可以用来查看它的运行指标
+     */
+    public CuckooFilter generation(int k) {
+        return generations[(current - k + generations.length) % generations.length];
+    }
+
+    /**
+     * 窗口内所有代的项数之和
+     */
+    public long itemCount() {
+        long items = 0;
+        for (CuckooFilter generation : generations) {
+            items += generation.metrics().getItemCount();
+        }
+        return items;
+    }
+
+    /**
+     * 立即轮换一次，清空最旧的一代
+     */
+    public void rotate() {
+        rotate(current);
+    }
+
+    @Override
+    public void close() {
+        for (CuckooFilter generation : generations) {
+            if (generation != null) {
+                generation.close();
+            }
+        }
+    }
+
+    /**
+     * 时间窗口中，到期的代都轮换掉。超过了整个窗口时所有的代都被清空一次，下一次轮换从现在算起
+     */
+    private void expire() {
+        if (generationNanos == 0 || ticker.read() - nextRotation < 0) {
+            return;
+        }
+        synchronized (rotateLock) {
+            long now = ticker.read();
+            for (int k = 0; k < generations.length && now - nextRotation >= 0; k++) {
+                rotate(current);
+                nextRotation += generationNanos;
+            }
+            if (now - nextRotation >= 0) {
+                nextRotation = now + generationNanos;
+            }
+        }
+    }
+
+    /**
+     * 最新的一代仍是 expected 时轮换，多个线程同时发现它到期或者满了时只轮换一次
+     */
+    private void rotate(int expected) {
+        synchronized (rotateLock) {
+            if (current != expected) {
+                return;
+            }
+            int oldest = (expected + 1) % generations.length;
+            generations[oldest].clear();
+            currentItems.set(0);
+            current = oldest;
+        }
+    }
+
+    public static void main(String[] args) {
+        final long[] now = {0};
+        Ticker ticker = new Ticker() {
+            @Override
+            public long read() {
+                return now[0];
+            }
+        };
+        SlidingWindowCuckooFilter filter = builder(10000).window(4, TimeUnit.SECONDS).ticker(ticker).build();
+        System.out.println("TIME WINDOW OF 4 SECONDS IN " + filter.generations() + " GENERATIONS");
+        for (int second = 0; second < 12; second++) {
+            for (int i = 0; i < 1000; i++) {
+                filter.add(second * 1000 + i);
+            }
+            now[0] += TimeUnit.SECONDS.toNanos(1);
+        }
+        // 现在是第12秒，第9到11秒添加的一定还在，第7秒以前添加的一定不在了
+        for (int i = 9000; i < 12000; i++)
+            if (!filter.contains(i)) {
+                System.out.println("ERROR, FILTER DOES NOT CONTAIN " + i + " INSIDE THE WINDOW");
+                return;
+            }
+        int stale = 0;
+        for (int i = 0; i < 8000; i++)
+            if (filter.contains(i))
+                stale++;
+        if (stale > 100) {
+            System.out.println("ERROR, " + stale + " EXPIRED ITEMS ARE STILL FOUND");
+            return;
+        }
+        System.out.println(stale + " FALSE POSITIVES AMONG 8000 EXPIRED ITEMS");
+
+        now[0] += TimeUnit.SECONDS.toNanos(60);
+        if (filter.contains(11999) || filter.itemCount() != 0) {
+            System.out.println("ERROR, FILTER IS NOT EMPTY AFTER A LONG IDLE PERIOD");
+            return;
+        }
+
+        SlidingWindowCuckooFilter counted = builder(1000).generations(3).itemsPerGeneration(500).build();
+        System.out.println("COUNT WINDOW OF 3 x 500 ITEMS");
+        for (int i = 0; i < 5000; i++)
+            counted.add(i);
+        for (int i = 4000; i < 5000; i++)
+            if (!counted.contains(i)) {
+                System.out.println("ERROR, FILTER DOES NOT CONTAIN " + i + " INSIDE THE WINDOW");
+                return;
+            }
+        if (counted.itemCount() > 1500) {
+            System.out.println("ERROR, " + counted.itemCount() + " ITEMS IN A WINDOW OF 1500");
+            return;
+        }
+        System.out.println("EVERYTHING FINE!");
+    }
+}
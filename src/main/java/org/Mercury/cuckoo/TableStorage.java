@@ -0,0 +1,50 @@
+package org.Mercury.cuckoo;
+
+import java.io.Closeable;
+
+/**
+ * 表的底层存储，以64位的字为单位读写，字的索引是long。
+ * 加锁模式下所有写操作都在桶的写锁内进行，compareAndSet 不需要是原子的；
+ * 无锁模式下 compareAndSet 必须是原子操作({@link #isAtomic()})。
+ * 内置的实现见{@link TableStorages}。
+ */
+public interface TableStorage extends Closeable {
+
+    /**
+     * 字的个数
+     */
+    long size();
+
+    long get(long index);
+
+    void set(long index, long value);
+
+    boolean compareAndSet(long index, long expect, long update);
+
+    /**
+     * compareAndSet 是否是原子操作
+     */
+    boolean isAtomic();
+
+    /**
+     * 把所有字置0，不重新分配
+     */
+    default void clear() {
+        for (long i = 0; i < size(); i++) {
+            set(i, 0);
+        }
+    }
+
+    /**
+     * 释放存储，之后不能再访问。映射的文件会先把修改写回磁盘
+     */
+    @Override
+    void close();
+
+    /**
+     * 按表需要的字数分配存储
+     */
+    interface Factory {
+        TableStorage allocate(long words);
+    }
+}
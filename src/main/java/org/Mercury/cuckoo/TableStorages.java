@@ -0,0 +1,59 @@
+package org.Mercury.cuckoo;
+
+import java.nio.file.Path;
+
+/**
+ * 内置的存储实现
+ */
+public final class TableStorages {
+
+    private TableStorages() {
+    }
+
+    /**
+     * 堆上的long数组，最多约16GB，加锁模式的默认存储
+     */
+    public static TableStorage.Factory heap() {
+        return HeapTableStorage::new;
+    }
+
+    /**
+     * 堆上的 AtomicLongArray，支持原子的 compareAndSet，无锁模式的默认存储
+     */
+    public static TableStorage.Factory atomicHeap() {
+        return AtomicTableStorage::new;
+    }
+
+    /**
+     * 堆外的直接内存，不受GC堆大小限制，可以超过2GB
+     */
+    public static TableStorage.Factory offHeap() {
+        return DirectTableStorage::new;
+    }
+
+    /**
+     * 映射到文件。文件不存在(或为空)时创建；已存在且大小正好时直接映射，保留其中的内容，
+     * 所以多个JVM用相同的参数构建过滤器时共享同一张表
+     */
+    public static TableStorage.Factory mapped(final Path file) {
+        return mapped(file, 0, false);
+    }
+
+    /**
+     * 只读映射一个已存在的文件
+     */
+    public static TableStorage.Factory mappedReadOnly(final Path file) {
+        return mapped(file, 0, true);
+    }
+
+    /**
+     * @param offset 表在文件中的起始位置(字节)，文件开头可以留给其他数据
+     */
+    public static TableStorage.Factory mapped(final Path file, final long offset, final boolean readOnly) {
+        if(file == null)
+            throw new IllegalArgumentException("Cannot map a null file");
+        if(offset < 0)
+            throw new IllegalArgumentException("Cannot map a table at a negative offset " + offset);
+        return words -> new MappedTableStorage(file, offset, words, readOnly);
+    }
+}
@@ -0,0 +1,164 @@
+package org.Mercury.cuckoo;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 找不到踢出路径的指纹暂存在这里，查找时和两个候选桶一起检查。
+ * 每一项是一个指纹和它的第一个候选桶，另一个候选桶由指纹算出，不需要保存。
+ *
+ * 容量很小，写操作加写锁；查找先乐观读，被并发修改了才加读锁。暂存区为空时查找只读一次 volatile 的 size。
+ * 项从暂存区移回表中时，先放入表再从暂存区删除，所以先查暂存区、再查表的查找不会漏掉它。
+ */
+final class VictimStash {
+    private final long[] indexes;
+    private final int[] fingerprints;
+    // 有效的项是[0,size)，写操作最后才修改 size
+    private volatile int size = 0;
+    private final StampedLock lock = new StampedLock();
+    // 查找在暂存区中命中的次数
+    private final LongAdder hits = new LongAdder();
+
+    VictimStash(int capacity) {
+        if(capacity <= 0)
+            throw new IllegalArgumentException("Stash capacity must be a positive number, received " + capacity);
+        indexes = new long[capacity];
+        fingerprints = new int[capacity];
+    }
+
+    int capacity() {
+        return indexes.length;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean isFull() {
+        return size == indexes.length;
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    boolean contains(int fingerprint, long index, long index2) {
+        if (size == 0) {
+            return false;
+        }
+        long stamp = lock.tryOptimisticRead();
+        boolean found = find(fingerprint, index, index2) >= 0;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                found = find(fingerprint, index, index2) >= 0;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if (found) {
+            hits.increment();
+        }
+        return found;
+    }
+
+    /**
+     * 暂存区满了时返回{@code false}
+     */
+    boolean add(int fingerprint, long index) {
+        long stamp = lock.writeLock();
+        try {
+            int n = size;
+            if (n == indexes.length) {
+                return false;
+            }
+            indexes[n] = index;
+            fingerprints[n] = fingerprint;
+            size = n + 1;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 删除一个指纹相同、候选桶之一相同的项
+     */
+    boolean remove(int fingerprint, long index, long index2) {
+        long stamp = lock.writeLock();
+        try {
+            int i = find(fingerprint, index, index2);
+            if (i < 0) {
+                return false;
+            }
+            removeAt(i);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 删除第一个候选桶正好是 index 的项，用于把项移回表中
+     */
+    boolean removeExact(int fingerprint, long index) {
+        long stamp = lock.writeLock();
+        try {
+            for (int i = 0; i < size; i++) {
+                if (fingerprints[i] == fingerprint && indexes[i] == index) {
+                    removeAt(i);
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    void clear() {
+        long stamp = lock.writeLock();
+        try {
+            size = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 把所有项复制到给定的数组中，返回项数
+     */
+    int copyTo(long[] indexesOut, int[] fingerprintsOut) {
+        long stamp = lock.readLock();
+        try {
+            int n = size;
+            System.arraycopy(indexes, 0, indexesOut, 0, n);
+            System.arraycopy(fingerprints, 0, fingerprintsOut, 0, n);
+            return n;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private int find(int fingerprint, long index, long index2) {
+        int n = Math.min(size, indexes.length);
+        for (int i = 0; i < n; i++) {
+            if (fingerprints[i] == fingerprint && (indexes[i] == index || indexes[i] == index2)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // 用最后一项填补空位
+    private void removeAt(int i) {
+        int last = size - 1;
+        indexes[i] = indexes[last];
+        fingerprints[i] = fingerprints[last];
+        size = last;
+    }
+}
@@ -0,0 +1,26 @@
+package org.Mercury.cuckoo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * JDK 17 及以上使用的{@link AlignedBuffers}：多分配一个缓存行，再用 alignedSlice 取出从缓存行边界开始的部分
+ */
+final class AlignedBuffers {
+    static final int CACHE_LINE = 64;
+    private AlignedBuffers() {
+    }
+
+    static boolean aligned() {
+        return true;
+    }
+
+    static ByteBuffer allocate(int bytes) {
+        if (bytes > Integer.MAX_VALUE - CACHE_LINE) {
+            throw new IllegalArgumentException("Cannot allocate " + bytes + " aligned bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes + CACHE_LINE - 1).alignedSlice(CACHE_LINE);
+        buffer.limit(bytes);
+        return buffer.slice().order(ByteOrder.nativeOrder());
+    }
+}
@@ -0,0 +1,25 @@
+package org.Mercury.cuckoo;
+
+/**
+ * JDK 17 及以上使用的{@link BucketProbe}。启动时加了 --add-modules jdk.incubator.vector 才会用{@link VectorKernel}，
+ * 系统属性 cuckoo.vector=false 可以关闭；否则和 Java 8 的版本一样是标量实现
+ */
+final class BucketProbe {
+    static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && !"false".equals(System.getProperty("cuckoo.vector"));
+
+    private BucketProbe() {
+    }
+
+    static void findAll(long[] words, long[] words2, long[] patterns, int n, long laneLow, long laneHigh, boolean[] found) {
+        if (VECTORIZED) {
+            // 没有这个模块时不会加载 VectorKernel
+            VectorKernel.findAll(words, words2, patterns, n, laneLow, laneHigh, found);
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            found[i] = ByteUtil.hasZeroLane(words[i] ^ patterns[i], laneLow, laneHigh)
+                    || ByteUtil.hasZeroLane(words2[i] ^ patterns[i], laneLow, laneHigh);
+        }
+    }
+}
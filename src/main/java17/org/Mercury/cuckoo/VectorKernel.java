@@ -0,0 +1,38 @@
+package org.Mercury.cuckoo;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * 用 Vector API 做{@link ByteUtil#hasZeroLane}的比较，每次处理 SPECIES_PREFERRED 个桶(AVX2 是4个，AVX-512 是8个)。
+ * 每个向量元素仍然是一个桶的字，槽位的宽度(8位、16位或其他)只由 laneLow/laneHigh 决定
+ */
+final class VectorKernel {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    private VectorKernel() {
+    }
+
+    static void findAll(long[] words, long[] words2, long[] patterns, int n, long laneLow, long laneHigh, boolean[] found) {
+        LongVector low = LongVector.broadcast(SPECIES, laneLow);
+        LongVector high = LongVector.broadcast(SPECIES, laneHigh);
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            LongVector pattern = LongVector.fromArray(SPECIES, patterns, i);
+            LongVector x = LongVector.fromArray(SPECIES, words, i).lanewise(VectorOperators.XOR, pattern);
+            LongVector y = LongVector.fromArray(SPECIES, words2, i).lanewise(VectorOperators.XOR, pattern);
+            // (x - laneLow) & ~x & laneHigh
+            LongVector zx = x.sub(low).lanewise(VectorOperators.AND_NOT, x).and(high);
+            LongVector zy = y.sub(low).lanewise(VectorOperators.AND_NOT, y).and(high);
+            VectorMask<Long> hit = zx.or(zy).compare(VectorOperators.NE, 0);
+            hit.intoArray(found, i);
+        }
+        for (; i < n; i++) {
+            found[i] = ByteUtil.hasZeroLane(words[i] ^ patterns[i], laneLow, laneHigh)
+                    || ByteUtil.hasZeroLane(words2[i] ^ patterns[i], laneLow, laneHigh);
+        }
+    }
+}